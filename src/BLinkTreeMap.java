@@ -0,0 +1,672 @@
+/************************************************************************************
+ * @file BLinkTreeMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.UnaryOperator;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * This class provides concurrent B+Tree maps in the style of Lehman and Yao's B-link
+ * tree.  Every node carries a high key (an exclusive upper bound on the keys below
+ * it) and a link to its right sibling, so a search that reaches a node after the
+ * node was split just follows the right link to the node now holding its key.
+ * Readers take no locks: a node's contents are an immutable Image that writers
+ * replace (copy on write) while holding the node's monitor, so a reader always sees
+ * a consistent node.  Writers lock one node at a time (Sagiv's variant): the leaf to
+ * change and then, after a split, the parent that receives the separator, moving
+ * right at each level when the node has been split in the meantime.  As in Lehman
+ * and Yao's tree nodes are never merged, so remove may leave underfull (even empty)
+ * leaves.  Iteration and cursors are weakly consistent: they return keys in
+ * ascending order and never fail, but may miss changes made while they run.  Null
+ * keys and values are not allowed.
+ */
+public class BLinkTreeMap <K extends Comparable <K>, V>
+       extends AbstractMap <K, V>
+       implements ConcurrentMap <K, V>
+{
+    /** The default maximum fanout for a node.
+     */
+    private static final int ORDER = 64;
+
+    /** The maximum fanout of this tree's nodes (internal nodes have up to order
+     *  children and leaves up to order - 1 keys).
+     */
+    private final int order;
+
+    /********************************************************************************
+     * This inner class holds the contents of a node at one point in time.  An image
+     * is never changed once published: a writer builds a new one and swaps it in.
+     */
+    private static final class Image
+    {
+        final Object [] key;            // the keys in ascending order
+        final Object [] ref;            // the values (leaf) or the children (one more than keys)
+        final Object    high;           // every key under the node is below high (null: no bound)
+        final Node      right;          // the right sibling (null at the end of a level)
+
+        Image (Object [] _key, Object [] _ref, Object _high, Node _right)
+        {
+            key   = _key;
+            ref   = _ref;
+            high  = _high;
+            right = _right;
+        } // constructor
+    } // Image inner class
+
+    /********************************************************************************
+     * This inner class defines nodes.  The node is the unit of locking and the target
+     * of links; its current contents are its image.
+     */
+    private static final class Node
+    {
+        final int       level;          // 0 for leaves, one more per level up
+        volatile Image  image;
+
+        Node (int _level, Image _image)
+        {
+            level = _level;
+            image = _image;
+        } // constructor
+    } // Node inner class
+
+    /** An empty array of keys (or values).
+     */
+    private static final Object [] NONE = new Object [0];
+
+    /** The root of the B-link tree (replaced when the root splits).
+     */
+    private volatile Node root;
+
+    /** The number of keys in the tree.
+     */
+    private final LongAdder size = new LongAdder ();
+
+    /********************************************************************************
+     * Construct an empty B-link tree map with the default fanout.
+     */
+    public BLinkTreeMap ()
+    {
+        this (ORDER);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty B-link tree map whose nodes have the given maximum fanout.
+     *
+     * @param _order  the maximum fanout (at least 3)
+     */
+    public BLinkTreeMap (int _order)
+    {
+        if (_order < 3) throw new IllegalArgumentException ("BLinkTreeMap: order must be at least 3");
+        order = _order;
+        root  = new Node (0, new Image (NONE, NONE, null, null));
+    } // constructor
+
+    /********************************************************************************
+     * Return the number of keys in the map (exact when no writer is active).
+     *
+     * @return  the number of keys
+     */
+    public int size ()
+    {
+        return (int) size.sum ();
+    } // size
+
+    /********************************************************************************
+     * Return a weakly consistent set view of the entries, in ascending key order.
+     *
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <K, V>> entrySet ()
+    {
+        return new AbstractSet <Map.Entry <K, V>> () {
+            public Iterator <Map.Entry <K, V>> iterator () { return cursor (null, true, null, true); }
+            public int size () { return BLinkTreeMap.this.size (); }
+        };
+    } // entrySet
+
+    /********************************************************************************
+     * Given the key, look up the value in the map, without taking any lock.
+     *
+     * @param key  the key used for look up
+     * @return  the value associated with the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get (Object key)
+    {
+        K k = (K) Objects.requireNonNull (key);
+        Node p = root;
+        while (true) {
+            Image im = p.image;
+            if (beyond (im, k)) {
+                p = im.right;
+            } else if (p.level == 0) {
+                int i = Arrays.binarySearch (im.key, k);
+                return (i >= 0) ? (V) im.ref [i] : null;
+            } else {
+                p = (Node) im.ref [child (im, k)];
+            } // if
+        } // while
+    } // get
+
+    /********************************************************************************
+     * Determine whether the map contains the key.
+     *
+     * @param key  the key to look for
+     * @return  whether the key is in the map
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Put the key-value pair in the map, replacing any value already there.
+     *
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for the key, or null if there was none
+     */
+    public V put (K key, V value)
+    {
+        Objects.requireNonNull (value);
+        return update (key, old -> value);
+    } // put
+
+    /********************************************************************************
+     * Put the key-value pair in the map unless the key is already there.
+     *
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the current value for the key, or null if the pair was inserted
+     */
+    public V putIfAbsent (K key, V value)
+    {
+        Objects.requireNonNull (value);
+        return update (key, old -> (old == null) ? value : old);
+    } // putIfAbsent
+
+    /********************************************************************************
+     * Remove the key from the map.  The leaf is not merged with its neighbors.
+     *
+     * @param key  the key to remove
+     * @return  the removed value, or null if the key was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V remove (Object key)
+    {
+        return update ((K) key, old -> null);
+    } // remove
+
+    /********************************************************************************
+     * Remove the key from the map if it is mapped to the given value.
+     *
+     * @param key    the key to remove
+     * @param value  the value the key must have
+     * @return  whether the key was removed
+     */
+    @SuppressWarnings("unchecked")
+    public boolean remove (Object key, Object value)
+    {
+        if (value == null) return false;
+        V old = update ((K) key, v -> value.equals (v) ? null : v);
+        return value.equals (old);
+    } // remove
+
+    /********************************************************************************
+     * Replace the value of the key, if the key is in the map.
+     *
+     * @param key    the key whose value to replace
+     * @param value  the new value
+     * @return  the previous value, or null if the key was not in the map
+     */
+    public V replace (K key, V value)
+    {
+        Objects.requireNonNull (value);
+        return update (key, old -> (old == null) ? null : value);
+    } // replace
+
+    /********************************************************************************
+     * Replace the value of the key, if the key is mapped to the given old value.
+     *
+     * @param key       the key whose value to replace
+     * @param oldValue  the value the key must have
+     * @param newValue  the new value
+     * @return  whether the value was replaced
+     */
+    public boolean replace (K key, V oldValue, V newValue)
+    {
+        Objects.requireNonNull (oldValue);
+        Objects.requireNonNull (newValue);
+        V old = update (key, v -> oldValue.equals (v) ? newValue : v);
+        return oldValue.equals (old);
+    } // replace
+
+    /********************************************************************************
+     * Remove all the keys.  This is not atomic: a writer active at the same time
+     * may finish its change in the discarded tree.
+     */
+    public void clear ()
+    {
+        synchronized (this) {
+            root = new Node (0, new Image (NONE, NONE, null, null));
+            size.reset ();
+        } // synchronized
+    } // clear
+
+    /********************************************************************************
+     * Change the value of a key: the leaf holding it is locked and the key's new
+     * value computed from its old value (null when absent) by f, where a null result
+     * removes the key.  When an insertion overflows the leaf, the leaf is split and
+     * the separator inserted in the parent (see insertUp) after the leaf's lock has
+     * been released.
+     *
+     * @param key  the key to change
+     * @param f    the function from the old value to the new value
+     * @return  the old value, or null if the key was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    private V update (K key, UnaryOperator <V> f)
+    {
+        Objects.requireNonNull (key);
+        Node top = root;
+        Node [] path = new Node [top.level + 1];            // internal node passed at each level
+        Node p = top;
+        while (p.level > 0) {
+            Image im = p.image;
+            if (beyond (im, key)) {
+                p = im.right;
+            } else {
+                path [p.level] = p;
+                p = (Node) im.ref [child (im, key)];
+            } // if
+        } // while
+
+        Object sep;
+        Node   sib;
+        while (true) {
+            synchronized (p) {
+                Image im = p.image;
+                if (beyond (im, key)) {                     // split since we read the parent
+                    p = im.right;
+                    continue;
+                } // if
+                int i = Arrays.binarySearch (im.key, key);
+                V   old = (i >= 0) ? (V) im.ref [i] : null;
+                V   val = f.apply (old);
+                if (val == old) return old;
+                int n = im.key.length;
+
+                if (val == null) {                          // remove the key
+                    p.image = new Image (cut (im.key, i), cut (im.ref, i), im.high, im.right);
+                    size.decrement ();
+                    return old;
+                } // if
+                if (old != null) {                          // replace the value
+                    Object [] ref = im.ref.clone ();
+                    ref [i] = val;
+                    p.image = new Image (im.key, ref, im.high, im.right);
+                    return old;
+                } // if
+
+                i = -i - 1;                                 // insert the key
+                Object [] key2 = paste (im.key, i, key);
+                Object [] ref2 = paste (im.ref, i, val);
+                size.increment ();
+                if (n + 1 < order) {
+                    p.image = new Image (key2, ref2, im.high, im.right);
+                    return null;
+                } // if
+
+                int m = (n + 1) / 2;                        // split: the sibling must be complete
+                sep = key2 [m];                             // before the left half links to it
+                sib = new Node (0, new Image (Arrays.copyOfRange (key2, m, n + 1),
+                                              Arrays.copyOfRange (ref2, m, n + 1), im.high, im.right));
+                p.image = new Image (Arrays.copyOf (key2, m), Arrays.copyOf (ref2, m), sep, sib);
+                break;
+            } // synchronized
+        } // while
+
+        insertUp (sep, sib, p, path);
+        return null;
+    } // update
+
+    /********************************************************************************
+     * Insert the separator of a split into the level above, splitting internal nodes
+     * and continuing up as needed.  The parent is the node passed on the way down
+     * (or, if the tree has grown since, the node found by searching from the root);
+     * it is locked on its own and the writer moves right from it if it has been
+     * split.  When the split node is the root, a new root is made.
+     *
+     * @param sep   the separator (the smallest key of the new sibling)
+     * @param sib   the new right sibling
+     * @param left  the node that was split
+     * @param path  the internal nodes passed on the way down, by level
+     */
+    private void insertUp (Object sep, Node sib, Node left, Node [] path)
+    {
+        for (int level = left.level + 1; ; level++) {
+            Node p = (level < path.length) ? path [level] : null;
+            if (p == null) {
+                synchronized (this) {
+                    if (root == left) {
+                        root = new Node (level, new Image (new Object [] { sep }, new Object [] { left, sib }, null, null));
+                        return;
+                    } // if
+                } // synchronized
+                p = locate (sep, level);
+            } // if
+
+            while (true) {
+                synchronized (p) {
+                    Image im = p.image;
+                    if (beyond (im, sep)) {
+                        p = im.right;
+                        continue;
+                    } // if
+                    int i = child (im, sep);
+                    int n = im.key.length;
+                    Object [] key2 = paste (im.key, i, sep);
+                    Object [] ref2 = paste (im.ref, i + 1, sib);
+                    if (n + 1 < order) {
+                        p.image = new Image (key2, ref2, im.high, im.right);
+                        return;
+                    } // if
+
+                    int m = (n + 1) / 2;                    // the middle key moves up
+                    Node s = new Node (level, new Image (Arrays.copyOfRange (key2, m + 1, n + 1),
+                                                         Arrays.copyOfRange (ref2, m + 1, n + 2), im.high, im.right));
+                    sep  = key2 [m];
+                    p.image = new Image (Arrays.copyOf (key2, m), Arrays.copyOf (ref2, m + 1), sep, s);
+                    sib  = s;
+                    left = p;
+                    break;
+                } // synchronized
+            } // while
+        } // for
+    } // insertUp
+
+    /********************************************************************************
+     * Find the node at the given level whose range holds the key, searching from the
+     * root.  If the root is still below that level (another writer has split the root
+     * but not yet installed the new one), wait for the new root.
+     *
+     * @param key    the key
+     * @param level  the level of the node to find
+     * @return  a node at the level at or left of the one holding the key
+     */
+    @SuppressWarnings("unchecked")
+    private Node locate (Object key, int level)
+    {
+        Node p;
+        while ((p = root).level < level) Thread.yield ();
+        while (true) {
+            Image im = p.image;
+            if (beyond (im, key)) p = im.right;
+            else if (p.level == level) return p;
+            else p = (Node) im.ref [child (im, key)];
+        } // while
+    } // locate
+
+    /********************************************************************************
+     * Determine whether the key is beyond the node's range (so its right link must
+     * be followed).
+     */
+    @SuppressWarnings("unchecked")
+    private boolean beyond (Image im, Object key)
+    {
+        return im.high != null && ((K) key).compareTo ((K) im.high) >= 0;
+    } // beyond
+
+    /********************************************************************************
+     * Return the position of the child of an internal node whose range holds the key
+     * (the number of separators less than or equal to the key).
+     */
+    private static int child (Image im, Object key)
+    {
+        int i = Arrays.binarySearch (im.key, key);
+        return (i >= 0) ? i + 1 : -i - 1;
+    } // child
+
+    /********************************************************************************
+     * Return a copy of the array with x inserted at position i.
+     */
+    private static Object [] paste (Object [] a, int i, Object x)
+    {
+        Object [] b = new Object [a.length + 1];
+        System.arraycopy (a, 0, b, 0, i);
+        b [i] = x;
+        System.arraycopy (a, i, b, i + 1, a.length - i);
+        return b;
+    } // paste
+
+    /********************************************************************************
+     * Return a copy of the array without the element at position i.
+     */
+    private static Object [] cut (Object [] a, int i)
+    {
+        Object [] b = new Object [a.length - 1];
+        System.arraycopy (a, 0, b, 0, i);
+        System.arraycopy (a, i + 1, b, i, a.length - i - 1);
+        return b;
+    } // cut
+
+    /********************************************************************************
+     * Return a weakly consistent cursor over the keys in the given range, in
+     * ascending order.  A null bound leaves that end of the range open.
+     *
+     * @param lo           the lower bound (or null)
+     * @param loInclusive  whether the lower bound is in the range
+     * @param hi           the upper bound (or null)
+     * @param hiInclusive  whether the upper bound is in the range
+     * @return  a cursor positioned at the first key in the range
+     */
+    public Cursor cursor (K lo, boolean loInclusive, K hi, boolean hiInclusive)
+    {
+        return new Cursor (lo, loInclusive, hi, hiInclusive);
+    } // cursor
+
+    /********************************************************************************
+     * This inner class is a cursor over a range of keys in ascending order.  It walks
+     * leaf images along the right links, remembering the last key returned so a leaf
+     * reached after a split does not repeat keys.  Besides the Iterator methods,
+     * nextValue returns just the next value (without building an entry).
+     */
+    public class Cursor
+           implements Iterator <Map.Entry <K, V>>
+    {
+        private Image   im;                 // the current leaf image (null when done)
+        private int     pos;                // the position of the next key in it
+        private K       from;               // the keys returned next are after from
+        private boolean fromInclusive;
+        private final K       hi;
+        private final boolean hiInclusive;
+
+        @SuppressWarnings("unchecked")
+        Cursor (K lo, boolean loInclusive, K _hi, boolean _hiInclusive)
+        {
+            from = lo; fromInclusive = loInclusive; hi = _hi; hiInclusive = _hiInclusive;
+            Node p = root;
+            while (true) {
+                Image c = p.image;
+                if (lo != null && beyond (c, lo)) p = c.right;
+                else if (p.level == 0) { im = c; break; }
+                else p = (Node) c.ref [(lo == null) ? 0 : child (c, lo)];
+            } // while
+            pos = start (im);
+            settle ();
+        } // constructor
+
+        /** Return the position of the first key of the image after from. */
+        @SuppressWarnings("unchecked")
+        private int start (Image c)
+        {
+            if (from == null) return 0;
+            int i = Arrays.binarySearch (c.key, from);
+            return (i < 0) ? -i - 1 : fromInclusive ? i : i + 1;
+        } // start
+
+        /** Move to the next leaf image when the current one is used up, and stop
+         *  past the upper bound. */
+        @SuppressWarnings("unchecked")
+        private void settle ()
+        {
+            while (pos == im.key.length) {
+                if (im.right == null) { im = null; return; }
+                im  = im.right.image;
+                pos = start (im);
+            } // while
+            if (hi != null) {
+                int c = ((K) im.key [pos]).compareTo (hi);
+                if (c > 0 || c == 0 && ! hiInclusive) im = null;
+            } // if
+        } // settle
+
+        public boolean hasNext () { return im != null; }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry <K, V> next ()
+        {
+            if (im == null) throw new NoSuchElementException ();
+            Map.Entry <K, V> e = new AbstractMap.SimpleImmutableEntry <> ((K) im.key [pos], (V) im.ref [pos]);
+            advance ();
+            return e;
+        } // next
+
+        /** Return the value of the next entry. */
+        @SuppressWarnings("unchecked")
+        public V nextValue ()
+        {
+            if (im == null) throw new NoSuchElementException ();
+            V v = (V) im.ref [pos];
+            advance ();
+            return v;
+        } // nextValue
+
+        @SuppressWarnings("unchecked")
+        private void advance ()
+        {
+            from = (K) im.key [pos++];
+            fromInclusive = false;
+            settle ();
+        } // advance
+    } // Cursor inner class
+
+    /********************************************************************************
+     * Check the structure of the tree: along every level, the keys of each node are
+     * ascending, at least the previous node's high key and below its own, and the
+     * leaves hold size keys.  Only meaningful when no writer is active.
+     *
+     * @return  null if the tree is well formed, otherwise a description of the fault
+     */
+    @SuppressWarnings("unchecked")
+    String check ()
+    {
+        long keys = 0;
+        for (Node first = root; first != null; ) {
+            Object low = null;
+            Node   down = null;
+            for (Node p = first; p != null; ) {
+                Image im = p.image;
+                if (p.level > 0 && im.ref.length != im.key.length + 1) return "bad fanout at level " + p.level;
+                if (p.level == 0 && im.ref.length != im.key.length) return "bad leaf";
+                for (int i = 0; i < im.key.length; i++) {
+                    K k = (K) im.key [i];
+                    if (i > 0 && k.compareTo ((K) im.key [i - 1]) <= 0) return "keys out of order at level " + p.level;
+                    if (low != null && k.compareTo ((K) low) < 0) return "key below range at level " + p.level;
+                    if (im.high != null && k.compareTo ((K) im.high) >= 0) return "key above range at level " + p.level;
+                } // for
+                if ((im.high == null) != (im.right == null)) return "bad link at level " + p.level;
+                if (p.level == 0) keys += im.key.length;
+                if (down == null && p.level > 0) down = (Node) im.ref [0];
+                low = im.high;
+                p   = im.right;
+            } // for
+            first = down;
+        } // for
+        return (keys == size.sum ()) ? null : "size " + size.sum () + " but " + keys + " keys in leaves";
+    } // check
+
+    /********************************************************************************
+     * The main method runs a multi-threaded stress test: writer threads insert
+     * (then remove) interleaved key sets into a small-order tree, so splits are
+     * frequent and race each other, while reader threads check every lookup and
+     * range scan they make; afterward the contents and structure are verified.
+     * @param args  the number of threads of each kind (default 4) and of keys (default 200000)
+     */
+    public static void main (String [] args) throws InterruptedException
+    {
+        int nThreads = (args.length > 0) ? Integer.parseInt (args [0]) : 4;
+        int nKeys    = (args.length > 1) ? Integer.parseInt (args [1]) : 200000;
+        BLinkTreeMap <Integer, Integer> map = new BLinkTreeMap <> (8);
+        AtomicInteger faults = new AtomicInteger ();
+
+        stress (map, nThreads, faults, (t, k) -> { if (k % nThreads == t) map.put (k, k); }, nKeys);
+        int found = 0, prev = -1, scanned = 0;
+        for (int k = 0; k < nKeys; k++) if (Integer.valueOf (k).equals (map.get (k))) found++;
+        for (Map.Entry <Integer, Integer> e : map.entrySet ()) {
+            if (e.getKey () <= prev) faults.incrementAndGet ();
+            prev = e.getKey ();
+            scanned++;
+        } // for
+        out.println ("insert: size = " + map.size () + ", found = " + found + ", scanned = " + scanned
+                   + ", check = " + map.check ());
+        if (map.size () != nKeys || found != nKeys || scanned != nKeys || map.check () != null) faults.incrementAndGet ();
+
+        stress (map, nThreads, faults, (t, k) -> { if (k % nThreads == t && k % 2 == 0) map.remove (k); }, nKeys);
+        int wrong = 0;
+        for (int k = 0; k < nKeys; k++) if (map.containsKey (k) != (k % 2 == 1)) wrong++;
+        out.println ("remove: size = " + map.size () + ", wrong = " + wrong + ", check = " + map.check ());
+        if (map.size () != nKeys / 2 || wrong != 0 || map.check () != null) faults.incrementAndGet ();
+
+        out.println ("BLinkTreeMap stress test: " + (faults.get () == 0 ? "ok" : faults.get () + " faults"));
+    } // main
+
+    /********************************************************************************
+     * Run nThreads writers, each applying the write action to every key in its own
+     * random order, alongside nThreads readers that look up random keys (a key is
+     * either absent or mapped to itself) and scan random ranges (ascending, each key
+     * mapped to itself) until the writers finish.
+     */
+    private static void stress (BLinkTreeMap <Integer, Integer> map, int nThreads, AtomicInteger faults,
+                                java.util.function.BiConsumer <Integer, Integer> write, int nKeys)
+                        throws InterruptedException
+    {
+        AtomicBoolean done = new AtomicBoolean ();
+        List <Thread> writers = new ArrayList <> (), readers = new ArrayList <> ();
+        for (int t = 0; t < nThreads; t++) {
+            int id = t;
+            writers.add (new Thread (() -> {
+                List <Integer> keys = new ArrayList <> ();
+                for (int k = 0; k < nKeys; k++) keys.add (k);
+                Collections.shuffle (keys, new Random (id));
+                for (int k : keys) write.accept (id, k);
+            }));
+            readers.add (new Thread (() -> {
+                Random rand = new Random (-id);
+                while (! done.get ()) {
+                    int k = rand.nextInt (nKeys);
+                    Integer v = map.get (k);
+                    if (v != null && v != k) faults.incrementAndGet ();
+                    int last = k - 1;
+                    for (BLinkTreeMap <Integer, Integer>.Cursor c = map.cursor (k, true, k + 100, false); c.hasNext (); ) {
+                        Map.Entry <Integer, Integer> e = c.next ();
+                        if (e.getKey () <= last || e.getKey () >= k + 100 || ! e.getKey ().equals (e.getValue ())) faults.incrementAndGet ();
+                        last = e.getKey ();
+                    } // for
+                } // while
+            }));
+        } // for
+        for (Thread r : readers) r.start ();
+        for (Thread w : writers) w.start ();
+        for (Thread w : writers) w.join ();
+        done.set (true);
+        for (Thread r : readers) r.join ();
+    } // stress
+
+} // BLinkTreeMap class
@@ -0,0 +1,735 @@
+/************************************************************************************
+ * @file BeTreeMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.util.*;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * This class provides write-optimized B-epsilon tree (buffered B-tree) maps.  Each
+ * internal node has a buffer of pending insertions (messages) besides its pivots
+ * and children.  An insertion only adds a message to the root's buffer; when a
+ * buffer overflows, its messages are flushed to the children in one pass (a sorted
+ * run per child), where they join the child's buffer or, at the leaves, are merged
+ * into the leaf, which splits into as many leaves as needed.  So a leaf is changed
+ * once per batch rather than once per key, and the cost of reaching it is shared by
+ * the batch.  The fanout is kept moderate and the buffers large (16 and 1024 by default)
+ * so batches are big,
+ * while leaves are as big as BpTreeMap's nodes.
+ *
+ * A lookup checks the buffer of each node on its way down; since messages only move
+ * down, the first message found for a key is the newest.  Operations that need the
+ * whole content in the leaves (size, iteration, first/last key and range views)
+ * first flush every buffer down to the leaves (see drain).  insert is the blind,
+ * write-optimized insertion; put must also return the previous value, so it looks
+ * the key up first.  Keys are not removed (remove is unsupported).
+ */
+public class BeTreeMap <K extends Comparable <K>, V>
+       extends AbstractMap <K, V>
+       implements SortedMap <K, V>
+{
+    /** The default maximum number of children of an internal node.
+     */
+    private static final int FANOUT = 16;
+
+    /** The default maximum number of keys in a leaf.
+     */
+    private static final int LEAF = 128;
+
+    /** The default maximum number of messages buffered in an internal node.
+     */
+    private static final int BUFFER = 1024;
+
+    /** An empty array.
+     */
+    private static final Object [] NONE = new Object [0];
+
+    /** The maximum number of children of an internal node, of keys in a leaf, and of
+     *  messages buffered in an internal node.
+     */
+    private final int fanout, leafSize, bufferSize;
+
+    /********************************************************************************
+     * This inner class defines nodes.  In a leaf, key and ref hold the keys and
+     * values; in an internal node, they hold the pivots and the children (child i
+     * holds the keys in [key [i-1], key [i])), and msgKey and msgVal hold the
+     * buffered messages sorted by key.
+     */
+    private class Node
+    {
+        final boolean isLeaf;
+        int           nKeys;
+        Object []     key;
+        Object []     ref;
+        Object []     msgKey = NONE;
+        Object []     msgVal = NONE;
+        int           nMsgs;
+        Node          right;
+
+        Node (boolean _isLeaf)
+        {
+            isLeaf = _isLeaf;
+            key    = _isLeaf ? new Object [leafSize] : NONE;
+            ref    = _isLeaf ? new Object [leafSize] : NONE;
+        } // constructor
+    } // Node inner class
+
+    /** The root of the tree.
+     */
+    private Node root;
+
+    /** The number of keys in the leaves.
+     */
+    private int size = 0;
+
+    /** The number of messages waiting in buffers.
+     */
+    private int pending = 0;
+
+    /********************************************************************************
+     * Construct an empty map with the default fanout, leaf size and buffer size.
+     */
+    public BeTreeMap ()
+    {
+        this (FANOUT, LEAF, BUFFER);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty map with the given node sizes.
+     *
+     * @param _fanout      the maximum number of children of an internal node (at least 3)
+     * @param _leafSize    the maximum number of keys in a leaf (at least 2)
+     * @param _bufferSize  the maximum number of messages buffered in an internal node
+     */
+    public BeTreeMap (int _fanout, int _leafSize, int _bufferSize)
+    {
+        if (_fanout < 3 || _leafSize < 2 || _bufferSize < 1) {
+            throw new IllegalArgumentException ("BeTreeMap: fanout >= 3, leafSize >= 2 and bufferSize >= 1 required");
+        } // if
+        fanout     = _fanout;
+        leafSize   = _leafSize;
+        bufferSize = _bufferSize;
+        root       = new Node (true);
+    } // constructor
+
+    /********************************************************************************
+     * Return null to use the natural order of the keys.
+     */
+    public Comparator <? super K> comparator ()
+    {
+        return null;
+    } // comparator
+
+    /********************************************************************************
+     * Return the number of keys in the map (flushing the buffers to the leaves).
+     *
+     * @return  the number of keys
+     */
+    public int size ()
+    {
+        drain ();
+        return size;
+    } // size
+
+    /********************************************************************************
+     * Return a set view of the entries, in ascending key order (a lazy walk along
+     * the leaves, after flushing the buffers).
+     *
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <K, V>> entrySet ()
+    {
+        return new AbstractSet <Map.Entry <K, V>> () {
+            public Iterator <Map.Entry <K, V>> iterator () { return cursor (null, true, null, false); }
+            public int size () { return BeTreeMap.this.size (); }
+        };
+    } // entrySet
+
+    /********************************************************************************
+     * Given the key, look up its value: the first message for it in a buffer on the
+     * way down, or else its entry in the leaf.
+     *
+     * @param key  the key used for look up
+     * @return  the value associated with the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get (Object key)
+    {
+        K k = (K) key;
+        Node n = root;
+        while (! n.isLeaf) {
+            if (n.nMsgs > 0) {
+                int i = lower (n.msgKey, 0, n.nMsgs, k);
+                if (i < n.nMsgs && k.compareTo ((K) n.msgKey [i]) == 0) return (V) n.msgVal [i];
+            } // if
+            n = (Node) n.ref [upper (n.key, 0, n.nKeys, k)];
+        } // while
+        int i = lower (n.key, 0, n.nKeys, k);
+        return (i < n.nKeys && k.compareTo ((K) n.key [i]) == 0) ? (V) n.ref [i] : null;
+    } // get
+
+    /********************************************************************************
+     * Determine whether the map holds the given key.
+     *
+     * @param key  the key to look for
+     * @return  whether the key is present
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Put the key-value pair in the map, replacing the value of an existing key.
+     * To return the previous value this looks the key up first; use insert when the
+     * previous value is not needed.
+     *
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for the key, or null if it was absent
+     */
+    public V put (K key, V value)
+    {
+        V old = get (key);
+        insert (key, value);
+        return old;
+    } // put
+
+    /********************************************************************************
+     * Insert the key-value pair (replacing the value of an existing key) without
+     * looking for the key: the pair is added to the root's buffer as a message,
+     * which is flushed down with others when the buffer overflows.
+     *
+     * @param key    the key to insert
+     * @param value  the value to insert
+     */
+    @SuppressWarnings("unchecked")
+    public void insert (K key, V value)
+    {
+        List <Object> split;
+        Node r = root;
+        if (r.isLeaf) {
+            split = toLeaf (r, new Object [] { key }, new Object [] { value }, 0, 1);
+        } else {
+            int i = lower (r.msgKey, 0, r.nMsgs, key);
+            if (i < r.nMsgs && key.compareTo ((K) r.msgKey [i]) == 0) {
+                r.msgVal [i] = value;
+                return;
+            } // if
+            if (r.nMsgs == r.msgKey.length) {
+                r.msgKey = Arrays.copyOf (r.msgKey, bufferSize + 1);
+                r.msgVal = Arrays.copyOf (r.msgVal, bufferSize + 1);
+            } // if
+            System.arraycopy (r.msgKey, i, r.msgKey, i + 1, r.nMsgs - i);
+            System.arraycopy (r.msgVal, i, r.msgVal, i + 1, r.nMsgs - i);
+            r.msgKey [i] = key;
+            r.msgVal [i] = value;
+            r.nMsgs++;
+            pending++;
+            split = (r.nMsgs > bufferSize) ? flush (r, false) : null;
+        } // if
+        if (split != null) grow (split);
+    } // insert
+
+    /********************************************************************************
+     * Copy all of the entries of map m into this map (blind insertions).
+     *
+     * @param m  the map whose entries are to be copied
+     */
+    public void putAll (Map <? extends K, ? extends V> m)
+    {
+        for (Map.Entry <? extends K, ? extends V> e : m.entrySet ()) insert (e.getKey (), e.getValue ());
+    } // putAll
+
+    /********************************************************************************
+     * Remove all of the keys from the map.
+     */
+    public void clear ()
+    {
+        root    = new Node (true);
+        size    = 0;
+        pending = 0;
+    } // clear
+
+    /********************************************************************************
+     * Flush every buffered message down to the leaves.
+     */
+    public void drain ()
+    {
+        if (pending == 0 || root.isLeaf) return;
+        List <Object> split = flush (root, true);
+        if (split != null) grow (split);
+    } // drain
+
+    /********************************************************************************
+     * Return the first (smallest) key in the map.
+     *
+     * @return  the first key
+     */
+    @SuppressWarnings("unchecked")
+    public K firstKey ()
+    {
+        if (size () == 0) throw new NoSuchElementException ();
+        Node n = firstLeaf ();
+        while (n.nKeys == 0) n = n.right;
+        return (K) n.key [0];
+    } // firstKey
+
+    /********************************************************************************
+     * Return the last (largest) key in the map.
+     *
+     * @return  the last key
+     */
+    @SuppressWarnings("unchecked")
+    public K lastKey ()
+    {
+        if (size () == 0) throw new NoSuchElementException ();
+        Node n = root;
+        while (! n.isLeaf) n = (Node) n.ref [n.nKeys];
+        return (K) n.key [n.nKeys - 1];
+    } // lastKey
+
+    /********************************************************************************
+     * Return a lazy view of the portion of the map where key < toKey.
+     *
+     * @param toKey  the upper bound (exclusive)
+     * @return  the range view
+     */
+    public SortedMap <K, V> headMap (K toKey)
+    {
+        return new SubMap (null, toKey);
+    } // headMap
+
+    /********************************************************************************
+     * Return a lazy view of the portion of the map where fromKey <= key.
+     *
+     * @param fromKey  the lower bound (inclusive)
+     * @return  the range view
+     */
+    public SortedMap <K, V> tailMap (K fromKey)
+    {
+        return new SubMap (fromKey, null);
+    } // tailMap
+
+    /********************************************************************************
+     * Return a lazy view of the portion of the map where fromKey <= key < toKey.
+     *
+     * @param fromKey  the lower bound (inclusive)
+     * @param toKey    the upper bound (exclusive)
+     * @return  the range view
+     */
+    public SortedMap <K, V> subMap (K fromKey, K toKey)
+    {
+        return new SubMap (fromKey, toKey);
+    } // subMap
+
+    /********************************************************************************
+     * Open a cursor for a streaming range scan over the keys between lo and hi (a
+     * null bound is unbounded).  The buffers are flushed first; the cursor then
+     * descends once to the leaf where the range starts and follows the leaf links.
+     *
+     * @param lo           the lower bound (or null)
+     * @param loInclusive  whether a key equal to lo is in the range
+     * @param hi           the upper bound (or null)
+     * @param hiInclusive  whether a key equal to hi is in the range
+     * @return  the cursor, positioned before the first key in the range
+     */
+    public Cursor cursor (K lo, boolean loInclusive, K hi, boolean hiInclusive)
+    {
+        drain ();
+        return new Cursor (lo, loInclusive, hi, hiInclusive);
+    } // cursor
+
+    /********************************************************************************
+     * This inner class is a cursor over a range of keys in ascending order.  Besides
+     * iterating over entries, it streams just the values (nextValue).
+     */
+    public class Cursor
+           implements Iterator <Map.Entry <K, V>>
+    {
+        private final K       hi;
+        private final boolean hiInclusive;
+        private Node leaf;
+        private int  i;
+
+        @SuppressWarnings("unchecked")
+        Cursor (K lo, boolean loInclusive, K _hi, boolean _hiInclusive)
+        {
+            hi          = _hi;
+            hiInclusive = _hiInclusive;
+            leaf        = root;
+            while (! leaf.isLeaf) leaf = (Node) leaf.ref [(lo == null) ? 0 : upper (leaf.key, 0, leaf.nKeys, lo)];
+            i = (lo == null) ? 0 : loInclusive ? lower (leaf.key, 0, leaf.nKeys, lo) : upper (leaf.key, 0, leaf.nKeys, lo);
+            settle ();
+        } // constructor
+
+        /** Move to the next leaf when this one is used up, and stop past hi. */
+        @SuppressWarnings("unchecked")
+        private void settle ()
+        {
+            while (leaf != null && i >= leaf.nKeys) { leaf = leaf.right; i = 0; }
+            if (leaf != null && hi != null) {
+                int cmp = ((K) leaf.key [i]).compareTo (hi);
+                if (cmp > 0 || (cmp == 0 && ! hiInclusive)) leaf = null;
+            } // if
+        } // settle
+
+        public boolean hasNext () { return leaf != null; }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry <K, V> next ()
+        {
+            if (leaf == null) throw new NoSuchElementException ();
+            Map.Entry <K, V> e = new AbstractMap.SimpleImmutableEntry <> ((K) leaf.key [i], (V) leaf.ref [i]);
+            i++;
+            settle ();
+            return e;
+        } // next
+
+        /** Return the value of the next key in the range, advancing the cursor. */
+        @SuppressWarnings("unchecked")
+        public V nextValue ()
+        {
+            if (leaf == null) throw new NoSuchElementException ();
+            V v = (V) leaf.ref [i++];
+            settle ();
+            return v;
+        } // nextValue
+    } // Cursor inner class
+
+    /********************************************************************************
+     * This inner class is a lazy view of the keys in [lo, hi) (a null bound is
+     * unbounded), backed by the tree.
+     */
+    private class SubMap
+            extends AbstractMap <K, V>
+            implements SortedMap <K, V>
+    {
+        private final K lo, hi;
+
+        SubMap (K _lo, K _hi)
+        {
+            lo = _lo;
+            hi = _hi;
+        } // constructor
+
+        @SuppressWarnings("unchecked")
+        private boolean inRange (Object key)
+        {
+            K k = (K) key;
+            return (lo == null || k.compareTo (lo) >= 0) && (hi == null || k.compareTo (hi) < 0);
+        } // inRange
+
+        public Comparator <? super K> comparator () { return null; }
+
+        public V get (Object key) { return inRange (key) ? BeTreeMap.this.get (key) : null; }
+
+        public boolean containsKey (Object key) { return get (key) != null; }
+
+        public V put (K key, V value)
+        {
+            if (! inRange (key)) throw new IllegalArgumentException ("key out of range: " + key);
+            return BeTreeMap.this.put (key, value);
+        } // put
+
+        public Set <Map.Entry <K, V>> entrySet ()
+        {
+            return new AbstractSet <Map.Entry <K, V>> () {
+                public Iterator <Map.Entry <K, V>> iterator () { return cursor (lo, true, hi, false); }
+                public int size ()
+                {
+                    int n = 0;
+                    for (Cursor c = cursor (lo, true, hi, false); c.hasNext (); c.nextValue ()) n++;
+                    return n;
+                } // size
+            };
+        } // entrySet
+
+        public K firstKey ()
+        {
+            Cursor c = cursor (lo, true, hi, false);
+            if (! c.hasNext ()) throw new NoSuchElementException ();
+            return c.next ().getKey ();
+        } // firstKey
+
+        public K lastKey ()
+        {
+            K last = null;
+            for (Cursor c = cursor (lo, true, hi, false); c.hasNext (); ) last = c.next ().getKey ();
+            if (last == null) throw new NoSuchElementException ();
+            return last;
+        } // lastKey
+
+        public SortedMap <K, V> subMap (K from, K to) { return new SubMap (max (lo, from), min (hi, to)); }
+
+        public SortedMap <K, V> headMap (K to) { return new SubMap (lo, min (hi, to)); }
+
+        public SortedMap <K, V> tailMap (K from) { return new SubMap (max (lo, from), hi); }
+
+        /** Return the larger of two lower bounds (null is unbounded). */
+        private K max (K a, K b)
+        {
+            return (a == null) ? b : (b == null || a.compareTo (b) >= 0) ? a : b;
+        } // max
+
+        /** Return the smaller of two upper bounds (null is unbounded). */
+        private K min (K a, K b)
+        {
+            return (a == null) ? b : (b == null || a.compareTo (b) <= 0) ? a : b;
+        } // min
+    } // SubMap inner class
+
+    /********************************************************************************
+     * Flush the buffer of internal node n: the messages, in key order, are split into
+     * a run per child and each run is passed to its child (see toInner and toLeaf).
+     * With deep set, every child is visited and flushed in turn, so all the messages
+     * below n reach the leaves.  Children that split add pivots to n, and n splits
+     * if it ends up with more than fanout children.
+     *
+     * @param n     the internal node to flush
+     * @param deep  whether to flush all the way down
+     * @return  the separators and new right siblings if n split, otherwise null
+     */
+    private List <Object> flush (Node n, boolean deep)
+    {
+        Object [] mk = n.msgKey, mv = n.msgVal;
+        int cnt  = n.nMsgs;
+        n.msgKey = NONE;
+        n.msgVal = NONE;
+        n.nMsgs  = 0;
+        pending -= cnt;
+
+        List <Object> pivots = null, kids = null;               // made when a child splits
+        int j = 0;
+        for (int c = 0; c <= n.nKeys; c++) {
+            int  e     = (c < n.nKeys) ? lower (mk, j, cnt, n.key [c]) : cnt;
+            Node child = (Node) n.ref [c];
+            List <Object> split = null;
+            if (child.isLeaf) {
+                if (e > j) split = toLeaf (child, mk, mv, j, e);
+            } else if (e > j || deep) {
+                split = toInner (child, mk, mv, j, e, deep);
+            } // if
+            if (split != null && kids == null) {
+                pivots = new ArrayList <> (Arrays.asList (n.key).subList (0, c));
+                kids   = new ArrayList <> (Arrays.asList (n.ref).subList (0, c + 1));
+            } else if (kids != null) {
+                pivots.add (n.key [c - 1]);
+                kids.add (child);
+            } // if
+            if (split != null) {
+                for (int s = 0; s < split.size (); s += 2) {
+                    pivots.add (split.get (s));
+                    kids.add (split.get (s + 1));
+                } // for
+            } // if
+            j = e;
+        } // for
+        return (kids == null) ? null : rebuild (n, pivots, kids);
+    } // flush
+
+    /********************************************************************************
+     * Pass a run of messages (sorted, newer than n's) to internal node n: they are
+     * merged into its buffer, replacing older messages for the same keys, and the
+     * buffer is flushed if it overflows (or deep is set).
+     *
+     * @return  the separators and new right siblings if n split, otherwise null
+     */
+    @SuppressWarnings("unchecked")
+    private List <Object> toInner (Node n, Object [] mk, Object [] mv, int from, int to, boolean deep)
+    {
+        if (to > from) {
+            Object [] k2 = new Object [n.nMsgs + to - from];
+            Object [] v2 = new Object [k2.length];
+            int a = 0, b = from, c = 0;
+            while (a < n.nMsgs || b < to) {
+                int cmp = (a == n.nMsgs) ? 1 : (b == to) ? -1 : ((K) n.msgKey [a]).compareTo ((K) mk [b]);
+                if (cmp < 0) {
+                    k2 [c] = n.msgKey [a]; v2 [c++] = n.msgVal [a++];
+                } else {
+                    k2 [c] = mk [b]; v2 [c++] = mv [b++];
+                    if (cmp == 0) a++;
+                } // if
+            } // while
+            pending += c - n.nMsgs;
+            n.msgKey = k2;
+            n.msgVal = v2;
+            n.nMsgs  = c;
+        } // if
+        return (n.nMsgs > bufferSize || deep) ? flush (n, deep) : null;
+    } // toInner
+
+    /********************************************************************************
+     * Apply a run of messages (sorted) to leaf n: they are merged with its keys, a
+     * message replacing the value of an existing key, and if the result is too big
+     * for one leaf, it is spread evenly over as few leaves as will hold it (n and new
+     * leaves linked in to its right).
+     *
+     * @return  the separators and new right siblings if n split, otherwise null
+     */
+    @SuppressWarnings("unchecked")
+    private List <Object> toLeaf (Node n, Object [] mk, Object [] mv, int from, int to)
+    {
+        if (to - from == 1 && n.nKeys < leafSize) {                 // single key with room
+            int i = lower (n.key, 0, n.nKeys, (K) mk [from]);
+            if (i < n.nKeys && ((K) n.key [i]).compareTo ((K) mk [from]) == 0) {
+                n.ref [i] = mv [from];
+            } else {
+                System.arraycopy (n.key, i, n.key, i + 1, n.nKeys - i);
+                System.arraycopy (n.ref, i, n.ref, i + 1, n.nKeys - i);
+                n.key [i] = mk [from];
+                n.ref [i] = mv [from];
+                n.nKeys++;
+                size++;
+            } // if
+            return null;
+        } // if
+
+        Object [] k2 = new Object [n.nKeys + to - from];
+        Object [] v2 = new Object [k2.length];
+        int a = 0, b = from, c = 0;
+        while (a < n.nKeys || b < to) {
+            int cmp = (a == n.nKeys) ? 1 : (b == to) ? -1 : ((K) n.key [a]).compareTo ((K) mk [b]);
+            if (cmp < 0) {
+                k2 [c] = n.key [a]; v2 [c++] = n.ref [a++];
+            } else {
+                k2 [c] = mk [b]; v2 [c++] = mv [b++];
+                if (cmp == 0) a++;
+                else          size++;
+            } // if
+        } // while
+
+        int pieces = (c + leafSize - 1) / leafSize;
+        List <Object> split = (pieces > 1) ? new ArrayList <> () : null;
+        Node prev = null;
+        for (int p = 0, at = 0; p < pieces; p++) {
+            int  len  = (c - at) / (pieces - p);
+            Node leaf = (p == 0) ? n : new Node (true);
+            System.arraycopy (k2, at, leaf.key, 0, len);
+            System.arraycopy (v2, at, leaf.ref, 0, len);
+            if (p == 0) {
+                if (len < n.nKeys) {
+                    Arrays.fill (n.key, len, n.nKeys, null);
+                    Arrays.fill (n.ref, len, n.nKeys, null);
+                } // if
+            } else {
+                leaf.right = prev.right;
+                prev.right = leaf;
+                split.add (k2 [at]);
+                split.add (leaf);
+            } // if
+            leaf.nKeys = len;
+            prev = leaf;
+            at  += len;
+        } // for
+        return split;
+    } // toLeaf
+
+    /********************************************************************************
+     * Give internal node n (whose buffer is empty) the given pivots and children,
+     * spreading them evenly over n and new right siblings if there are more than
+     * fanout children.
+     *
+     * @return  the separators and new right siblings if n split, otherwise null
+     */
+    private List <Object> rebuild (Node n, List <Object> pivots, List <Object> kids)
+    {
+        int pieces = (kids.size () + fanout - 1) / fanout;
+        List <Object> split = (pieces > 1) ? new ArrayList <> () : null;
+        for (int p = 0, at = 0; p < pieces; p++) {
+            int  len  = (kids.size () - at) / (pieces - p);
+            Node node = (p == 0) ? n : new Node (false);
+            node.ref   = kids.subList (at, at + len).toArray ();
+            node.key   = pivots.subList (at, at + len - 1).toArray ();
+            node.nKeys = len - 1;
+            if (p > 0) {
+                split.add (pivots.get (at - 1));
+                split.add (node);
+            } // if
+            at += len;
+        } // for
+        return split;
+    } // rebuild
+
+    /********************************************************************************
+     * Grow the tree by a level over the root and the new right siblings it split
+     * into (and again, should the new root itself have too many children).
+     *
+     * @param split  the separators and new right siblings of the root
+     */
+    private void grow (List <Object> split)
+    {
+        while (split != null) {
+            List <Object> pivots = new ArrayList <> (), kids = new ArrayList <> ();
+            kids.add (root);
+            for (int s = 0; s < split.size (); s += 2) {
+                pivots.add (split.get (s));
+                kids.add (split.get (s + 1));
+            } // for
+            Node r = new Node (false);
+            split  = rebuild (r, pivots, kids);
+            root   = r;
+        } // while
+    } // grow
+
+    /********************************************************************************
+     * Return the leftmost leaf.
+     */
+    @SuppressWarnings("unchecked")
+    private Node firstLeaf ()
+    {
+        Node n = root;
+        while (! n.isLeaf) n = (Node) n.ref [0];
+        return n;
+    } // firstLeaf
+
+    /********************************************************************************
+     * Return the position of the first of the keys a [from .. to) that is >= key.
+     */
+    @SuppressWarnings("unchecked")
+    private int lower (Object [] a, int from, int to, Object key)
+    {
+        K k = (K) key;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (((K) a [mid]).compareTo (k) < 0) from = mid + 1;
+            else                                 to   = mid;
+        } // while
+        return from;
+    } // lower
+
+    /********************************************************************************
+     * Return the position of the first of the keys a [from .. to) that is > key,
+     * which for the pivots of an internal node is the child to descend into.
+     */
+    @SuppressWarnings("unchecked")
+    private int upper (Object [] a, int from, int to, Object key)
+    {
+        K k = (K) key;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (((K) a [mid]).compareTo (k) <= 0) from = mid + 1;
+            else                                  to   = mid;
+        } // while
+        return from;
+    } // upper
+
+    /********************************************************************************
+     * The main method used for testing.
+     * @param  the command-line arguments (args [0] gives number of keys to insert)
+     */
+    public static void main (String [] args)
+    {
+        int nKeys = (args.length == 1) ? Integer.valueOf (args [0]) : 100000;
+        BeTreeMap <Integer, Integer> bet = new BeTreeMap <> ();
+        for (int i = 1; i < nKeys; i += 2) bet.insert (i, i * 2);
+        int found = 0;
+        for (int i = 0; i < nKeys; i++) if (bet.get (i) != null) found++;
+        out.println ("keys = " + bet.size () + ", found = " + found);
+        out.println ("subMap (100, 120) = " + bet.subMap (100, 120).keySet ());
+    } // main
+
+} // BeTreeMap class
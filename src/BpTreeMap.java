@@ -10,31 +10,43 @@ import static java.lang.System.out;
 import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.AbstractMap.SimpleEntry;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.TreeMap;
 
 /*******************************************************************************
  * This class provides B+Tree maps. B+Trees are used as multi-level index
  * structures that provide efficient access for both point queries and range
- * queries.
+ * queries.  Internal nodes count the keys under each child, so order
+ * statistics (rank, keyAt, count of a range, a cursor from a position) take
+ * one descent rather than a walk over the keys.
  */
 @SuppressWarnings("all")
 public class BpTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
 		implements Serializable, Cloneable, SortedMap<K, V> {
 	/**
-	 * The maximum fanout for a B+Tree node.
+	 * The default maximum fanout for a B+Tree node.
 	 */
 	private static final int ORDER = 5;
 
+	/**
+	 * The maximum fanout of this tree's nodes (internal nodes have up to order
+	 * children and leaves up to order - 1 keys).
+	 */
+	private final int order;
+
 	/**
 	 * The class for type K.
 	 */
@@ -46,31 +58,30 @@ public class BpTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
 	private final Class<V> classV;
 
 	/***************************************************************************
-	 * This inner class defines nodes that are stored in the B+tree map.
-	 * 
-	 * 
+	 * This inner class defines nodes that are stored in the B+tree map.  An
+	 * internal node also keeps the number of keys in each child's subtree, so
+	 * positions (ranks) can be found by descending the tree.
 	 */
 	private class Node {
 		boolean isLeaf;
 		int nKeys;
 		K[] key;
 		Object[] ref;
+		int[] cnt;			// internal nodes: the number of keys under each child
 		
-		Node parent;
-		Node left = null;
 		Node right = null;
 
+		/**
+		 * The arrays have room for one key (and ref) more than a node may keep,
+		 * so an insertion can go in place before the overfull node is split.
+		 */
 		@SuppressWarnings("unchecked")
 		Node(boolean _isLeaf) {
 			isLeaf = _isLeaf;
 			nKeys = 0;
-			key = (K[]) Array.newInstance(classK, ORDER - 1);
-			if (isLeaf) {
-				// ref = (V []) Array.newInstance (classV, ORDER);
-				ref = new Object[ORDER];
-			} else {
-				ref = (Node[]) Array.newInstance(Node.class, ORDER);
-			} // if
+			key = (K[]) Array.newInstance(classK, order);
+			ref = new Object[order + 1];
+			if (!isLeaf) cnt = new int[order + 1];
 		} // constructor
 	} // Node inner class
 
@@ -79,6 +90,18 @@ public class BpTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
 	 */
 	private Node root;
 
+	/**
+	 * The number of keys in the B+Tree.
+	 */
+	private int size = 0;
+
+	/**
+	 * The internal nodes on the path from the root to the current leaf, and the
+	 * child taken at each (reused by put, so insertions do not allocate).
+	 */
+	private Node[] path = (Node[]) Array.newInstance(Node.class, 8);
+	private int[] slot = new int[8];
+
 	/**
 	 * The counter for the number nodes accessed (for performance testing).
 	 */
@@ -93,8 +116,26 @@ public class BpTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
 	 *            the class for values (V)
 	 */
 	public BpTreeMap(Class<K> _classK, Class<V> _classV) {
+		this(_classK, _classV, ORDER);
+	} // BpTree
+
+	/***************************************************************************
+	 * Construct an empty B+Tree map whose nodes have the given maximum fanout.
+	 * Large fanouts (e.g., 64 to 256) make the tree shallow, so lookups touch
+	 * few nodes, and are searched by binary search within each node.
+	 * 
+	 * @param _classK
+	 *            the class for keys (K)
+	 * @param _classV
+	 *            the class for values (V)
+	 * @param _order
+	 *            the maximum fanout (at least 3)
+	 */
+	public BpTreeMap(Class<K> _classK, Class<V> _classV, int _order) {
+		if (_order < 3) throw new IllegalArgumentException("BpTreeMap: order must be at least 3");
 		classK = _classK;
 		classV = _classV;
+		order = _order;
 		root = new Node(true);
 	} // BpTree
 
@@ -107,27 +148,18 @@ public class BpTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
 	} // comparator
 
 	/***************************************************************************
-	 * Return a set containing all the entries as pairs of keys and values.
+	 * Return a set view of the entries as pairs of keys and values.  The view is
+	 * lazy: its iterator walks the leaves left to right (see Cursor), so
+	 * iteration is in ascending key order (as SortedMap requires) and nothing is
+	 * copied.
 	 * 
 	 * @return the set view of the map
-	 * 
-	 * 
 	 */
 	public Set<Map.Entry<K, V>> entrySet() {
-		Set<Map.Entry<K, V>> enSet = new HashSet<>();
-
-		Node smallest = root;
-		while (!smallest.isLeaf){
-			smallest = (Node) smallest.ref[0];
-		}
-
-		while (smallest != null){
-			for (int i = 0; i < smallest.nKeys; i++){
-				enSet.add(new SimpleEntry(smallest.key[i], smallest.ref[i]));
-			}
-			smallest = smallest.right;
-		}
-		return enSet;
+		return new AbstractSet<Map.Entry<K, V>>() {
+			public Iterator<Map.Entry<K, V>> iterator() { return cursor(null, true, null, false); }
+			public int size() { return BpTreeMap.this.size(); }
+		};
 	} // entrySet
 
 	/***************************************************************************
@@ -141,25 +173,243 @@ public class BpTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
 	 */
 	@SuppressWarnings("unchecked")
 	public V get(Object key) {
-		return find((K) key, root);
+		K k = (K) key;
+		Node n = findLeaf(k);
+		int i = lower(n, k);
+		return (i < n.nKeys && n.key[i].compareTo(k) == 0) ? (V) n.ref[i] : null;
 	} // get
 
 	/***************************************************************************
-	 * Put the key-value pair in the B+Tree map.
+	 * Put the key-value pair in the B+Tree map, replacing the value of an
+	 * existing key.  The descent is iterative and remembers the path, so splits
+	 * can be propagated upward without parent pointers or recursion.
 	 * 
 	 * @param key
 	 *            the key to insert
 	 * @param value
 	 *            the value to insert
-	 * @return null (not the previous value)
-	 * 
-	 * 
+	 * @return the previous value for the key, or null if it was absent
 	 */
+	@SuppressWarnings("unchecked")
 	public V put(K key, V value) {
-		insert(key, value, root, null);
+		int depth = 0;
+		Node n = root;
+		while (!n.isLeaf) {
+			count++;
+			int i = upper(n, key);
+			if (depth == path.length) {
+				path = Arrays.copyOf(path, 2 * depth);
+				slot = Arrays.copyOf(slot, 2 * depth);
+			} // if
+			path[depth] = n;
+			slot[depth++] = i;
+			n = (Node) n.ref[i];
+		} // while
+		count++;
+
+		int i = lower(n, key);
+		if (i < n.nKeys && n.key[i].compareTo(key) == 0) {
+			V old = (V) n.ref[i];
+			n.ref[i] = value;
+			return old;
+		} // if
+		wedge(key, value, n, i);
+		size++;
+		for (int d = 0; d < depth; d++) path[d].cnt[slot[d]]++;
+		if (n.nKeys < order) {
+			while (depth > 0) path[--depth] = null;
+			return null;
+		} // if
+
+		Node left = n;
+		Node right = splitLeaf(n);
+		K sep = right.key[0];
+		while (depth > 0) {
+			Node p = path[--depth];
+			path[depth] = null;
+			int s = slot[depth];
+			wedge(sep, right, p, s);
+			p.cnt[s] = total(left);
+			p.cnt[s + 1] = total(right);
+			if (p.nKeys < order) {
+				while (depth > 0) path[--depth] = null;
+				return null;
+			} // if
+			int mid = p.nKeys / 2;
+			sep = p.key[mid];
+			left = p;
+			right = splitInner(p, mid);
+		} // while
+
+		Node r = new Node(false);			// the root split: grow a level
+		r.ref[0] = root;
+		r.key[0] = sep;
+		r.ref[1] = right;
+		r.cnt[0] = total(root);
+		r.cnt[1] = total(right);
+		r.nKeys = 1;
+		root = r;
 		return null;
 	} // put
 
+	/***************************************************************************
+	 * Remove the key from the B+Tree map.  A node left with fewer than
+	 * (order - 1) / 2 keys borrows a key from a sibling that can spare one, or
+	 * else is merged with a sibling, which takes a key from the parent and may
+	 * leave it underfull in turn; when the root is left with a single child,
+	 * the tree shrinks by a level.  So after heavy deletion the nodes stay at
+	 * least half full and the tree stays as shallow as its size allows.
+	 * 
+	 * @param key
+	 *            the key to remove
+	 * @return the removed value, or null if the key was absent
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) {
+		K k = (K) key;
+		int depth = 0;
+		Node n = root;
+		while (!n.isLeaf) {
+			count++;
+			int i = upper(n, k);
+			if (depth == path.length) {
+				path = Arrays.copyOf(path, 2 * depth);
+				slot = Arrays.copyOf(slot, 2 * depth);
+			} // if
+			path[depth] = n;
+			slot[depth++] = i;
+			n = (Node) n.ref[i];
+		} // while
+		count++;
+
+		int i = lower(n, k);
+		if (i == n.nKeys || n.key[i].compareTo(k) != 0) {
+			while (depth > 0) path[--depth] = null;
+			return null;
+		} // if
+		V old = (V) n.ref[i];
+		cut(n, i, i);
+		size--;
+		for (int d = 0; d < depth; d++) path[d].cnt[slot[d]]--;
+
+		int min = (order - 1) / 2;
+		while (depth > 0 && n.nKeys < min) {
+			Node p = path[--depth];
+			path[depth] = null;
+			int s = slot[depth];
+			Node left = (s > 0) ? (Node) p.ref[s - 1] : null;
+			Node right = (s < p.nKeys) ? (Node) p.ref[s + 1] : null;
+			if (left != null && left.nKeys > min) {
+				borrowLeft(p, s, left, n);
+				break;
+			} else if (right != null && right.nKeys > min) {
+				borrowRight(p, s, n, right);
+				break;
+			} else if (left != null) {
+				merge(p, s - 1, left, n);
+			} else if (right != null) {
+				merge(p, s, n, right);
+			} // if
+			n = p;
+		} // while
+		while (depth > 0) path[--depth] = null;
+
+		while (!root.isLeaf && root.nKeys == 0) root = (Node) root.ref[0];
+		return old;
+	} // remove
+
+	/***************************************************************************
+	 * Remove all of the keys from the B+Tree map.
+	 */
+	public void clear() {
+		root = new Node(true);
+		size = 0;
+	} // clear
+
+	/***************************************************************************
+	 * Copy all of the entries of map m into this B+Tree map.  If this map is
+	 * empty and m is sorted in natural key order, the tree is built bottom-up
+	 * (see bulkLoad) instead of by repeated top-down insertion.
+	 * 
+	 * @param m
+	 *            the map whose entries are to be copied
+	 */
+	public void putAll(Map<? extends K, ? extends V> m) {
+		if (size() == 0 && m instanceof SortedMap && ((SortedMap) m).comparator() == null) {
+			bulkLoad(new ArrayList<Map.Entry<K, V>>((Set) m.entrySet()));
+		} else {
+			super.putAll(m);
+		} // if
+	} // putAll
+
+	/***************************************************************************
+	 * Build the B+Tree bottom-up from entries sorted in ascending key order with
+	 * no duplicate keys, replacing the current contents.  The leaves are filled
+	 * completely (the last two share their keys if the last would be less than
+	 * half full) and linked left to right, then each level of internal nodes is
+	 * built over the level below, with the children spread evenly so that every
+	 * internal node has at least two.  This takes linear time, with no
+	 * searching or splitting.
+	 * 
+	 * @param entries
+	 *            the entries in ascending key order
+	 */
+	public void bulkLoad(List<? extends Map.Entry<K, V>> entries) {
+		List<Node> level = new ArrayList<>();
+		Node leaf = new Node(true);
+		level.add(leaf);
+		for (Map.Entry<K, V> e : entries) {
+			if (leaf.nKeys == order - 1) {
+				Node next = new Node(true);
+				leaf.right = next;
+				leaf = next;
+				level.add(leaf);
+			} // if
+			leaf.key[leaf.nKeys] = e.getKey();
+			leaf.ref[leaf.nKeys] = e.getValue();
+			leaf.nKeys++;
+		} // for
+		size = entries.size();
+		if (level.size() > 1 && leaf.nKeys < (order - 1) / 2) {	// even out the last two leaves
+			Node prev = level.get(level.size() - 2);
+			int move = (prev.nKeys - leaf.nKeys) / 2;
+			int from = prev.nKeys - move;
+			System.arraycopy(leaf.key, 0, leaf.key, move, leaf.nKeys);
+			System.arraycopy(leaf.ref, 0, leaf.ref, move, leaf.nKeys);
+			System.arraycopy(prev.key, from, leaf.key, 0, move);
+			System.arraycopy(prev.ref, from, leaf.ref, 0, move);
+			Arrays.fill(prev.key, from, prev.nKeys, null);
+			Arrays.fill(prev.ref, from, prev.nKeys, null);
+			prev.nKeys = from;
+			leaf.nKeys += move;
+		} // if
+
+		List<K> low = new ArrayList<>(level.size());	// smallest key under each node
+		for (Node n : level) low.add(n.key[0]);
+
+		while (level.size() > 1) {
+			int nParents = (level.size() + order - 1) / order;
+			List<Node> parents = new ArrayList<>(nParents);
+			List<K> parentLow = new ArrayList<>(nParents);
+			int next = 0;
+			for (int j = 0; j < nParents; j++) {
+				int nChildren = (level.size() - next) / (nParents - j);
+				Node parent = new Node(false);
+				for (int i = 0; i < nChildren; i++, next++) {
+					parent.ref[i] = level.get(next);
+					parent.cnt[i] = total(level.get(next));
+					if (i > 0) parent.key[i - 1] = low.get(next);
+				} // for
+				parent.nKeys = nChildren - 1;
+				parents.add(parent);
+				parentLow.add(low.get(next - nChildren));
+			} // for
+			level = parents;
+			low = parentLow;
+		} // while
+		root = level.get(0);
+	} // bulkLoad
+
 	/***************************************************************************
 	 * Return the first (smallest) key in the B+Tree map.
 	 * 
@@ -193,110 +443,286 @@ public class BpTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
 	} // lastKey
 
 	/***************************************************************************
-	 * Return the portion of the B+Tree map where key < toKey.
-	 * 
-	 * @return the submap with keys in the range [firstKey, toKey)
+	 * Return the rank of the key: the number of keys in the map less than it.
+	 * Like the other order statistics below, this descends the tree once,
+	 * adding up the subtree counts of the children to the left of the path.
 	 * 
+	 * @param key
+	 *            the key (which need not be in the map)
+	 * @return the number of keys less than key
+	 */
+	public int rank(K key) {
+		return rank(key, false);
+	} // rank
+
+	/***************************************************************************
+	 * Return the number of keys in the map less than (or, if inclusive, less
+	 * than or equal to) the given key.
+	 */
+	private int rank(K key, boolean inclusive) {
+		int r = 0;
+		Node n = root;
+		while (!n.isLeaf) {
+			int i = upper(n, key);
+			for (int j = 0; j < i; j++) r += n.cnt[j];
+			n = (Node) n.ref[i];
+		} // while
+		return r + (inclusive ? upper(n, key) : lower(n, key));
+	} // rank
+
+	/***************************************************************************
+	 * Return the key at the given position in ascending key order (select by
+	 * rank), so keyAt(0) is the first key and keyAt(size() - 1) the last.
 	 * 
+	 * @param position
+	 *            the position (0 to size() - 1)
+	 * @return the key at that position
 	 */
-	public SortedMap<K, V> headMap(K toKey) {
+	public K keyAt(int position) {
+		if (position < 0 || position >= size) throw new IndexOutOfBoundsException("position " + position + " of " + size);
+		Node n = root;
+		while (!n.isLeaf) {
+			int i = 0;
+			while (position >= n.cnt[i]) position -= n.cnt[i++];
+			n = (Node) n.ref[i];
+		} // while
+		return n.key[position];
+	} // keyAt
 
-		Node current = root;
-		while (!current.isLeaf){
-			boolean found = false;
-			for (int i = 0; i < current.nKeys; i++){
-				if (toKey.compareTo(current.key[i]) >= 0){
-					current = (Node) current.ref[i + 1];
-					found = true;
-					break;
-				}
-			}
-			if (!found){
-				current = (Node) current.ref[0];
-			}
-		}
+	/***************************************************************************
+	 * Return the number of keys between lo and hi (a null bound is unbounded)
+	 * without visiting them: the difference of the two bounds' ranks.
+	 * 
+	 * @param lo
+	 *            the lower bound (or null)
+	 * @param loInclusive
+	 *            whether a key equal to lo is counted
+	 * @param hi
+	 *            the upper bound (or null)
+	 * @param hiInclusive
+	 *            whether a key equal to hi is counted
+	 * @return the number of keys in the range
+	 */
+	public int count(K lo, boolean loInclusive, K hi, boolean hiInclusive) {
+		int from = (lo == null) ? 0 : rank(lo, !loInclusive);
+		int to = (hi == null) ? size : rank(hi, hiInclusive);
+		return Math.max(0, to - from);
+	} // count
 
-		SortedMap<K, V> results = new TreeMap<>();
-		for (int i = 0; i < current.nKeys; i++){
-			if (current.key[i].compareTo(toKey) < 0){
-				results.put(current.key[i], (V) current.ref[i]);
-				continue;
-			}
-			break;
-		}
-		
-		current = current.left;
-		
-		while(current != null){
-			for (int i = 0; i < current.nKeys; i++){
-				results.put(current.key[i], (V) current.ref[i]);
-			}
-			
-			current = current.left;
-		}
-		
-		return results;
+	/***************************************************************************
+	 * Return a view of the portion of the B+Tree map where key < toKey.
+	 * 
+	 * @return the submap with keys in the range [firstKey, toKey)
+	 */
+	public SortedMap<K, V> headMap(K toKey) {
+		return new SubMap(null, toKey);
 	} // headMap
 
 	/***************************************************************************
-	 * Return the portion of the B+Tree map where fromKey <= key.
+	 * Return a view of the portion of the B+Tree map where fromKey <= key.
 	 * 
 	 * @return the submap with keys in the range [fromKey, lastKey]
-	 * 
-	 * 
 	 */
 	public SortedMap<K, V> tailMap(K fromKey) {
-		Node current = root;
-		while (!current.isLeaf){
-			boolean found = false;
-			for (int i = 0; i < current.nKeys; i++){
-				if (fromKey.compareTo(current.key[i]) >= 0){
-					current = (Node) current.ref[i + 1];
-					found = true;
-					break;
-				}
-			}
-			if (!found){
-				current = (Node) current.ref[0];
-			}
-		}
-
-		SortedMap<K, V> results = new TreeMap<>();
-		for (int i = 0; i < current.nKeys; i++){
-			if (current.key[i].compareTo(fromKey) >= 0){
-				results.put(current.key[i], (V) current.ref[i]);
-				continue;
-			}
-		}
-		
-		current = current.right;
-		
-		while(current != null){
-			for (int i = 0; i < current.nKeys; i++){
-				results.put(current.key[i], (V) current.ref[i]);
-			}
-			
-			current = current.right;
-		}
-		
-		return results;
+		return new SubMap(fromKey, null);
 	} // tailMap
 
 	/***************************************************************************
-	 * Return the portion of the B+Tree map whose keys are between fromKey and
-	 * toKey, i.e., fromKey <= key < toKey.
+	 * Return a view of the portion of the B+Tree map whose keys are between
+	 * fromKey and toKey, i.e., fromKey <= key < toKey.  The view is lazy: it
+	 * copies nothing, and iterating over it descends the tree once to the leaf
+	 * holding fromKey and then follows the right sibling links up to toKey.
 	 * 
 	 * @return the submap with keys in the range [fromKey, toKey)
-	 * 
-	 * 
 	 */
 	public SortedMap<K, V> subMap(K fromKey, K toKey) {
-		SortedMap head = headMap(toKey);
-		SortedMap tail = tailMap(fromKey);
-		head.keySet().retainAll(tail.keySet());
-		return head;
+		return new SubMap(fromKey, toKey);
 	} // subMap
 
+	/***************************************************************************
+	 * Open a cursor for a streaming range scan over the keys between lo and hi
+	 * (a null bound is unbounded).  The cursor descends the tree once to the
+	 * leaf where the range starts and then follows the right sibling links.
+	 * 
+	 * @param lo
+	 *            the lower bound (or null)
+	 * @param loInclusive
+	 *            whether a key equal to lo is in the range
+	 * @param hi
+	 *            the upper bound (or null)
+	 * @param hiInclusive
+	 *            whether a key equal to hi is in the range
+	 * @return the cursor, positioned before the first key in the range
+	 */
+	public Cursor cursor(K lo, boolean loInclusive, K hi, boolean hiInclusive) {
+		return new Cursor(lo, loInclusive, hi, hiInclusive);
+	} // cursor
+
+	/***************************************************************************
+	 * Open a cursor over the keys from the given position (in ascending key
+	 * order) to the end, e.g., for OFFSET in pagination.  The starting leaf is
+	 * found by descending on the subtree counts, so no keys are skipped over.
+	 * 
+	 * @param position
+	 *            the position of the first key to return (0 for the first)
+	 * @return the cursor, positioned before the key at that position
+	 */
+	public Cursor cursor(int position) {
+		return new Cursor(position);
+	} // cursor
+
+	/***************************************************************************
+	 * This inner class is a cursor over a range of keys in ascending order.
+	 * Besides iterating over entries, it can stream just the values (nextValue)
+	 * without creating an entry per key.
+	 */
+	public class Cursor implements Iterator<Map.Entry<K, V>> {
+		private final K hi;
+		private final boolean hiInclusive;
+		private Node leaf;
+		private int i;
+
+		Cursor(K lo, boolean loInclusive, K _hi, boolean _hiInclusive) {
+			hi = _hi;
+			hiInclusive = _hiInclusive;
+			if (lo == null) {
+				leaf = firstLeaf();
+				i = 0;
+			} else {
+				leaf = findLeaf(lo);
+				i = loInclusive ? lower(leaf, lo) : upper(leaf, lo);
+			} // if
+			settle();
+		} // constructor
+
+		Cursor(int position) {
+			hi = null;
+			hiInclusive = false;
+			if (position < 0 || position >= size) return;
+			leaf = root;
+			while (!leaf.isLeaf) {
+				int j = 0;
+				while (position >= leaf.cnt[j]) position -= leaf.cnt[j++];
+				leaf = (Node) leaf.ref[j];
+			} // while
+			i = position;
+		} // constructor
+
+		/** Move to the next leaf when this one is used up, and stop past hi. */
+		private void settle() {
+			while (leaf != null && i >= leaf.nKeys) {
+				leaf = leaf.right;
+				i = 0;
+			} // while
+			if (leaf != null && hi != null) {
+				int cmp = leaf.key[i].compareTo(hi);
+				if (cmp > 0 || (cmp == 0 && ! hiInclusive)) leaf = null;
+			} // if
+		} // settle
+
+		public boolean hasNext() {
+			return leaf != null;
+		} // hasNext
+
+		public Map.Entry<K, V> next() {
+			if (leaf == null) throw new NoSuchElementException();
+			Map.Entry<K, V> e = new SimpleImmutableEntry<>(leaf.key[i], (V) leaf.ref[i]);
+			i++;
+			settle();
+			return e;
+		} // next
+
+		/** Return the value of the next key in the range, advancing the cursor. */
+		public V nextValue() {
+			if (leaf == null) throw new NoSuchElementException();
+			V v = (V) leaf.ref[i++];
+			settle();
+			return v;
+		} // nextValue
+	} // Cursor inner class
+
+	/***************************************************************************
+	 * This inner class is a lazy view of the keys in [lo, hi) (a null bound is
+	 * unbounded), backed by the B+Tree: lookups and puts go to the tree, and
+	 * iteration uses a Cursor.
+	 */
+	private class SubMap extends AbstractMap<K, V> implements SortedMap<K, V> {
+		private final K lo, hi;
+
+		SubMap(K _lo, K _hi) {
+			lo = _lo;
+			hi = _hi;
+		} // constructor
+
+		private boolean inRange(Object key) {
+			K k = (K) key;
+			return (lo == null || k.compareTo(lo) >= 0) && (hi == null || k.compareTo(hi) < 0);
+		} // inRange
+
+		public Comparator<? super K> comparator() {
+			return null;
+		} // comparator
+
+		public V get(Object key) {
+			return inRange(key) ? BpTreeMap.this.get(key) : null;
+		} // get
+
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		} // containsKey
+
+		public V put(K key, V value) {
+			if (! inRange(key)) throw new IllegalArgumentException("key out of range: " + key);
+			return BpTreeMap.this.put(key, value);
+		} // put
+
+		public V remove(Object key) {
+			return inRange(key) ? BpTreeMap.this.remove(key) : null;
+		} // remove
+
+		public Set<Map.Entry<K, V>> entrySet() {
+			return new AbstractSet<Map.Entry<K, V>>() {
+				public Iterator<Map.Entry<K, V>> iterator() { return cursor(lo, true, hi, false); }
+				public int size() { return count(lo, true, hi, false); }
+			};
+		} // entrySet
+
+		public K firstKey() {
+			Cursor c = cursor(lo, true, hi, false);
+			if (! c.hasNext()) throw new NoSuchElementException();
+			return c.next().getKey();
+		} // firstKey
+
+		public K lastKey() {
+			K last = null;
+			for (Cursor c = cursor(lo, true, hi, false); c.hasNext(); ) last = c.next().getKey();
+			if (last == null) throw new NoSuchElementException();
+			return last;
+		} // lastKey
+
+		public SortedMap<K, V> subMap(K fromKey, K toKey) {
+			return new SubMap(max(lo, fromKey), min(hi, toKey));
+		} // subMap
+
+		public SortedMap<K, V> headMap(K toKey) {
+			return new SubMap(lo, min(hi, toKey));
+		} // headMap
+
+		public SortedMap<K, V> tailMap(K fromKey) {
+			return new SubMap(max(lo, fromKey), hi);
+		} // tailMap
+
+		/** Return the larger of two lower bounds (null is unbounded). */
+		private K max(K a, K b) {
+			return (a == null) ? b : (b == null || a.compareTo(b) >= 0) ? a : b;
+		} // max
+
+		/** Return the smaller of two upper bounds (null is unbounded). */
+		private K min(K a, K b) {
+			return (a == null) ? b : (b == null || a.compareTo(b) <= 0) ? a : b;
+		} // min
+	} // SubMap inner class
+
 	/***************************************************************************
 	 * Return the size (number of keys) in the B+Tree.
 	 * 
@@ -305,19 +731,7 @@ public class BpTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
 	 *  
 	 */
 	public int size() {
-		int sum = 0;
-
-		Node smallest = root;
-		while (!smallest.isLeaf){
-			smallest = (Node) smallest.ref[0];
-		}
-		
-		while(smallest != null){
-			sum += smallest.nKeys;
-			smallest = smallest.right;
-		}
-		
-		return sum;
+		return size;
 	} // size
 
 	/***************************************************************************
@@ -350,183 +764,68 @@ public class BpTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
 	} // print
 
 	/***************************************************************************
-	 * Recursive helper function for finding a key in B+trees.
+	 * Return the leftmost leaf of the B+Tree.
+	 */
+	private Node firstLeaf() {
+		Node n = root;
+		while (!n.isLeaf) n = (Node) n.ref[0];
+		return n;
+	} // firstLeaf
+
+	/***************************************************************************
+	 * Descend from the root to the leaf where the given key is or would be.
 	 * 
 	 * @param key
-	 *            the key to find
-	 * @param ney
-	 *            the current node
-	 * 
-	 *  
+	 *            the key to look for
 	 */
-	@SuppressWarnings("unchecked")
-	private V find(K key, Node n) {
+	private Node findLeaf(K key) {
+		Node n = root;
+		while (!n.isLeaf) {
+			count++;
+			n = (Node) n.ref[upper(n, key)];
+		} // while
 		count++;
-		boolean found = false;
-		for (int i = 0; i < n.nKeys; i++) {
-			K k_i = n.key[i];
-			
-			if (n.isLeaf){
-				if (key.compareTo(k_i) <= 0){
-					return (key.equals(k_i)) ? (V) n.ref[i] : null;
-				}
-			}else{
-				if (key.compareTo(k_i) < 0){
-					return find(key, (Node) n.ref[i]);
-				}else{
-					return find(key, (Node) n.ref[i + 1]);
-				}
-			}
-		} // for
-		return (n.isLeaf) ? null : find(key, (Node) n.ref[n.nKeys]);
-	} // find
+		return n;
+	} // findLeaf
 
 	/***************************************************************************
-	 * Recursive helper function for inserting a key in B+trees.
+	 * Return the position of the first key in node n that is >= key (binary
+	 * search).
 	 * 
-	 * @param key
-	 *            the key to insert
-	 * @param ref
-	 *            the value/node to insert
 	 * @param n
-	 *            the current node
-	 * @param p
-	 *            the parent node
-	 *
-	 *  
+	 *            the node to search
+	 * @param key
+	 *            the key to search for
 	 */
-	private void insert(K key, V ref, Node n, Node p) {
-		
-		if (n.isLeaf){
-
-			boolean inserted = false;
-			if (n.nKeys < ORDER - 1){
-				for (int i = 0; i < n.nKeys; i++){
-					if (key.compareTo(n.key[i]) < 0){
-						wedge(key, ref, n, i);
-						inserted = true;
-						break;
-					}else if (key.compareTo(n.key[i]) == 0 ){
-						out.println("BpTree:insert: attempt to insert duplicate key = " + key);
-					}
-				}
-				if (!inserted){
-					wedge(key, ref, n, n.nKeys);
-				}
-			}else {
-				Node newNode = split(key, ref, n);
-				K tempKey;
-				Node rightRef;
-				Node leftRef;
-				
-				Node temp = n.right;
-				n.right = newNode;
-				newNode.left = n;
-				newNode.right = temp;
-				
-				tempKey = newNode.key[0];
-				leftRef = n;
-				rightRef = newNode;
-
-				if (p == null){
-					Node parent = new Node(false);
-					p = parent;
-					root = parent;
-					n.parent = parent;
-					newNode.parent = parent;
-					
-					parent.ref[0] = n;
-					insertIntoParent(tempKey, leftRef, rightRef, parent);
-				}else{
-					newNode.parent = p;
-					insertIntoParent(tempKey, leftRef, rightRef, p);
-				}
-				
-				for (int i = 0; i < p.nKeys; i++){
-					if (p.ref[i] == n){
-						if (i - 1 >= 0){
-							p.key[i - 1] = n.key[0];
-						}
-						break;
-					}
-				}
-				
-			}
-			
-		}else{
-			boolean inserted = false;
-			for (int i = 0; i < n.nKeys; i++){
-				if (key.compareTo(n.key[i]) < 0){
-					insert(key, ref, (Node) n.ref[i], n);
-					inserted = true;
-					break;
-				}
-			}
-			if (!inserted){
-				insert(key, ref, (Node) n.ref[n.nKeys], n);
-			}
-		}
-		
-	} // insert
+	private int lower(Node n, K key) {
+		int lo = 0, hi = n.nKeys;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (n.key[mid].compareTo(key) < 0) lo = mid + 1;
+			else hi = mid;
+		} // while
+		return lo;
+	} // lower
 
-	/*****************************************************************************
-	 * This method has a recursive manner from the bottom of the B+ Tree upto a node which does not need spliting.
-	 * This is used when a leaf is splited and we need to insert a new value into its parent.
-	 * 
-	 * @param key The new value to be inserted into the parent
-	 * @param leftRef Left reference for that new key
-	 * @param rightRef right reference for that new key
-	 * @param parent the node which we want to add the new key
+	/***************************************************************************
+	 * Return the position of the first key in node n that is > key (binary
+	 * search), which for an internal node is the child to descend into.
 	 * 
-	 *  
+	 * @param n
+	 *            the node to search
+	 * @param key
+	 *            the key to search for
 	 */
-	private void insertIntoParent(K key, Node leftRef, Node rightRef, Node parent){
-		if (parent.nKeys < ORDER - 1){
-			if (parent.nKeys == 0){
-				parent.ref[0] = leftRef;
-			}
-			
-			boolean inserted = false;
-			for (int i = 0; i < parent.nKeys; i++){
-				if (key.compareTo(parent.key[i]) < 0){
-					wedge(key, (V) rightRef, parent, i);
-					inserted = true;
-					break;
-				}else if (key.compareTo(parent.key[i]) == 0 ){
-					out.println("BpTree:insert: attempt to insert duplicate key = " + key);
-				}
-			}
-			if (!inserted){
-				wedge(key, (V) rightRef, parent, parent.nKeys);
-			}
-		}else{
-			Node newNode = split(key, (V) rightRef, parent);
-			K tempKey;
-			Node tempRightRef;
-			Node tempLeftRef;
-			
-			tempKey = newNode.key[0];
-			for (int i = 0; i < newNode.nKeys - 1; i++){
-				newNode.key[i] = newNode.key[i + 1];
-			}
-			for (int i = 0; i < newNode.nKeys; i++){
-				newNode.ref[i] = newNode.ref[i + 1];
-			}
-			newNode.nKeys--;
-
-			tempRightRef = newNode;
-			tempLeftRef = parent;
+	private int upper(Node n, K key) {
+		int lo = 0, hi = n.nKeys;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (n.key[mid].compareTo(key) <= 0) lo = mid + 1;
+			else hi = mid;
+		} // while
+		return lo;
+	} // upper
 
-			if (parent.parent == null){
-				parent.parent = new Node(false);
-				root = parent.parent;
-			}
-			
-			insertIntoParent(tempKey, tempLeftRef, tempRightRef, parent.parent);
-		}
-		
-	}
-	
 	/***************************************************************************
 	 * Wedge the key-ref pair into node n.
 	 * 
@@ -541,107 +840,206 @@ public class BpTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
 	 *
 	 *  
 	 */
-	private void wedge(K key, V ref, Node n, int i) {
-		if (n.isLeaf){
-			for (int j = n.nKeys; j > i; j--) {
-				n.key[j] = n.key[j - 1];
-				n.ref[j] = n.ref[j - 1];
-			} // for
-			n.key[i] = key;
+	private void wedge(K key, Object ref, Node n, int i) {
+		System.arraycopy(n.key, i, n.key, i + 1, n.nKeys - i);
+		n.key[i] = key;
+		if (n.isLeaf) {
+			System.arraycopy(n.ref, i, n.ref, i + 1, n.nKeys - i);
 			n.ref[i] = ref;
-			n.nKeys++;
-		}else{
-			for (int j = n.nKeys; j > i; j--) {
-				n.key[j] = n.key[j - 1];
-				n.ref[j + 1] = n.ref[j];
-			} // for
-			n.key[i] = key;
+		} else {
+			System.arraycopy(n.ref, i + 1, n.ref, i + 2, n.nKeys - i);
+			System.arraycopy(n.cnt, i + 1, n.cnt, i + 2, n.nKeys - i);
 			n.ref[i + 1] = ref;
-			n.nKeys++;
-		}
+			n.cnt[i + 1] = 0;				// set by the caller
+		} // if
+		n.nKeys++;
 	} // wedge
 	
 	/***************************************************************************
-	 * Split node n and return the newly created node.
+	 * Cut key i and ref r (i for a leaf, i or i + 1 for an internal node) out
+	 * of node n.
 	 * 
-	 * @param key
-	 *            the key to insert
-	 * @param ref
-	 *            the value/node to insert
 	 * @param n
-	 *            the current node
-	 *
-	 *  
+	 *            the node to cut from
+	 * @param i
+	 *            the position of the key
+	 * @param r
+	 *            the position of the ref
 	 */
-	private Node split(K key, V ref, Node n) {
-		List<Pair> pairs = new ArrayList<>();
-		Object firstRef = n.ref[0];
-		
-		if (!n.isLeaf){
-			for (int i = 0; i < n.nKeys; i++){
-				pairs.add(new Pair(n.key[i], n.ref[i + 1]));
-			}
-		}else{
-			for (int i = 0; i < n.nKeys; i++){
-				pairs.add(new Pair(n.key[i], n.ref[i]));
-			}
-		}
-		pairs.add(new Pair(key, ref));
-		
-		Comparator<Pair> comparator = new Comparator<BpTreeMap<K,V>.Pair>() {
-			public int compare(Pair o1, Pair o2) {
-				return o1.key.compareTo(o2.key);
-			}
-		};
-		Collections.sort(pairs, comparator);
-
-		Node newNode = new Node(n.isLeaf);
-		if (!n.isLeaf){
-			n.ref[0] = firstRef;
-			n.nKeys = 0;
-			for (int i = 0; i < ORDER / 2; i++){
-				n.key[i] = pairs.get(i).key;
-				n.ref[i + 1] = pairs.get(i).ref;
-				n.nKeys++;
-			}
-			
-			for (int i = ORDER / 2; i < pairs.size(); i++){
-				newNode.key[i - ORDER / 2] = pairs.get(i).key;
-				newNode.ref[i - ORDER / 2 + 1] = pairs.get(i).ref;
-				newNode.nKeys++;
-			}
-		}else{
-			n.nKeys = 0;
-			for (int i = 0; i < ORDER / 2; i++){
-				n.key[i] = pairs.get(i).key;
-				n.ref[i] = pairs.get(i).ref;
-				n.nKeys++;
-			}
-			
-			for (int i = ORDER / 2; i < pairs.size(); i++){
-				newNode.key[i - ORDER / 2] = pairs.get(i).key;
-				newNode.ref[i - ORDER / 2] = pairs.get(i).ref;
-				newNode.nKeys++;
-			}
-		}
-		
-		return newNode;
-	} // split
+	private void cut(Node n, int i, int r) {
+		int refs = n.isLeaf ? n.nKeys : n.nKeys + 1;
+		System.arraycopy(n.key, i + 1, n.key, i, n.nKeys - i - 1);
+		System.arraycopy(n.ref, r + 1, n.ref, r, refs - r - 1);
+		if (!n.isLeaf) {
+			System.arraycopy(n.cnt, r + 1, n.cnt, r, refs - r - 1);
+			n.cnt[refs - 1] = 0;
+		} // if
+		n.nKeys--;
+		n.key[n.nKeys] = null;
+		n.ref[refs - 1] = null;
+	} // cut
 
 	/***************************************************************************
-	 * This inner class is used to hold all pairs of Keys and their References for the sorting purpose. 
-	 *  
+	 * Move the last key of the left sibling into the underfull node n, which is
+	 * child s of parent p, rotating it through the parent's separator.
+	 * 
+	 * @param p
+	 *            the parent
+	 * @param s
+	 *            the position of n in p
+	 * @param left
+	 *            the left sibling of n
+	 * @param n
+	 *            the underfull node
 	 */
-	private class Pair {
-		public K key;
-		public Object ref;
-		
-		public Pair(K key, Object ref){
-			this.key = key;
-			this.ref = ref;
-		}
-	}		
-	
+	private void borrowLeft(Node p, int s, Node left, Node n) {
+		int last = left.nKeys - 1;
+		System.arraycopy(n.key, 0, n.key, 1, n.nKeys);
+		if (n.isLeaf) {
+			System.arraycopy(n.ref, 0, n.ref, 1, n.nKeys);
+			n.key[0] = left.key[last];
+			n.ref[0] = left.ref[last];
+			p.key[s - 1] = n.key[0];
+			cut(left, last, last);
+		} else {
+			System.arraycopy(n.ref, 0, n.ref, 1, n.nKeys + 1);
+			System.arraycopy(n.cnt, 0, n.cnt, 1, n.nKeys + 1);
+			n.key[0] = p.key[s - 1];
+			n.ref[0] = left.ref[last + 1];
+			n.cnt[0] = left.cnt[last + 1];
+			p.key[s - 1] = left.key[last];
+			cut(left, last, last + 1);
+		} // if
+		n.nKeys++;
+		p.cnt[s - 1] = total(left);
+		p.cnt[s] = total(n);
+	} // borrowLeft
+
+	/***************************************************************************
+	 * Move the first key of the right sibling into the underfull node n, which
+	 * is child s of parent p, rotating it through the parent's separator.
+	 * 
+	 * @param p
+	 *            the parent
+	 * @param s
+	 *            the position of n in p
+	 * @param n
+	 *            the underfull node
+	 * @param right
+	 *            the right sibling of n
+	 */
+	private void borrowRight(Node p, int s, Node n, Node right) {
+		if (n.isLeaf) {
+			n.key[n.nKeys] = right.key[0];
+			n.ref[n.nKeys] = right.ref[0];
+			cut(right, 0, 0);
+			p.key[s] = right.key[0];
+		} else {
+			n.key[n.nKeys] = p.key[s];
+			n.ref[n.nKeys + 1] = right.ref[0];
+			n.cnt[n.nKeys + 1] = right.cnt[0];
+			p.key[s] = right.key[0];
+			cut(right, 0, 0);
+		} // if
+		n.nKeys++;
+		p.cnt[s] = total(n);
+		p.cnt[s + 1] = total(right);
+	} // borrowRight
+
+	/***************************************************************************
+	 * Merge the right node into the left node, where they are children j and
+	 * j + 1 of parent p, and cut separator j (and the right node) out of p.  An
+	 * internal node also takes the separator, between its keys and the right
+	 * node's.
+	 * 
+	 * @param p
+	 *            the parent
+	 * @param j
+	 *            the position of the separator between left and right in p
+	 * @param left
+	 *            the left node (which is kept)
+	 * @param right
+	 *            the right node (which is dropped)
+	 */
+	private void merge(Node p, int j, Node left, Node right) {
+		int at = left.nKeys;
+		if (left.isLeaf) {
+			System.arraycopy(right.key, 0, left.key, at, right.nKeys);
+			System.arraycopy(right.ref, 0, left.ref, at, right.nKeys);
+			left.nKeys += right.nKeys;
+			left.right = right.right;
+		} else {
+			left.key[at] = p.key[j];
+			System.arraycopy(right.key, 0, left.key, at + 1, right.nKeys);
+			System.arraycopy(right.ref, 0, left.ref, at + 1, right.nKeys + 1);
+			System.arraycopy(right.cnt, 0, left.cnt, at + 1, right.nKeys + 1);
+			left.nKeys += right.nKeys + 1;
+		} // if
+		cut(p, j, j + 1);
+		p.cnt[j] = total(left);
+	} // merge
+
+	/***************************************************************************
+	 * Return the number of keys in the subtree rooted at node n.
+	 * 
+	 * @param n
+	 *            the root of the subtree
+	 */
+	private int total(Node n) {
+		if (n.isLeaf) return n.nKeys;
+		int t = 0;
+		for (int i = 0; i <= n.nKeys; i++) t += n.cnt[i];
+		return t;
+	} // total
+
+	/***************************************************************************
+	 * Split the overfull leaf n: its upper half moves to a new leaf, which is
+	 * linked in to its right.
+	 * 
+	 * @param n
+	 *            the leaf to split
+	 * @return the new right leaf
+	 */
+	private Node splitLeaf(Node n) {
+		Node right = new Node(true);
+		int keep = n.nKeys / 2;
+		int move = n.nKeys - keep;
+		System.arraycopy(n.key, keep, right.key, 0, move);
+		System.arraycopy(n.ref, keep, right.ref, 0, move);
+		Arrays.fill(n.key, keep, n.nKeys, null);
+		Arrays.fill(n.ref, keep, n.nKeys, null);
+		right.nKeys = move;
+		n.nKeys = keep;
+		right.right = n.right;
+		n.right = right;
+		return right;
+	} // splitLeaf
+
+	/***************************************************************************
+	 * Split the overfull internal node n around key mid: the keys after mid and
+	 * their children move to a new node, and key mid is dropped from both (the
+	 * caller moves it up to the parent).
+	 * 
+	 * @param n
+	 *            the node to split
+	 * @param mid
+	 *            the position of the key moving up
+	 * @return the new right node
+	 */
+	private Node splitInner(Node n, int mid) {
+		Node right = new Node(false);
+		int move = n.nKeys - mid - 1;
+		System.arraycopy(n.key, mid + 1, right.key, 0, move);
+		System.arraycopy(n.ref, mid + 1, right.ref, 0, move + 1);
+		System.arraycopy(n.cnt, mid + 1, right.cnt, 0, move + 1);
+		Arrays.fill(n.key, mid, n.nKeys, null);
+		Arrays.fill(n.ref, mid + 1, n.nKeys + 1, null);
+		Arrays.fill(n.cnt, mid + 1, n.nKeys + 1, 0);
+		right.nKeys = move;
+		n.nKeys = mid;
+		return right;
+	} // splitInner
+
 	/***************************************************************************
 	 * The main method used for testing.
 	 * 
@@ -729,6 +1127,161 @@ public class BpTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
 		
 		out.println("\n-------------------------------------------\n");
 		out.println("Size: " + bpt.size());
+
+		out.println("\n-------------------------------------------\n");
+		for (int order : new int[] { 3, 4, 5, 6, 16, 64 }) {
+			out.println("Randomized check, order " + order + ": " + randomCheck(order, 200000) + " errors");
+		} // for
 	} // main
 
+	/***************************************************************************
+	 * Check the B+Tree against a TreeMap under a random mix of put, get and
+	 * remove (puts only for the first half of the steps, then more removes than
+	 * puts, so the tree grows and then shrinks), checking the structure (see
+	 * checkTree) and the order statistics (see checkRanks) along the way.  Then a bulk-loaded tree has nine tenths of its
+	 * keys removed in order, and a key is removed through a range view.
+	 * 
+	 * @param order
+	 *            the order of the trees to check
+	 * @param steps
+	 *            the number of random operations
+	 * @return the number of disagreements and structural errors found
+	 */
+	static int randomCheck(int order, int steps) {
+		Random rand = new Random(order);
+		BpTreeMap<Integer, Integer> bpt = new BpTreeMap<>(Integer.class, Integer.class, order);
+		TreeMap<Integer, Integer> tm = new TreeMap<>();
+		int keys = steps / 10, errors = 0;
+
+		for (int step = 0; step < steps; step++) {
+			Integer k = rand.nextInt(keys);
+			int op = rand.nextInt(step < steps / 2 ? 3 : 5);
+			if (op == 0) {
+				if (!Objects.equals(bpt.put(k, step), tm.put(k, step))) errors++;
+			} else if (op == 1) {
+				if (!Objects.equals(bpt.get(k), tm.get(k))) errors++;
+			} else {
+				if (!Objects.equals(bpt.remove(k), tm.remove(k))) errors++;
+			} // if
+			if (bpt.size() != tm.size()) errors++;
+			if (step % (steps / 10) == 0) errors += bpt.checkTree() + checkRanks(bpt, tm, rand);
+		} // for
+		if (!new ArrayList<>(bpt.entrySet()).equals(new ArrayList<>(tm.entrySet()))) errors++;
+		for (Integer k : new ArrayList<>(tm.keySet())) bpt.remove(k);
+		errors += bpt.checkTree();
+		if (bpt.size() != 0 || bpt.root.nKeys != 0) errors++;
+
+		TreeMap<Integer, Integer> all = new TreeMap<>();
+		for (int i = 0; i < keys; i++) all.put(i, i);
+		BpTreeMap<Integer, Integer> loaded = new BpTreeMap<>(Integer.class, Integer.class, order);
+		loaded.putAll(all);
+		errors += loaded.checkTree() + checkRanks(loaded, all, rand);
+		for (int i = 0; i < keys; i++) {
+			if (i % 10 != 0) {
+				loaded.remove(i);
+				all.remove(i);
+			} // if
+		} // for
+		errors += loaded.checkTree() + checkRanks(loaded, all, rand);
+		if (!new ArrayList<>(loaded.entrySet()).equals(new ArrayList<>(all.entrySet()))) errors++;
+		loaded.subMap(100, 200).remove(150);
+		if (loaded.containsKey(150) || loaded.size() != all.size() - 1) errors++;
+		return errors;
+	} // randomCheck
+
+	/***************************************************************************
+	 * Check the order statistics of the B+Tree against the same keys in a
+	 * TreeMap: rank, keyAt and cursor (position) at random positions, and count
+	 * and subMap size over random ranges with random bound inclusiveness.
+	 * 
+	 * @param bpt
+	 *            the B+Tree to check
+	 * @param tm
+	 *            the TreeMap holding the same entries
+	 * @param rand
+	 *            the source of random keys and positions
+	 * @return the number of disagreements found
+	 */
+	private static int checkRanks(BpTreeMap<Integer, Integer> bpt, TreeMap<Integer, Integer> tm, Random rand) {
+		List<Integer> keys = new ArrayList<>(tm.keySet());
+		int span = tm.isEmpty() ? 1 : tm.lastKey() + 2, errors = 0;
+		for (int q = 0; q < 200; q++) {
+			int k = rand.nextInt(span + 2) - 1;
+			if (bpt.rank(k) != tm.headMap(k).size()) errors++;
+			if (!keys.isEmpty()) {
+				int pos = rand.nextInt(keys.size());
+				if (!bpt.keyAt(pos).equals(keys.get(pos))) errors++;
+				Iterator<Map.Entry<Integer, Integer>> it = bpt.cursor(pos);
+				for (int j = pos; j < Math.min(pos + 5, keys.size()); j++) {
+					if (!it.hasNext() || !it.next().getKey().equals(keys.get(j))) errors++;
+				} // for
+			} // if
+			int lo = rand.nextInt(span), hi = lo + rand.nextInt(span / 4 + 1);
+			boolean loIncl = rand.nextBoolean(), hiIncl = rand.nextBoolean();
+			if (bpt.count(lo, loIncl, hi, hiIncl) != tm.subMap(lo, loIncl, hi, hiIncl).size()) errors++;
+			if (bpt.subMap(lo, hi).size() != tm.subMap(lo, hi).size()) errors++;
+		} // for
+		if (bpt.cursor(keys.size()).hasNext()) errors++;
+		return errors;
+	} // checkRanks
+
+	/***************************************************************************
+	 * Check the structure of the B+Tree: keys ascend within each node and lie
+	 * between the separators above them, every node but the root holds at least
+	 * (order - 1) / 2 keys, all leaves are at the same depth, the leaf chain
+	 * holds size keys, and the subtree counts of internal nodes are exact.
+	 * 
+	 * @return the number of errors found
+	 */
+	private int checkTree() {
+		int[] state = { 0, -1 }; // errors and leaf depth
+		if (checkNode(root, true, null, null, 0, state) != size) state[0]++;
+		int chained = 0;
+		Node n = root;
+		while (!n.isLeaf) n = (Node) n.ref[0];
+		for (; n != null; n = n.right) chained += n.nKeys;
+		if (chained != size) state[0]++;
+		return state[0];
+	} // checkTree
+
+	/***************************************************************************
+	 * Check the subtree rooted at node n (see checkTree).
+	 * 
+	 * @param n
+	 *            the root of the subtree
+	 * @param isRoot
+	 *            whether n is the root of the tree
+	 * @param lo
+	 *            the separator bounding its keys from below (or null)
+	 * @param hi
+	 *            the separator bounding its keys from above (or null)
+	 * @param depth
+	 *            the depth of n
+	 * @param state
+	 *            the number of errors so far and the depth of the leaves (or -1)
+	 * @return the number of keys in the subtree
+	 */
+	private int checkNode(Node n, boolean isRoot, K lo, K hi, int depth, int[] state) {
+		if (!isRoot && n.nKeys < (order - 1) / 2) state[0]++;
+		for (int i = 0; i < n.nKeys; i++) {
+			if (lo != null && n.key[i].compareTo(lo) < 0 || hi != null && n.key[i].compareTo(hi) >= 0) state[0]++;
+			if (i > 0 && n.key[i].compareTo(n.key[i - 1]) <= 0) state[0]++;
+		} // for
+		if (n.isLeaf) {
+			if (state[1] < 0) state[1] = depth;
+			else if (state[1] != depth) state[0]++;
+			return n.nKeys;
+		} // if
+		int keys = 0;
+		for (int i = 0; i <= n.nKeys; i++) {
+			int under = checkNode((Node) n.ref[i], false, i == 0 ? lo : n.key[i - 1], i == n.nKeys ? hi : n.key[i], depth + 1, state);
+			if (n.cnt[i] != under) state[0]++;
+			keys += under;
+		} // for
+		for (int i = n.nKeys + 1; i < n.cnt.length; i++) {
+			if (n.cnt[i] != 0) state[0]++;
+		} // for
+		return keys;
+	} // checkNode
+
 } // BpTree class
@@ -0,0 +1,402 @@
+/****************************************************************************************
+ * @file  BufferPool.java
+ *
+ * @author   John Miller
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/****************************************************************************************
+ * This class implements a buffer pool: a fixed number of page frames caching the data
+ * pages of a table file (see PageFile).  A page must be pinned while it is used and
+ * unpinned afterwards; only unpinned pages may be evicted to make room for another.
+ * Pages modified while pinned are marked dirty and are written back when they are
+ * evicted or flushed.  Which unpinned page is evicted is decided by a pluggable
+ * Replacer (LRU, Clock or LRU-K).  The pool counts hits, misses and evictions.
+ */
+class BufferPool
+{
+    /************************************************************************************
+     * The eviction policies available for choosing the page to replace.
+     */
+    enum Policy
+    {
+        LRU, CLOCK, LRU_K;
+
+        /********************************************************************************
+         * Make a replacer implementing this policy for the given number of frames.
+         *
+         * @param frames  the number of frames
+         * @return  the replacer
+         */
+        Replacer replacer (int frames)
+        {
+            switch (this) {
+            case LRU:   return new LRU ();
+            case CLOCK: return new Clock (frames);
+            default:    return new LRUK (frames, 2);
+            } // switch
+        } // replacer
+    } // Policy enum
+
+    /************************************************************************************
+     * A replacer tracks the frames and chooses the victim when a page must be evicted.
+     */
+    interface Replacer
+    {
+        /** Record that the page in the frame was accessed (pinned).
+         *  @param frame  the frame
+         */
+        void access (int frame);
+
+        /** Record whether the frame may be evicted (i.e., whether its page is unpinned).
+         *  @param frame      the frame
+         *  @param evictable  whether the frame may be evicted
+         */
+        void evictable (int frame, boolean evictable);
+
+        /** Choose an evictable frame to reuse.
+         *  @return  the victim frame, or -1 if every frame is pinned
+         */
+        int victim ();
+
+        /** Record that a new page was brought into the frame (forgetting the old one).
+         *  @param frame  the frame
+         */
+        default void load (int frame) { }
+    } // Replacer interface
+
+    /************************************************************************************
+     * Least Recently Used: evict the unpinned page whose last use is oldest.
+     */
+    static class LRU
+           implements Replacer
+    {
+        /** The evictable frames, least recently used first.
+         */
+        private final LinkedHashSet <Integer> order = new LinkedHashSet <> ();
+
+        public void access (int frame) { order.remove (frame); }
+
+        public void evictable (int frame, boolean evictable)
+        {
+            order.remove (frame);
+            if (evictable) order.add (frame);
+        } // evictable
+
+        public int victim ()
+        {
+            Iterator <Integer> it = order.iterator ();
+            if (! it.hasNext ()) return -1;
+            int frame = it.next ();
+            it.remove ();
+            return frame;
+        } // victim
+    } // LRU class
+
+    /************************************************************************************
+     * Clock (second chance): sweep the frames circularly, clearing reference bits,
+     * and evict the first unpinned page whose bit is already clear.
+     */
+    static class Clock
+           implements Replacer
+    {
+        private final boolean [] ref;
+        private final boolean [] free;
+        private int hand = 0;
+
+        Clock (int frames)
+        {
+            ref  = new boolean [frames];
+            free = new boolean [frames];
+        } // constructor
+
+        public void access (int frame) { ref [frame] = true; }
+
+        public void evictable (int frame, boolean evictable) { free [frame] = evictable; }
+
+        public int victim ()
+        {
+            for (int i = 0; i < 2 * ref.length; i++) {
+                int frame = hand;
+                hand = (hand + 1) % ref.length;
+                if (! free [frame]) continue;
+                if (ref [frame]) {
+                    ref [frame] = false;
+                } else {
+                    free [frame] = false;
+                    return frame;
+                } // if
+            } // for
+            return -1;
+        } // victim
+    } // Clock class
+
+    /************************************************************************************
+     * LRU-K: evict the unpinned page whose K-th most recent use is oldest (largest
+     * backward K-distance).  Pages used fewer than K times have an infinite distance
+     * and go first, oldest first, so a single scan cannot flush out frequently used
+     * pages.  Consecutive accesses to the same page (e.g., a scan reading its tuples
+     * one by one) are correlated and count as one use.
+     */
+    static class LRUK
+           implements Replacer
+    {
+        private final int k;
+        private final long [][] history;
+        private final int [] uses;
+        private final boolean [] free;
+        private long time = 0;
+        private int last = -1;
+
+        LRUK (int frames, int _k)
+        {
+            k       = _k;
+            history = new long [frames][k];
+            uses    = new int [frames];
+            free    = new boolean [frames];
+        } // constructor
+
+        public void access (int frame)
+        {
+            if (frame == last && uses [frame] > 0) {
+                history [frame][(uses [frame] - 1) % k] = ++time;         // correlated: same use
+            } else {
+                history [frame][uses [frame] % k] = ++time;
+                uses [frame]++;
+                last = frame;
+            } // if
+        } // access
+
+        public void evictable (int frame, boolean evictable) { free [frame] = evictable; }
+
+        public void load (int frame)
+        {
+            uses [frame] = 0;
+            if (frame == last) last = -1;
+        } // load
+
+        public int victim ()
+        {
+            int  best = -1;
+            long bestKey = Long.MAX_VALUE;
+            for (int frame = 0; frame < free.length; frame++) {
+                if (! free [frame]) continue;
+                long key = (uses [frame] < k) ? Long.MIN_VALUE + history [frame][0]        // < K uses: oldest first
+                                              : history [frame][uses [frame] % k];         // K-th most recent use
+                if (key < bestKey) { best = frame; bestKey = key; }
+            } // for
+            if (best >= 0) free [best] = false;
+            return best;
+        } // victim
+    } // LRUK class
+
+    /** The file whose pages are cached.
+     */
+    private final PageFile file;
+
+    /** The page frames.
+     */
+    private final ByteBuffer [] frame;
+
+    /** The page held in each frame (-1 if none).
+     */
+    private final int [] page;
+
+    /** The pin count of each frame.
+     */
+    private final int [] pins;
+
+    /** Whether each frame's page has been modified since it was read.
+     */
+    private final boolean [] dirty;
+
+    /** Where each cached page is held (maps page number to frame).
+     */
+    private final Map <Integer, Integer> table = new HashMap <> ();
+
+    /** The frames that have never held a page.
+     */
+    private final Deque <Integer> unused = new ArrayDeque <> ();
+
+    /** The policy choosing the page to evict.
+     */
+    private final Replacer replacer;
+
+    /** The number of pins satisfied from the pool, read from disk, and the number of
+     *  pages evicted.
+     */
+    private long hits, misses, evictions;
+
+    /************************************************************************************
+     * Construct a buffer pool of the given number of frames over a table file.
+     *
+     * @param _file    the table file
+     * @param frames   the number of page frames
+     * @param policy   the eviction policy
+     */
+    BufferPool (PageFile _file, int frames, Policy policy)
+    {
+        file     = _file;
+        frame    = new ByteBuffer [frames];
+        page     = new int [frames];
+        pins     = new int [frames];
+        dirty    = new boolean [frames];
+        replacer = policy.replacer (frames);
+        for (int f = 0; f < frames; f++) {
+            frame [f] = ByteBuffer.allocateDirect (file.pageSize);
+            page [f]  = -1;
+            unused.add (f);
+        } // for
+    } // constructor
+
+    /************************************************************************************
+     * Pin data page p, reading it into a frame if it is not cached.  If every frame
+     * is pinned, wait until another thread unpins one.
+     *
+     * @param p  the data page number
+     * @return  the frame holding the page (valid until the page is unpinned)
+     * @throws IOException  if the page cannot be read
+     */
+    synchronized ByteBuffer pin (int p)
+                 throws IOException
+    {
+        Integer f = table.get (p);
+        if (f != null) {
+            hits++;
+        } else {
+            int free = freeFrame ();
+            f = table.get (p);                        // another thread may have read p meanwhile
+            if (f != null) {
+                unused.add (free);
+                hits++;
+            } else {
+                misses++;
+                f = free;
+                assign (f, p);
+                file.read (p, frame [f]);
+            } // if
+        } // if
+        if (pins [f]++ == 0) replacer.evictable (f, false);
+        replacer.access (f);
+        return frame [f];
+    } // pin
+
+    /************************************************************************************
+     * Add a new, empty data page to the file and pin it (it is dirty from the start).
+     * The new page's number is the file's last, pages () - 1.
+     *
+     * @return  the frame holding the new page
+     * @throws IOException  if writing back an evicted page fails
+     */
+    synchronized ByteBuffer pinNew ()
+                 throws IOException
+    {
+        int f = freeFrame ();
+        assign (f, file.newPage ());
+        PageFile.format (frame [f]);
+        dirty [f] = true;
+        pins [f]  = 1;
+        replacer.access (f);
+        return frame [f];
+    } // pinNew
+
+    /************************************************************************************
+     * Unpin data page p, marking it dirty if it was modified.
+     *
+     * @param p         the data page number
+     * @param modified  whether the page was modified while pinned
+     */
+    synchronized void unpin (int p, boolean modified)
+    {
+        Integer f = table.get (p);
+        if (f == null || pins [f] == 0) throw new IllegalStateException ("unpin: page " + p + " is not pinned");
+        if (modified) dirty [f] = true;
+        if (--pins [f] == 0) {
+            replacer.evictable (f, true);
+            notifyAll ();
+        } // if
+    } // unpin
+
+    /************************************************************************************
+     * Write every dirty page back to the file.
+     *
+     * @throws IOException  if writing fails
+     */
+    synchronized void flush ()
+                 throws IOException
+    {
+        for (int f = 0; f < frame.length; f++) {
+            if (dirty [f]) {
+                file.write (page [f], frame [f]);
+                dirty [f] = false;
+            } // if
+        } // for
+    } // flush
+
+    /** Return the number of pins satisfied from the pool.  @return  the hits */
+    synchronized long hits ()      { return hits; }
+
+    /** Return the number of pins that read the page from disk.  @return  the misses */
+    synchronized long misses ()    { return misses; }
+
+    /** Return the number of pages evicted.  @return  the evictions */
+    synchronized long evictions () { return evictions; }
+
+    /************************************************************************************
+     * Reset the hit, miss and eviction counters.
+     */
+    synchronized void resetStats ()
+    {
+        hits = misses = evictions = 0;
+    } // resetStats
+
+    /************************************************************************************
+     * Return a frame holding no page: an unused frame if there is one, otherwise the
+     * replacer's victim, whose page is written back first if it is dirty.  If every
+     * frame is pinned, wait until one is unpinned.
+     *
+     * @return  the free frame
+     * @throws IOException  if writing back fails or the wait is interrupted
+     */
+    private int freeFrame ()
+            throws IOException
+    {
+        if (! unused.isEmpty ()) return unused.poll ();
+        int f;
+        while ((f = replacer.victim ()) < 0) {
+            try {
+                wait ();
+            } catch (InterruptedException ex) {
+                Thread.currentThread ().interrupt ();
+                throw new InterruptedIOException ("buffer pool: interrupted waiting for a frame");
+            } // try
+            if (! unused.isEmpty ()) return unused.poll ();
+        } // while
+        evictions++;
+        if (dirty [f]) {
+            file.write (page [f], frame [f]);
+            dirty [f] = false;
+        } // if
+        table.remove (page [f]);
+        page [f] = -1;
+        return f;
+    } // freeFrame
+
+    /************************************************************************************
+     * Record that frame f now holds page p.
+     *
+     * @param f  the frame
+     * @param p  the data page number
+     */
+    private void assign (int f, int p)
+    {
+        page [f] = p;
+        table.put (p, f);
+        replacer.load (f);
+    } // assign
+
+} // BufferPool class
@@ -0,0 +1,176 @@
+/****************************************************************************************
+ * @file  ColumnStore.java
+ *
+ * @author   John Miller
+ */
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/****************************************************************************************
+ * This class provides columnar (decomposed) storage for the tuples of a table.  Each
+ * column is kept in its own primitive array: int [] for Integer, long [] for Long,
+ * double [] for Double, and a UTF-8 byte heap with an offset array for String.  Any
+ * other domain falls back to an Object [] column.  The store presents itself as a
+ * List of tuples, so the relational operators in Table work on it unchanged; a tuple
+ * is only materialized (boxed) when it is retrieved with get.
+ */
+class ColumnStore
+      extends AbstractList <Comparable []>
+      implements RandomAccess, Serializable
+{
+    /** The initial number of rows each column is sized for.
+     */
+    private static final int INIT_ROWS = 16;
+
+    /** The domains (data types) of the columns.
+     */
+    private final Class [] domain;
+
+    /** The column arrays, one per attribute (int [], long [], double [], Strings
+     *  or Object []).
+     */
+    private final Object [] column;
+
+    /** The number of rows stored.
+     */
+    private int nRows = 0;
+
+    /** The capacity (in rows) of the column arrays.
+     */
+    private int capacity = INIT_ROWS;
+
+    /************************************************************************************
+     * This inner class stores a String column as UTF-8 bytes in a single heap, with
+     * the start of row i's bytes at off [i] and its end at off [i+1].
+     */
+    private static class Strings
+            implements Serializable
+    {
+        byte [] heap = new byte [INIT_ROWS * 8];
+        int  [] off  = new int [INIT_ROWS + 1];
+        int     used = 0;
+    } // Strings inner class
+
+    /************************************************************************************
+     * Construct an empty column store for the given domains.
+     *
+     * @param _domain  the domains of the columns
+     */
+    ColumnStore (Class [] _domain)
+    {
+        domain = _domain;
+        column = new Object [domain.length];
+        for (int j = 0; j < domain.length; j++) {
+            if (domain [j] == Integer.class)     column [j] = new int [capacity];
+            else if (domain [j] == Long.class)   column [j] = new long [capacity];
+            else if (domain [j] == Double.class) column [j] = new double [capacity];
+            else if (domain [j] == String.class) column [j] = new Strings ();
+            else                                 column [j] = new Comparable [capacity];
+        } // for
+    } // constructor
+
+    /************************************************************************************
+     * Return the number of rows in the store.
+     *
+     * @return  the number of rows
+     */
+    public int size ()
+    {
+        return nRows;
+    } // size
+
+    /************************************************************************************
+     * Materialize the i-th row as a tuple.
+     *
+     * @param i  the row number
+     * @return  a new tuple holding the row's values
+     */
+    public Comparable [] get (int i)
+    {
+        if (i < 0 || i >= nRows) throw new IndexOutOfBoundsException ("row " + i);
+        Comparable [] tup = new Comparable [column.length];
+        for (int j = 0; j < column.length; j++) tup [j] = get (i, j);
+        return tup;
+    } // get
+
+    /************************************************************************************
+     * Return the value in row i, column j without materializing the whole row.
+     *
+     * @param i  the row number
+     * @param j  the column number
+     * @return  the (boxed) value
+     */
+    Comparable get (int i, int j)
+    {
+        Object col = column [j];
+        if (col instanceof int [])    return ((int []) col) [i];
+        if (col instanceof long [])   return ((long []) col) [i];
+        if (col instanceof double []) return ((double []) col) [i];
+        if (col instanceof Strings) {
+            Strings s = (Strings) col;
+            return new String (s.heap, s.off [i], s.off [i+1] - s.off [i], StandardCharsets.UTF_8);
+        } // if
+        return ((Comparable []) col) [i];
+    } // get
+
+    /************************************************************************************
+     * Append a tuple to the end of the store (only appends are supported).
+     *
+     * @param idx  the position to add at (must equal size ())
+     * @param tup  the tuple to add
+     */
+    public void add (int idx, Comparable [] tup)
+    {
+        if (idx != nRows) throw new UnsupportedOperationException ("ColumnStore only supports appends");
+        if (nRows == capacity) grow ();
+        for (int j = 0; j < column.length; j++) {
+            Object col = column [j];
+            if (col instanceof int [])         ((int []) col) [nRows]    = (Integer) tup [j];
+            else if (col instanceof long [])   ((long []) col) [nRows]   = (Long) tup [j];
+            else if (col instanceof double []) ((double []) col) [nRows] = (Double) tup [j];
+            else if (col instanceof Strings)   append ((Strings) col, (String) tup [j]);
+            else                               ((Comparable []) col) [nRows] = tup [j];
+        } // for
+        nRows++;
+        modCount++;
+    } // add
+
+    /************************************************************************************
+     * Append a string to the byte heap of a String column.
+     *
+     * @param s    the String column
+     * @param str  the string to append
+     */
+    private void append (Strings s, String str)
+    {
+        byte [] b = str.getBytes (StandardCharsets.UTF_8);
+        if (s.used + b.length > s.heap.length) {
+            s.heap = Arrays.copyOf (s.heap, Math.max (2 * s.heap.length, s.used + b.length));
+        } // if
+        System.arraycopy (b, 0, s.heap, s.used, b.length);
+        s.off [nRows]  = s.used;
+        s.used        += b.length;
+        s.off [nRows+1] = s.used;
+    } // append
+
+    /************************************************************************************
+     * Double the capacity of every column.
+     */
+    private void grow ()
+    {
+        capacity *= 2;
+        for (int j = 0; j < column.length; j++) {
+            Object col = column [j];
+            if (col instanceof int [])         column [j] = Arrays.copyOf ((int []) col, capacity);
+            else if (col instanceof long [])   column [j] = Arrays.copyOf ((long []) col, capacity);
+            else if (col instanceof double []) column [j] = Arrays.copyOf ((double []) col, capacity);
+            else if (col instanceof Strings)   ((Strings) col).off = Arrays.copyOf (((Strings) col).off, capacity + 1);
+            else                               column [j] = Arrays.copyOf ((Comparable []) col, capacity);
+        } // for
+    } // grow
+
+} // ColumnStore class
@@ -0,0 +1,838 @@
+/************************************************************************************
+ * @file DiskBpTreeMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static java.lang.System.out;
+import static java.nio.file.StandardOpenOption.*;
+
+/************************************************************************************
+ * This class provides disk-resident B+Tree maps.  Each node is a fixed-size page of
+ * a file that is memory-mapped (in large segments) through a FileChannel, so the
+ * tree lives in the operating system's page cache rather than the Java heap and may
+ * hold more keys than the heap could.  Keys and values are stored in fixed-width
+ * binary form given by a Codec, and the fanout of the nodes follows from the page
+ * size and the key (and value) widths.  Leaves are linked left to right, so range
+ * views (headMap, tailMap, subMap) descend once and then scan along the leaves.
+ *
+ * Page 0 holds the header (page size, key and value widths, root, first leaf and
+ * number of entries); the header is written by flush and close, and a file is only
+ * reopened with codecs of the same widths.
+ */
+public class DiskBpTreeMap <K extends Comparable <K>, V>
+       extends AbstractMap <K, V>
+       implements SortedMap <K, V>, Closeable
+{
+    /** Magic number identifying a B+Tree file ("BPT1").
+     */
+    private static final int MAGIC = 0x42505431;
+
+    /** The default page (node) size in bytes.
+     */
+    static final int PAGE_SIZE = 8192;
+
+    /** The number of bytes mapped at a time.
+     */
+    private static final long SEGMENT = 1L << 26;
+
+    /** Size of a node's header: leaf flag, number of keys and right sibling.
+     */
+    private static final int NODE_HEADER = 8;
+
+    /********************************************************************************
+     * A codec stores values of type T in a fixed number of bytes.
+     */
+    public interface Codec <T>
+    {
+        /** Return the number of bytes each value takes.  @return  the width */
+        int width ();
+
+        /** Store value v at position pos of buffer b.
+         *  @param b    the buffer
+         *  @param pos  the position
+         *  @param v    the value
+         */
+        void put (ByteBuffer b, int pos, T v);
+
+        /** Read the value at position pos of buffer b.
+         *  @param b    the buffer
+         *  @param pos  the position
+         *  @return  the value
+         */
+        T get (ByteBuffer b, int pos);
+    } // Codec interface
+
+    /** Codec for Integer keys or values.
+     */
+    public static final Codec <Integer> INTEGER = new Codec <Integer> () {
+        public int width () { return 4; }
+        public void put (ByteBuffer b, int pos, Integer v) { b.putInt (pos, v); }
+        public Integer get (ByteBuffer b, int pos) { return b.getInt (pos); }
+    }; // INTEGER
+
+    /** Codec for Long keys or values.
+     */
+    public static final Codec <Long> LONG = new Codec <Long> () {
+        public int width () { return 8; }
+        public void put (ByteBuffer b, int pos, Long v) { b.putLong (pos, v); }
+        public Long get (ByteBuffer b, int pos) { return b.getLong (pos); }
+    }; // LONG
+
+    /** Codec for Double keys or values.
+     */
+    public static final Codec <Double> DOUBLE = new Codec <Double> () {
+        public int width () { return 8; }
+        public void put (ByteBuffer b, int pos, Double v) { b.putDouble (pos, v); }
+        public Double get (ByteBuffer b, int pos) { return b.getDouble (pos); }
+    }; // DOUBLE
+
+    /********************************************************************************
+     * Return a codec for strings of up to maxBytes UTF-8 bytes (stored as a length
+     * and the bytes, padded to the full width).
+     *
+     * @param maxBytes  the maximum length in bytes
+     * @return  the string codec
+     */
+    public static Codec <String> string (int maxBytes)
+    {
+        return new Codec <String> () {
+            public int width () { return 2 + maxBytes; }
+            public void put (ByteBuffer b, int pos, String v) { putString (b, pos, v, maxBytes); }
+            public String get (ByteBuffer b, int pos) { return getString (b, pos); }
+        };
+    } // string
+
+    /********************************************************************************
+     * Return a codec for (possibly composite) keys whose parts have the given
+     * domains, with String parts of up to maxBytes UTF-8 bytes.
+     *
+     * @param domain    the domains of the key's parts
+     * @param maxBytes  the maximum length in bytes of a String part
+     * @return  the key codec
+     */
+    public static Codec <KeyType> keyType (Class [] domain, int maxBytes)
+    {
+        int w = 0;
+        for (Class c : domain) w += width (c, maxBytes);
+        int width = w;
+        return new Codec <KeyType> () {
+            public int width () { return width; }
+            public void put (ByteBuffer b, int pos, KeyType k) {
+                for (int j = 0; j < domain.length; j++) {
+                    Comparable v = k.key [j];
+                    Class      c = domain [j];
+                    if (c == Integer.class)        b.putInt (pos, (Integer) v);
+                    else if (c == Long.class)      b.putLong (pos, (Long) v);
+                    else if (c == Double.class)    b.putDouble (pos, (Double) v);
+                    else if (c == Float.class)     b.putFloat (pos, (Float) v);
+                    else if (c == Short.class)     b.putShort (pos, (Short) v);
+                    else if (c == Byte.class)      b.put (pos, (Byte) v);
+                    else if (c == Character.class) b.putChar (pos, (Character) v);
+                    else if (c == Boolean.class)   b.put (pos, (byte) ((Boolean) v ? 1 : 0));
+                    else                           putString (b, pos, (String) v, maxBytes);
+                    pos += DiskBpTreeMap.width (c, maxBytes);
+                } // for
+            } // put
+            public KeyType get (ByteBuffer b, int pos) {
+                Comparable [] k = new Comparable [domain.length];
+                for (int j = 0; j < domain.length; j++) {
+                    Class c = domain [j];
+                    if (c == Integer.class)        k [j] = b.getInt (pos);
+                    else if (c == Long.class)      k [j] = b.getLong (pos);
+                    else if (c == Double.class)    k [j] = b.getDouble (pos);
+                    else if (c == Float.class)     k [j] = b.getFloat (pos);
+                    else if (c == Short.class)     k [j] = b.getShort (pos);
+                    else if (c == Byte.class)      k [j] = b.get (pos);
+                    else if (c == Character.class) k [j] = b.getChar (pos);
+                    else if (c == Boolean.class)   k [j] = b.get (pos) != 0;
+                    else                           k [j] = getString (b, pos);
+                    pos += DiskBpTreeMap.width (c, maxBytes);
+                } // for
+                return new KeyType (k);
+            } // get
+        };
+    } // keyType
+
+    /** The codecs for the keys and values.
+     */
+    private final Codec <K> keys;
+    private final Codec <V> values;
+
+    /** The size of each page (node) in bytes.
+     */
+    private final int pageSize;
+
+    /** The maximum number of keys in a leaf and in an internal node.
+     */
+    private final int leafCap, innerCap;
+
+    /** The number of pages per mapped segment.
+     */
+    private final int pagesPerSegment;
+
+    /** The channel to the file.
+     */
+    private final FileChannel channel;
+
+    /** The mapped segments of the file.
+     */
+    private final List <MappedByteBuffer> segment = new ArrayList <> ();
+
+    /** The root page, the leftmost leaf, the number of pages and the number of entries.
+     */
+    private int root, firstLeaf, nPages, nEntries;
+
+    /** The value replaced by the last put (null if the key was new).
+     */
+    private V replaced;
+
+    /** Counter for the number of nodes accessed (for performance testing).
+     */
+    private long count = 0;
+
+    /********************************************************************************
+     * Construct a disk-resident B+Tree map in the given file with the default page
+     * size, opening the tree already in the file if there is one.
+     *
+     * @param path      the path of the file
+     * @param _keys     the codec for the keys
+     * @param _values   the codec for the values
+     * @throws IOException  if the file cannot be opened or holds an incompatible tree
+     */
+    public DiskBpTreeMap (Path path, Codec <K> _keys, Codec <V> _values)
+           throws IOException
+    {
+        this (path, _keys, _values, PAGE_SIZE);
+    } // constructor
+
+    /********************************************************************************
+     * Construct a disk-resident B+Tree map in the given file with the given page
+     * size, opening the tree already in the file if there is one.
+     *
+     * @param path       the path of the file
+     * @param _keys      the codec for the keys
+     * @param _values    the codec for the values
+     * @param _pageSize  the page (node) size in bytes
+     * @throws IOException  if the file cannot be opened or holds an incompatible tree
+     */
+    public DiskBpTreeMap (Path path, Codec <K> _keys, Codec <V> _values, int _pageSize)
+           throws IOException
+    {
+        keys     = _keys;
+        values   = _values;
+        pageSize = _pageSize;
+        leafCap  = (pageSize - NODE_HEADER) / (keys.width () + values.width ());
+        innerCap = (pageSize - NODE_HEADER - 4) / (keys.width () + 4);
+        if (leafCap < 3 || innerCap < 3) throw new IllegalArgumentException ("DiskBpTreeMap: page too small for keys");
+        pagesPerSegment = (int) (SEGMENT / pageSize);
+
+        if (path.getParent () != null) Files.createDirectories (path.getParent ());
+        channel = FileChannel.open (path, CREATE, READ, WRITE);
+        if (channel.size () > 0) {
+            ByteBuffer h = ByteBuffer.allocate (32);
+            channel.read (h, 0);
+            if (h.getInt (0) != MAGIC || h.getInt (4) != pageSize || h.getInt (8) != keys.width ()
+                                      || h.getInt (28) != values.width ()) {
+                channel.close ();
+                throw new IOException (path + " does not hold a compatible B+Tree");
+            } // if
+            root      = h.getInt (12);
+            firstLeaf = h.getInt (16);
+            nPages    = h.getInt (20);
+            nEntries  = h.getInt (24);
+        } else {
+            nPages    = 1;                                       // page 0 is the header
+            root      = firstLeaf = allocate (true);
+            nEntries  = 0;
+        } // if
+    } // constructor
+
+    /********************************************************************************
+     * Return null to use the natural order based on the key type.
+     */
+    public Comparator <? super K> comparator ()
+    {
+        return null;
+    } // comparator
+
+    /********************************************************************************
+     * Return a set view of the entries, in ascending key order.
+     *
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <K, V>> entrySet ()
+    {
+        return new Range (null, null).entrySet ();
+    } // entrySet
+
+    /********************************************************************************
+     * Return the number of entries in the map.
+     *
+     * @return  the number of entries
+     */
+    public int size ()
+    {
+        return nEntries;
+    } // size
+
+    /********************************************************************************
+     * Given the key, look up the value in the B+Tree map.
+     *
+     * @param key  the key used for look up
+     * @return  the value associated with the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get (Object key)
+    {
+        K   k = (K) key;
+        int p = leafFor (k);
+        int i = lowerBound (p, k);
+        return (i < nKeys (p) && key (p, i).compareTo (k) == 0) ? value (p, i) : null;
+    } // get
+
+    /********************************************************************************
+     * Put the key-value pair in the B+Tree map, replacing the value of an existing
+     * key.
+     *
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for the key, or null if it was absent
+     */
+    public V put (K key, V value)
+    {
+        replaced = null;
+        Split s = insert (root, key, value);
+        if (s != null) {                                         // the root split: grow a level
+            int r = allocate (false);
+            setChild (r, 0, root);
+            keys.put (seg (r), keyPos (r, 0), s.key);
+            setChild (r, 1, s.page);
+            setNKeys (r, 1);
+            root = r;
+        } // if
+        return replaced;
+    } // put
+
+    /********************************************************************************
+     * Return the first (smallest) key in the B+Tree map.
+     *
+     * @return  the first key
+     */
+    public K firstKey ()
+    {
+        if (nEntries == 0) throw new NoSuchElementException ();
+        return key (firstLeaf, 0);
+    } // firstKey
+
+    /********************************************************************************
+     * Return the last (largest) key in the B+Tree map.
+     *
+     * @return  the last key
+     */
+    public K lastKey ()
+    {
+        if (nEntries == 0) throw new NoSuchElementException ();
+        int p = root;
+        while (! isLeaf (p)) p = child (p, nKeys (p));
+        return key (p, nKeys (p) - 1);
+    } // lastKey
+
+    /********************************************************************************
+     * Return a view of the portion of the map where key < toKey.
+     *
+     * @param toKey  the upper bound (exclusive)
+     * @return  the range view
+     */
+    public SortedMap <K, V> headMap (K toKey)
+    {
+        return new Range (null, toKey);
+    } // headMap
+
+    /********************************************************************************
+     * Return a view of the portion of the map where fromKey <= key.
+     *
+     * @param fromKey  the lower bound (inclusive)
+     * @return  the range view
+     */
+    public SortedMap <K, V> tailMap (K fromKey)
+    {
+        return new Range (fromKey, null);
+    } // tailMap
+
+    /********************************************************************************
+     * Return a view of the portion of the map where fromKey <= key < toKey.
+     *
+     * @param fromKey  the lower bound (inclusive)
+     * @param toKey    the upper bound (exclusive)
+     * @return  the range view
+     */
+    public SortedMap <K, V> subMap (K fromKey, K toKey)
+    {
+        return new Range (fromKey, toKey);
+    } // subMap
+
+    /********************************************************************************
+     * Write the header and force the mapped pages to disk.
+     *
+     * @throws IOException  if writing fails
+     */
+    public void flush ()
+           throws IOException
+    {
+        for (MappedByteBuffer m : segment) m.force ();
+        ByteBuffer h = ByteBuffer.allocate (32);
+        h.putInt (MAGIC).putInt (pageSize).putInt (keys.width ()).putInt (root).putInt (firstLeaf)
+         .putInt (nPages).putInt (nEntries).putInt (values.width ()).flip ();
+        channel.write (h, 0);
+        channel.force (true);
+    } // flush
+
+    /********************************************************************************
+     * Flush the tree, trim the file to the pages in use and close it.  The map must
+     * not be used afterwards.
+     *
+     * @throws IOException  if writing fails
+     */
+    public void close ()
+           throws IOException
+    {
+        flush ();
+        segment.clear ();
+        channel.truncate ((long) nPages * pageSize);
+        channel.close ();
+    } // close
+
+    //--------------------------------------------------------------------------------
+    // Range views
+    //--------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * This inner class is a lazy view of the keys in [lo, hi) (a null bound is
+     * unbounded).  Its iterators descend once to the leaf holding lo and then
+     * follow the right sibling links, stopping at hi.
+     */
+    private class Range
+            extends AbstractMap <K, V>
+            implements SortedMap <K, V>
+    {
+        private final K lo, hi;
+
+        Range (K _lo, K _hi) { lo = _lo; hi = _hi; }
+
+        private boolean inRange (K k)
+        {
+            return (lo == null || k.compareTo (lo) >= 0) && (hi == null || k.compareTo (hi) < 0);
+        } // inRange
+
+        public Comparator <? super K> comparator () { return null; }
+
+        @SuppressWarnings("unchecked")
+        public V get (Object key) { return inRange ((K) key) ? DiskBpTreeMap.this.get (key) : null; }
+
+        @SuppressWarnings("unchecked")
+        public boolean containsKey (Object key) { return get (key) != null; }
+
+        public V put (K key, V value)
+        {
+            if (! inRange (key)) throw new IllegalArgumentException ("key out of range");
+            return DiskBpTreeMap.this.put (key, value);
+        } // put
+
+        public Set <Map.Entry <K, V>> entrySet ()
+        {
+            return new AbstractSet <Map.Entry <K, V>> () {
+                public Iterator <Map.Entry <K, V>> iterator () { return new Cursor (lo, hi); }
+                public int size ()
+                {
+                    if (lo == null && hi == null) return nEntries;
+                    int n = 0;
+                    for (Cursor c = new Cursor (lo, hi); c.hasNext (); c.next ()) n++;
+                    return n;
+                } // size
+            };
+        } // entrySet
+
+        public K firstKey ()
+        {
+            Cursor c = new Cursor (lo, hi);
+            if (! c.hasNext ()) throw new NoSuchElementException ();
+            return c.next ().getKey ();
+        } // firstKey
+
+        public K lastKey ()
+        {
+            K last = null;
+            for (Cursor c = new Cursor (lo, hi); c.hasNext (); ) last = c.next ().getKey ();
+            if (last == null) throw new NoSuchElementException ();
+            return last;
+        } // lastKey
+
+        public SortedMap <K, V> subMap (K from, K to) { return new Range (max (lo, from), min (hi, to)); }
+        public SortedMap <K, V> headMap (K to)        { return new Range (lo, min (hi, to)); }
+        public SortedMap <K, V> tailMap (K from)      { return new Range (max (lo, from), hi); }
+    } // Range inner class
+
+    /********************************************************************************
+     * This inner class iterates over the entries with keys in [lo, hi) in ascending
+     * order, walking the leaves left to right.
+     */
+    private class Cursor
+            implements Iterator <Map.Entry <K, V>>
+    {
+        private final K hi;
+        private int leaf, i;
+        private Map.Entry <K, V> next;
+
+        Cursor (K lo, K _hi)
+        {
+            hi = _hi;
+            if (lo == null) { leaf = firstLeaf; i = 0; }
+            else            { leaf = leafFor (lo); i = lowerBound (leaf, lo); }
+            advance ();
+        } // constructor
+
+        private void advance ()
+        {
+            while (leaf != 0 && i >= nKeys (leaf)) { leaf = right (leaf); i = 0; }
+            next = null;
+            if (leaf == 0) return;
+            K k = key (leaf, i);
+            if (hi != null && k.compareTo (hi) >= 0) { leaf = 0; return; }
+            next = new AbstractMap.SimpleImmutableEntry <> (k, value (leaf, i));
+        } // advance
+
+        public boolean hasNext () { return next != null; }
+
+        public Map.Entry <K, V> next ()
+        {
+            if (next == null) throw new NoSuchElementException ();
+            Map.Entry <K, V> e = next;
+            i++;
+            advance ();
+            return e;
+        } // next
+    } // Cursor inner class
+
+    //--------------------------------------------------------------------------------
+    // Tree operations
+    //--------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * This inner class describes a split: the separator key to insert into the
+     * parent and the new right node.
+     */
+    private class Split
+    {
+        final K   key;
+        final int page;
+        Split (K _key, int _page) { key = _key; page = _page; }
+    } // Split inner class
+
+    /********************************************************************************
+     * Recursive helper function for inserting a key into the subtree rooted at
+     * page p.
+     *
+     * @param p      the root of the subtree
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the split of p if it overflowed, otherwise null
+     */
+    private Split insert (int p, K key, V value)
+    {
+        count++;
+        if (isLeaf (p)) {
+            int i = lowerBound (p, key);
+            if (i < nKeys (p) && key (p, i).compareTo (key) == 0) {
+                replaced = value (p, i);
+                values.put (seg (p), valuePos (p, i), value);
+                return null;
+            } // if
+            nEntries++;
+            if (nKeys (p) < leafCap) {
+                wedgeLeaf (p, i, key, value);
+                return null;
+            } // if
+            int q = splitLeaf (p);
+            if (i <= nKeys (p)) wedgeLeaf (p, i, key, value);
+            else                wedgeLeaf (q, i - nKeys (p), key, value);
+            return new Split (key (q, 0), q);
+        } // if
+
+        int   i = upperBound (p, key);
+        Split s = insert (child (p, i), key, value);
+        if (s == null) return null;
+        if (nKeys (p) < innerCap) {
+            wedgeInner (p, i, s.key, s.page);
+            return null;
+        } // if
+        int mid = nKeys (p) / 2;
+        K   up  = key (p, mid);
+        int q   = splitInner (p, mid);
+        if (s.key.compareTo (up) < 0) wedgeInner (p, upperBound (p, s.key), s.key, s.page);
+        else                          wedgeInner (q, upperBound (q, s.key), s.key, s.page);
+        return new Split (up, q);
+    } // insert
+
+    /********************************************************************************
+     * Move the upper half of full leaf p into a new leaf, linked in after p.
+     *
+     * @param p  the leaf to split
+     * @return  the new leaf
+     */
+    private int splitLeaf (int p)
+    {
+        int q    = allocate (true);
+        int n    = nKeys (p);
+        int keep = (n + 1) / 2;
+        copy (p, keyPos (p, keep), q, keyPos (q, 0), (n - keep) * keys.width ());
+        copy (p, valuePos (p, keep), q, valuePos (q, 0), (n - keep) * values.width ());
+        setNKeys (q, n - keep);
+        setNKeys (p, keep);
+        setRight (q, right (p));
+        setRight (p, q);
+        return q;
+    } // splitLeaf
+
+    /********************************************************************************
+     * Split full internal node p around key mid: keys after mid (and their children)
+     * move to a new node, and key mid is removed (it moves up to the parent).
+     *
+     * @param p    the node to split
+     * @param mid  the position of the key moving up
+     * @return  the new node
+     */
+    private int splitInner (int p, int mid)
+    {
+        int q = allocate (false);
+        int n = nKeys (p);
+        copy (p, keyPos (p, mid + 1), q, keyPos (q, 0), (n - mid - 1) * keys.width ());
+        copy (p, childPos (p, mid + 1), q, childPos (q, 0), (n - mid) * 4);
+        setNKeys (q, n - mid - 1);
+        setNKeys (p, mid);
+        return q;
+    } // splitInner
+
+    /********************************************************************************
+     * Insert a key-value pair at position i of leaf p (which has room).
+     */
+    private void wedgeLeaf (int p, int i, K key, V value)
+    {
+        int n = nKeys (p);
+        move (p, keyPos (p, i), keyPos (p, i + 1), (n - i) * keys.width ());
+        move (p, valuePos (p, i), valuePos (p, i + 1), (n - i) * values.width ());
+        keys.put (seg (p), keyPos (p, i), key);
+        values.put (seg (p), valuePos (p, i), value);
+        setNKeys (p, n + 1);
+    } // wedgeLeaf
+
+    /********************************************************************************
+     * Insert a separator key at position i of internal node p (which has room), with
+     * the new child to its right.
+     */
+    private void wedgeInner (int p, int i, K key, int page)
+    {
+        int n = nKeys (p);
+        move (p, keyPos (p, i), keyPos (p, i + 1), (n - i) * keys.width ());
+        move (p, childPos (p, i + 1), childPos (p, i + 2), (n - i) * 4);
+        keys.put (seg (p), keyPos (p, i), key);
+        setChild (p, i + 1, page);
+        setNKeys (p, n + 1);
+    } // wedgeInner
+
+    /********************************************************************************
+     * Descend from the root to the leaf that would hold the key.
+     *
+     * @param key  the key
+     * @return  the leaf page
+     */
+    private int leafFor (K key)
+    {
+        int p = root;
+        count++;
+        while (! isLeaf (p)) {
+            p = child (p, upperBound (p, key));
+            count++;
+        } // while
+        return p;
+    } // leafFor
+
+    /********************************************************************************
+     * Return the position of the first key in node p that is >= key (binary search).
+     */
+    private int lowerBound (int p, K key)
+    {
+        int lo = 0, hi = nKeys (p);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key (p, mid).compareTo (key) < 0) lo = mid + 1;
+            else                                 hi = mid;
+        } // while
+        return lo;
+    } // lowerBound
+
+    /********************************************************************************
+     * Return the position of the first key in node p that is > key (binary search),
+     * which is also the child of an internal node to descend into.
+     */
+    private int upperBound (int p, K key)
+    {
+        int lo = 0, hi = nKeys (p);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key (p, mid).compareTo (key) <= 0) lo = mid + 1;
+            else                                  hi = mid;
+        } // while
+        return lo;
+    } // upperBound
+
+    //--------------------------------------------------------------------------------
+    // Page layout
+    //--------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * Allocate a new, empty node.
+     *
+     * @param leaf  whether the node is a leaf
+     * @return  its page number
+     */
+    private int allocate (boolean leaf)
+    {
+        int p = nPages++;
+        ByteBuffer b = seg (p);
+        int base = base (p);
+        b.put (base, (byte) (leaf ? 1 : 0));
+        b.putShort (base + 2, (short) 0);
+        b.putInt (base + 4, 0);
+        return p;
+    } // allocate
+
+    /** Return the mapped segment holding page p (mapping more of the file if needed). */
+    private ByteBuffer seg (int p)
+    {
+        int s = p / pagesPerSegment;
+        try {
+            while (segment.size () <= s) {
+                segment.add (channel.map (FileChannel.MapMode.READ_WRITE, segment.size () * SEGMENT, SEGMENT));
+            } // while
+        } catch (IOException ex) {
+            throw new UncheckedIOException (ex);
+        } // try
+        return segment.get (s);
+    } // seg
+
+    /** Return the offset of page p within its segment. */
+    private int base (int p)                { return (p % pagesPerSegment) * pageSize; }
+
+    private boolean isLeaf (int p)          { return seg (p).get (base (p)) == 1; }
+    private int nKeys (int p)               { return seg (p).getShort (base (p) + 2); }
+    private void setNKeys (int p, int n)    { seg (p).putShort (base (p) + 2, (short) n); }
+    private int right (int p)               { return seg (p).getInt (base (p) + 4); }
+    private void setRight (int p, int q)    { seg (p).putInt (base (p) + 4, q); }
+    private int keyPos (int p, int i)       { return base (p) + NODE_HEADER + i * keys.width (); }
+    private int valuePos (int p, int i)     { return base (p) + NODE_HEADER + leafCap * keys.width () + i * values.width (); }
+    private int childPos (int p, int i)     { return base (p) + NODE_HEADER + innerCap * keys.width () + i * 4; }
+    private K key (int p, int i)            { return keys.get (seg (p), keyPos (p, i)); }
+    private V value (int p, int i)          { return values.get (seg (p), valuePos (p, i)); }
+    private int child (int p, int i)        { return seg (p).getInt (childPos (p, i)); }
+    private void setChild (int p, int i, int q) { seg (p).putInt (childPos (p, i), q); }
+
+    /********************************************************************************
+     * Move len bytes within page p (the ranges may overlap).
+     */
+    private void move (int p, int from, int to, int len)
+    {
+        copy (p, from, p, to, len);
+    } // move
+
+    /********************************************************************************
+     * Copy len bytes from position from of page p's segment to position to of page
+     * q's segment.
+     */
+    private void copy (int p, int from, int q, int to, int len)
+    {
+        if (len <= 0) return;
+        byte [] tmp = new byte [len];
+        ByteBuffer src = seg (p).duplicate ();
+        src.position (from);
+        src.get (tmp);
+        ByteBuffer dst = seg (q).duplicate ();
+        dst.position (to);
+        dst.put (tmp);
+    } // copy
+
+    //--------------------------------------------------------------------------------
+    // Helpers
+    //--------------------------------------------------------------------------------
+
+    /** Return the width in bytes of a value of domain c (String parts of up to maxBytes). */
+    private static int width (Class c, int maxBytes)
+    {
+        if (c == Integer.class || c == Float.class)        return 4;
+        if (c == Long.class || c == Double.class)          return 8;
+        if (c == Short.class || c == Character.class)      return 2;
+        if (c == Byte.class || c == Boolean.class)         return 1;
+        if (c == String.class)                             return 2 + maxBytes;
+        throw new IllegalArgumentException ("DiskBpTreeMap: unsupported domain " + c);
+    } // width
+
+    /** Store a string of up to maxBytes UTF-8 bytes at position pos. */
+    private static void putString (ByteBuffer b, int pos, String s, int maxBytes)
+    {
+        byte [] bytes = s.getBytes (StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) throw new IllegalArgumentException ("DiskBpTreeMap: key too long: " + s);
+        b.putShort (pos, (short) bytes.length);
+        ByteBuffer d = b.duplicate ();
+        d.position (pos + 2);
+        d.put (bytes);
+    } // putString
+
+    /** Read a string stored by putString at position pos. */
+    private static String getString (ByteBuffer b, int pos)
+    {
+        byte [] bytes = new byte [b.getShort (pos)];
+        ByteBuffer d = b.duplicate ();
+        d.position (pos + 2);
+        d.get (bytes);
+        return new String (bytes, StandardCharsets.UTF_8);
+    } // getString
+
+    /** Return the larger of two lower bounds (null is unbounded). */
+    private K max (K a, K b) { return (a == null) ? b : (b == null || a.compareTo (b) >= 0) ? a : b; }
+
+    /** Return the smaller of two upper bounds (null is unbounded). */
+    private K min (K a, K b) { return (a == null) ? b : (b == null || a.compareTo (b) <= 0) ? a : b; }
+
+    /********************************************************************************
+     * The main method used for testing.
+     * @param  the command-line arguments (args [0] gives number of keys to insert)
+     */
+    public static void main (String [] args) throws IOException
+    {
+        int  nKeys = (args.length == 1) ? Integer.valueOf (args [0]) : 100000;
+        Path path  = Files.createTempFile ("bptree", ".idx");
+        DiskBpTreeMap <Integer, Integer> bpt = new DiskBpTreeMap <> (path, INTEGER, INTEGER);
+        Random rand = new Random (1);
+        for (int i = 0; i < nKeys; i++) { int k = rand.nextInt (nKeys); bpt.put (k, k * 2); }
+        bpt.close ();
+
+        bpt = new DiskBpTreeMap <> (path, INTEGER, INTEGER);               // reopen
+        int found = 0;
+        for (int i = 0; i < nKeys; i++) if (bpt.get (i) != null && bpt.get (i) == 2 * i) found++;
+        out.println ("keys = " + bpt.size () + ", found = " + found + ", pages = " + bpt.nPages
+                     + ", leaf fanout = " + bpt.leafCap + ", internal fanout = " + (bpt.innerCap + 1));
+        out.println ("subMap (100, 120) = " + bpt.subMap (100, 120).keySet ());
+        out.println ("Average number of nodes accessed = " + bpt.count / (double) nKeys);
+        bpt.close ();
+        Files.delete (path);
+    } // main
+
+} // DiskBpTreeMap class
@@ -52,19 +52,6 @@ public class ExtHashMap <K, V>
             key   = (K []) Array.newInstance (classK, SLOTS+1);
             value = (V []) Array.newInstance (classV, SLOTS+1);
         } // constructor
-        
-        //method for cloning buckets. Used in set 
-        public void setEqual(Bucket aBucket){
-        	key   = (K []) Array.newInstance (classK, SLOTS+1);
-            value = (V []) Array.newInstance (classV, SLOTS+1);
-            
-        	nKeys = aBucket.nKeys;
-        	localDepth = aBucket.localDepth;
-        	for(int x = 0;x<aBucket.nKeys;x++){
-        		key[x] = aBucket.key[x];
-        		value[x] = aBucket.value[x];
-        	}
-        }
     } // Bucket inner class
 
     /** The hash table storing the buckets (buckets in physical order)
@@ -105,9 +92,23 @@ public class ExtHashMap <K, V>
         classV = _classV;
         hTable = new ArrayList <> ();   // for bucket storage
         dir    = new ArrayList <> ();   // for bucket access
-        mod    = nBuckets = initSize;
-        
+        init (initSize);
+    } // constructor
+
+    /********************************************************************************
+     * Set up an empty directory of the given number of buckets, each referenced by
+     * one directory entry.
+     * @param size  the number of buckets (a power of 2)
+     */
+    private void init (int size)
+    {
+        hTable.clear ();
+        dir.clear ();
+        mod = nBuckets = size;
+        currentB = 1;
+
         //calculate global depth
+        globalDepth = 0;
         int i = nBuckets;
         while(i >1){
         	i = i/2;
@@ -123,7 +124,24 @@ public class ExtHashMap <K, V>
         	dir.add(b);
         	hTable.add(b);
         }
-    } // constructor
+    } // init
+
+    /********************************************************************************
+     * Presize the directory for about n keys (filling buckets to three quarters of
+     * SLOTS), so that loading them causes few bucket splits and directory doublings.
+     * Any keys already present are rehashed into the larger directory.
+     * @param n  the expected number of keys
+     */
+    public void ensureCapacity (int n)
+    {
+        int size = 1;
+        while (size * SLOTS * 3 < n * 4L) size *= 2;
+        if (size <= mod) return;
+
+        List <Map.Entry <K, V>> old = new ArrayList <> (entrySet ());
+        init (size);
+        for (Map.Entry <K, V> e : old) put (e.getKey (), e.getValue ());
+    } // ensureCapacity
 
     /********************************************************************************
      * Return a set containing all the entries as pairs of keys and values.
@@ -131,24 +149,19 @@ public class ExtHashMap <K, V>
      */
     public Set <Map.Entry <K, V>> entrySet ()
     {
-        Set <Map.Entry <K, V>> enSet = new HashSet <> ();
+        List <Map.Entry <K, V>> enSet = new ArrayList <> ();
 
-        //  T O   B E   I M P L E M E N T E D
-        List<K> a=new ArrayList();
-        List<V> b=new ArrayList();
         for(int i=0;i<hTable.size();i++){
-        	for(int j=0;j<hTable.get(i).nKeys;j++){
-        		a.add(hTable.get(i).key[j]);
-        		b.add(hTable.get(i).value[j]);
+        	Bucket b=hTable.get(i);
+        	for(int j=0;j<b.nKeys;j++){
+        		enSet.add(new AbstractMap.SimpleEntry <> (b.key[j], b.value[j]));
         	}
         }
-        Map<K,V> m=new HashMap<K,V>();
-        for(int i=0;i<a.size();i++){
-        	m.put(a.get(i), b.get(i));
-        }
-        enSet.add((java.util.Map.Entry<K, V>) m);
             
-        return enSet;
+        return new AbstractSet <Map.Entry <K, V>> () {
+            public Iterator <Map.Entry <K, V>> iterator () { return enSet.iterator (); }
+            public int size () { return enSet.size (); }
+        };
     } // entrySet
 
     /********************************************************************************
@@ -158,181 +171,102 @@ public class ExtHashMap <K, V>
      */
     public V get (Object key)
     {
-        int    i = h (key);
-        Bucket b = dir.get (i);
-        //If the directory we get is empty, we want to use a weaker mod until we find a full one
-        int origMod = mod; 
-        while(b.nKeys == 0 && mod != 1){
-        	mod = mod/2;
-        	//System.out.println(""+mod + " " + b.nKeys);
-        	b = dir.get(h(key));
-        }
-        mod = origMod;
-        //  T O   B E   I M P L E M E N T E D
-        for(int t=0;t<b.nKeys;t++){
-        	if(b.key[t].equals(key))
-        		return b.value[t];
-        }
-
+        Bucket b = dir.get (h (key));
+        count++;
+        for (int t = 0; t < b.nKeys; t++) {
+            if (b.key [t].equals (key)) return b.value [t];
+        } // for
         return null;
     } // get
 
     /********************************************************************************
-     * Put the key-value pair in the hash table.
+     * Put the key-value pair in the hash table.  An existing key has its value
+     * replaced.
      * @param key    the key to insert
      * @param value  the value to insert
-     * @return  null (not the previous value)
+     * @return  the previous value for the key, or null if it was absent
      */
     public V put (K key, V value)
     {
-    	//System.out.println("adding " +key + " to " + b.nKeys);
-        int    i = h (key);
-        Bucket b = dir.get (i);
-        //System.out.println("adding " +key + " to " + b.nKeys);
-        //  T O   B E   I M P L E M E N T E D
-        b.key[b.nKeys] = key;
-        b.value[b.nKeys] = value;
-        b.nKeys +=1;
-        //if after insertion, nkeys is slots+1, we need to split the bucket
-        //note that nkeys should never be greater than, but we'll check just in case
-        if(b.nKeys >= SLOTS +1){
-        	splitBucket(b, i);
-        }
-        //System.out.println(""+mod);
-        
+        Bucket b = dir.get (h (key));
+        for (int t = 0; t < b.nKeys; t++) {
+            if (b.key [t].equals (key)) {
+                V old = b.value [t];
+                b.value [t] = value;
+                return old;
+            } // if
+        } // for
+        if (b.nKeys == b.key.length) grow (b);
+        b.key [b.nKeys]   = key;
+        b.value [b.nKeys] = value;
+        b.nKeys++;
+        if (b.nKeys > SLOTS) splitBucket (b);
         return null;
     } // put
-    
-    //where I is the computed i in put
-    public void splitBucket(Bucket b, int i){
-    	//System.out.println("here");
-    	//Split the keys between new buckets
-    	//if the global depth == the localdepth, we have to double the size
-    	//System.out.println("" + globalDepth + "  " + b.localDepth);
-    	if(globalDepth <= b.localDepth){
-    		//System.out.println("here2");
-    		globalDepth +=1;
-    		b.localDepth +=1;
-    		Bucket b2 = new Bucket();
-    		for(int startingPoint = mod;startingPoint<mod*2;startingPoint++){
-            	dir.add(new Bucket());
-    			//dir.add(null);
-            	if(h(startingPoint) != i){
-            		dir.set(startingPoint, dir.get(h(startingPoint)));
-            		//System.out.println("here3");
-            	}
-            	//Otherwise this is the bucket we want to split with
-            	else{
-            		mod = mod*2;
-            		//System.out.println("here4");
-            		//Bucket b2 = new Bucket();
-                	Bucket newB = new Bucket();
-                	newB.localDepth = b.localDepth;
-                	b2.localDepth = globalDepth;
-                	b2.nKeys = 0;
-                	newB.nKeys = 0;
-                	for(int num = 0;num <b.nKeys;num++){
-                		//if(h(b.key[num])>=mod/2){
-                		if((int)((b.key[num].hashCode() & 1<<(b.localDepth-1))) !=0){
-                			b2.key[b2.nKeys]=b.key[num];
-                			b2.value[b2.nKeys]=b.value[num];
-                			b2.nKeys +=1;
-                			//System.out.println("here5");
-                		}
-                		else{
-                			//System.out.println("here7");
-                			newB.key[newB.nKeys]=b.key[num];
-                			newB.value[newB.nKeys]=b.value[num];
-                			newB.nKeys +=1;
-                		}
-                	}
-                	//make b == newB
-                	b.setEqual(newB);
-                	dir.set(i+mod/2, b2);
-                	hTable.add(b2);
-                	mod = mod/2;
-                	b2.bNumber = currentB;
-                	currentB +=1;
-            	}
-            	
-    		}
-    		mod = mod*2;
-    		if(b.nKeys == SLOTS+1){
-    			//hashing again not necessary. if everything's in bucket1, then obviously hash will return same value
-    			i = h (b.key[0]);
-    			//System.out.println("here");
-        		splitBucket(b, i);
-        	}
-    		if(b2.nKeys == SLOTS+1){
-    			//hashing again not necessary. if everything's in bucket1, then obviously hash will return same value
-    			i = h (b2.key[0]);
-    			//System.out.println("here9");
-        		splitBucket(b2, i);
-        	}
-    		//System.out.println("here4");
-    	}
-    	
-    	else{
-    		//System.out.println("here6");
-    		b.localDepth +=1;
-    		//split the bucket without creating the rest of the directory
-    		Bucket b2 = new Bucket();
-        	Bucket newB = new Bucket();
-        	newB.localDepth = b.localDepth;
-        	b2.localDepth = b.localDepth;
-        	b2.nKeys = 0;
-        	newB.nKeys = 0;
-        	b2.bNumber = currentB;
-        	currentB +=1;
-        	for(int num = 0;num <b.nKeys;num++){
-        		//if(h(b.key[num])>=mod/2){
-        		if((int)((b.key[num].hashCode() & 1<<(b.localDepth-1))) !=0){
-        			//System.out.println("here8");
-        			b2.key[b2.nKeys]=b.key[num];
-        			b2.value[b2.nKeys]=b.value[num];
-        			b2.nKeys +=1;
-        		}
-        		else{
-        			//System.out.println("here9");
-        			newB.key[newB.nKeys]=b.key[num];
-        			newB.value[newB.nKeys]=b.value[num];
-        			newB.nKeys +=1;
-        		}
-        	}
-        	b.setEqual(newB);
-        	//System.out.println("currentMod = "+ mod);
-        	//System.out.println("i is = "+ i);
-        	//System.out.println("dir index is = "+ (i+mod/2));
-        	//In this case, we dont need to do i+mod/2, because mod
-        	//has already been increased
-        	//dir.set(i, b2);
-        	//update directory
-        	if(b2.nKeys>0){
-        		int factor = h(b2.key[0]);
-        		while(factor<dir.size()){
-        			dir.set(factor, b2);
-        			factor +=mod;
-        		}
-        	}
-        	if(b.nKeys>0){
-        		int factor = h(b.key[0]);
-        		while(factor<dir.size()){
-        			dir.set(factor, b);
-        			factor +=mod;
-        		}
-        	}
-        	hTable.add(b2);
-        	if(b.nKeys == SLOTS+1){
-        		//System.out.println("here2");
-        		splitBucket(b, i);
-        	}
-        	if(b2.nKeys ==SLOTS+1){
-        		//.out.println("here3");
-        		splitBucket(b2, i);
-        	}
-    	}
-    	nBuckets = hTable.size();
-    }
+
+    /********************************************************************************
+     * Split an overfull bucket on the next bit of the hash (bit localDepth), doubling
+     * the directory first if the bucket is already as deep as the directory.  Keys
+     * with that bit set move to a new bucket, and the directory entries with that bit
+     * set that referenced the old bucket now reference the new one.  If all the keys
+     * share the same hash no split can separate them, so the bucket is left to
+     * overflow instead.
+     * @param b  the bucket to split
+     */
+    private void splitBucket (Bucket b)
+    {
+        int hash0 = hash (b.key [0]);
+        boolean same = true;
+        for (int t = 1; t < b.nKeys && same; t++) same = hash (b.key [t]) == hash0;
+        if (same) return;
+
+        if (b.localDepth == globalDepth) {
+            for (int j = 0; j < mod; j++) dir.add (dir.get (j));
+            mod *= 2;
+            globalDepth++;
+        } // if
+
+        int bit = 1 << b.localDepth;
+        b.localDepth++;
+        Bucket b2 = new Bucket ();
+        b2.localDepth = b.localDepth;
+        b2.bNumber = currentB++;
+
+        int kept = 0;
+        for (int t = 0; t < b.nKeys; t++) {
+            if ((hash (b.key [t]) & bit) != 0) {
+                if (b2.nKeys == b2.key.length) grow (b2);
+                b2.key [b2.nKeys]   = b.key [t];
+                b2.value [b2.nKeys] = b.value [t];
+                b2.nKeys++;
+            } else {
+                b.key [kept]   = b.key [t];
+                b.value [kept] = b.value [t];
+                kept++;
+            } // if
+        } // for
+        for (int t = kept; t < b.nKeys; t++) { b.key [t] = null; b.value [t] = null; }
+        b.nKeys = kept;
+
+        for (int j = 0; j < mod; j++) {
+            if (dir.get (j) == b && (j & bit) != 0) dir.set (j, b2);
+        } // for
+        hTable.add (b2);
+        nBuckets = hTable.size ();
+
+        if (b.nKeys > SLOTS)  splitBucket (b);
+        if (b2.nKeys > SLOTS) splitBucket (b2);
+    } // splitBucket
+
+    /********************************************************************************
+     * Double the capacity of an overflowing bucket.
+     * @param b  the bucket to grow
+     */
+    private void grow (Bucket b)
+    {
+        b.key   = Arrays.copyOf (b.key, 2 * b.key.length);
+        b.value = Arrays.copyOf (b.value, 2 * b.value.length);
+    } // grow
 
     /********************************************************************************
      * Return the size (SLOTS * number of buckets) of the hash table. 
@@ -379,9 +313,20 @@ public class ExtHashMap <K, V>
      */
     private int h (Object key)
     {
-        return key.hashCode () % mod;
+        return hash (key) & (mod - 1);
     } // h
 
+    /********************************************************************************
+     * Return the non-negative hash code of the key, whose low globalDepth bits select
+     * its directory entry.
+     * @param key  the key to hash
+     * @return  the hash code with the sign bit cleared
+     */
+    private static int hash (Object key)
+    {
+        return key.hashCode () & 0x7fffffff;
+    } // hash
+
     /********************************************************************************
      * The main method used for testing.
      * @param  the command-line arguments (args [0] gives number of keys to insert)
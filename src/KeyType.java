@@ -7,6 +7,7 @@
  */
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 
 import static java.lang.System.out;
@@ -58,13 +59,27 @@ public class KeyType
     } // compareTo
 
     /*************************************************************************************
-     * Determine whether two keys are equal (equals must agree with compareTo).
+     * Determine whether two keys are equal (see equals (Object)).
      * @param k  the other key (to compare with this)
      * @return  true if equal, false otherwise
      */
     public boolean equals (KeyType k)
     {
-        return compareTo (k) == 0;
+        return equals ((Object) k);
+    } // equals
+
+    /*************************************************************************************
+     * Determine whether this key equals the given object, so that hashed maps (which
+     * call equals (Object)) compare keys by value rather than by reference.  The parts
+     * are compared with their own equals (consistent with hashCode), so keys whose
+     * parts have different types (e.g., Integer and Long) are simply unequal rather
+     * than failing in compareTo.
+     * @param o  the other object (to compare with this)
+     * @return  true if o is an equal key, false otherwise
+     */
+    public boolean equals (Object o)
+    {
+        return o instanceof KeyType && Arrays.equals (key, ((KeyType) o).key);
     } // equals
 
     /*************************************************************************************
@@ -74,7 +89,7 @@ public class KeyType
     public int hashCode ()
     {
         int sum = 0;
-        for (int i = 0; i < key.length; i++) sum = 7 * sum + key [i].hashCode ();
+        for (int i = 0; i < key.length; i++) sum = 31 * sum + key [i].hashCode ();
         return sum;
     } // hashCode
 
@@ -84,17 +84,46 @@ public class LinHashMap <K, V>
         mod2   = 2 * mod1;
     } // constructor
 
+    /********************************************************************************
+     * Presize the hash table for about n keys (filling home buckets to three
+     * quarters of SLOTS), so that loading them causes few splits and overflow
+     * buckets.  Any keys already present are rehashed into the larger table.
+     * @param n  the expected number of keys
+     */
+    public void ensureCapacity (int n)
+    {
+        int size = 1;
+        while (size * SLOTS * 3 < n * 4L) size *= 2;
+        if (size <= mod1 + split) return;
+
+        List <Map.Entry <K, V>> old = new ArrayList <> (entrySet ());
+        hTable.clear ();
+        mod1  = size;
+        mod2  = 2 * mod1;
+        split = 0;
+        for (Map.Entry <K, V> e : old) put (e.getKey (), e.getValue ());
+    } // ensureCapacity
+
     /********************************************************************************
      * Return a set containing all the entries as pairs of keys and values.
      * @return  the set view of the map
      */
     public Set <Map.Entry <K, V>> entrySet ()
     {
-        Set <Map.Entry <K, V>> enSet = new HashSet <> ();
+        List <Map.Entry <K, V>> enSet = new ArrayList <> ();
 
-        //  T O   B E   I M P L E M E N T E D
+        for(int i=0;i<hTable.size();i++){
+        	for(Bucket b=hTable.get(i);b!=null;b=b.next){
+        		for(int j=0;j<b.nKeys;j++){
+        			enSet.add(new AbstractMap.SimpleEntry <> (b.key[j], b.value[j]));
+        		}
+        	}
+        }
         
-        return enSet;
+        return new AbstractSet <Map.Entry <K, V>> () {
+            public Iterator <Map.Entry <K, V>> iterator () { return enSet.iterator (); }
+            public int size () { return enSet.size (); }
+        };
     } // entrySet
 
     /********************************************************************************
@@ -104,8 +133,9 @@ public class LinHashMap <K, V>
      */
     public V get (Object key)
     {
+        if (hTable.size () == 0) return null;
         int i = h (key);
-        //  T O   B E   I M P L E M E N T E D
+        if (i < split) i = h2 (key);         // bucket i has already been split
         Bucket gbucket=hTable.get(i);
 	    while(gbucket!=null){    
         	for(int t=0;t<gbucket.nKeys;t++){
@@ -322,7 +352,7 @@ public class LinHashMap <K, V>
      */
     private int h (Object key)
     {
-        return key.hashCode () % mod1;
+        return (key.hashCode () & 0x7fffffff) % mod1;
     } // h
 
     /********************************************************************************
@@ -332,7 +362,7 @@ public class LinHashMap <K, V>
      */
     private int h2 (Object key)
     {
-        return key.hashCode () % mod2;
+        return (key.hashCode () & 0x7fffffff) % mod2;
     } // h2
 
     /********************************************************************************
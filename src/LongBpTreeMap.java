@@ -0,0 +1,694 @@
+/************************************************************************************
+ * @file LongBpTreeMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * This class provides B+Tree maps specialized for primitive long keys.  Each node
+ * keeps its keys in a long array, so get, put and range scans through the long
+ * methods (get (long), putLong, cursor) never box a key, comparisons are
+ * primitive, and an entry costs a slot in a long array rather than a key object.
+ * The nodes, splits and leaf links work as in BpTreeMap (binary search within a
+ * node, iterative descent, in-place splits).  The map is also a SortedMap of Long
+ * keys, for code that works on generic maps.  It is serialized as its entries in key
+ * order and rebuilt bottom-up when read back.
+ */
+public class LongBpTreeMap <V>
+       extends AbstractMap <Long, V>
+       implements SortedMap <Long, V>, Serializable
+{
+    /** The default maximum fanout for a node.
+     */
+    private static final int ORDER = 128;
+
+    /** The maximum fanout of this tree's nodes (internal nodes have up to order
+     *  children and leaves up to order - 1 keys).
+     */
+    private final int order;
+
+    /********************************************************************************
+     * This inner class defines nodes.  The arrays have room for one key (and ref)
+     * more than a node may keep, so an insertion goes in place before the overfull
+     * node is split.
+     */
+    private class Node
+    {
+        final boolean  isLeaf;
+        int            nKeys;
+        final long []  key;
+        final Object [] ref;
+        Node           right;
+
+        Node (boolean _isLeaf)
+        {
+            isLeaf = _isLeaf;
+            key    = new long [order];
+            ref    = new Object [order + 1];
+        } // constructor
+    } // Node inner class
+
+    /** The root of the B+Tree.
+     */
+    private transient Node root;
+
+    /** The number of keys in the B+Tree.
+     */
+    private transient int size = 0;
+
+    /** The internal nodes on the path from the root to the current leaf, and the
+     *  child taken at each (reused by put).
+     */
+    private transient Object [] path = new Object [8];
+    private transient int [] slot = new int [8];
+
+    /** Counter for the number of nodes accessed (for performance testing).
+     */
+    private transient long count = 0;
+
+    /********************************************************************************
+     * Construct an empty B+Tree map with the default fanout.
+     */
+    public LongBpTreeMap ()
+    {
+        this (ORDER);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty B+Tree map whose nodes have the given maximum fanout.
+     *
+     * @param _order  the maximum fanout (at least 3)
+     */
+    public LongBpTreeMap (int _order)
+    {
+        if (_order < 3) throw new IllegalArgumentException ("LongBpTreeMap: order must be at least 3");
+        order = _order;
+        root  = new Node (true);
+    } // constructor
+
+    /********************************************************************************
+     * Return null to use the natural order of the keys.
+     */
+    public Comparator <? super Long> comparator ()
+    {
+        return null;
+    } // comparator
+
+    /********************************************************************************
+     * Return the number of keys in the map.
+     *
+     * @return  the number of keys
+     */
+    public int size ()
+    {
+        return size;
+    } // size
+
+    /********************************************************************************
+     * Return a set view of the entries, in ascending key order (a lazy walk along
+     * the leaves).
+     *
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <Long, V>> entrySet ()
+    {
+        return new AbstractSet <Map.Entry <Long, V>> () {
+            public Iterator <Map.Entry <Long, V>> iterator () { return cursor (Long.MIN_VALUE, true, Long.MAX_VALUE, true); }
+            public int size () { return size; }
+        };
+    } // entrySet
+
+    /********************************************************************************
+     * Given a (Long or other integral Number) key, look up its value.
+     *
+     * @param key  the key used for look up
+     * @return  the value associated with the key, or null if there is none
+     */
+    public V get (Object key)
+    {
+        return (key instanceof Number) ? get (((Number) key).longValue ()) : null;
+    } // get
+
+    /********************************************************************************
+     * Given the key, look up the value in the B+Tree map.
+     *
+     * @param key  the key used for look up
+     * @return  the value associated with the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get (long key)
+    {
+        Node n = root;
+        while (! n.isLeaf) {
+            count++;
+            n = (Node) n.ref [upper (n, key)];
+        } // while
+        count++;
+        int i = lower (n, key);
+        return (i < n.nKeys && n.key [i] == key) ? (V) n.ref [i] : null;
+    } // get
+
+    /********************************************************************************
+     * Determine whether the map holds the given (Long or other integral Number) key.
+     *
+     * @param key  the key to look for
+     * @return  whether the key is present
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Put the key-value pair in the map.
+     *
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for the key, or null if it was absent
+     */
+    public V put (Long key, V value)
+    {
+        return putLong (key.longValue (), value);
+    } // put
+
+    /********************************************************************************
+     * Put the key-value pair in the B+Tree map, replacing the value of an existing
+     * key.  The descent is iterative and remembers the path, so splits propagate
+     * upward without recursion or parent pointers.
+     *
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for the key, or null if it was absent
+     */
+    @SuppressWarnings("unchecked")
+    public V putLong (long key, V value)
+    {
+        int  depth = 0;
+        Node n     = root;
+        while (! n.isLeaf) {
+            count++;
+            int i = upper (n, key);
+            if (depth == path.length) {
+                path = Arrays.copyOf (path, 2 * depth);
+                slot = Arrays.copyOf (slot, 2 * depth);
+            } // if
+            path [depth]   = n;
+            slot [depth++] = i;
+            n = (Node) n.ref [i];
+        } // while
+        count++;
+
+        int i = lower (n, key);
+        if (i < n.nKeys && n.key [i] == key) {
+            V old = (V) n.ref [i];
+            n.ref [i] = value;
+            return old;
+        } // if
+        wedge (n, i, key, value);
+        size++;
+        if (n.nKeys < order) return null;
+
+        Node right = splitLeaf (n);
+        long sep   = right.key [0];
+        while (depth > 0) {
+            Node p = (Node) path [--depth];
+            path [depth] = null;
+            wedge (p, slot [depth], sep, right);
+            if (p.nKeys < order) {
+                while (depth > 0) path [--depth] = null;
+                return null;
+            } // if
+            int mid = p.nKeys / 2;
+            sep   = p.key [mid];
+            right = splitInner (p, mid);
+        } // while
+
+        Node r = new Node (false);                              // the root split: grow a level
+        r.ref [0] = root;
+        r.key [0] = sep;
+        r.ref [1] = right;
+        r.nKeys   = 1;
+        root      = r;
+        return null;
+    } // putLong
+
+    /********************************************************************************
+     * Build the B+Tree bottom-up from n keys in ascending order with no duplicates
+     * and their values, replacing the current contents (see BpTreeMap.bulkLoad).
+     *
+     * @param keys    the keys in ascending order
+     * @param values  the values of the keys
+     * @param n       the number of keys to load
+     */
+    public void bulkLoad (long [] keys, Object [] values, int n)
+    {
+        List <Node> level = new ArrayList <> ();
+        Node leaf = new Node (true);
+        level.add (leaf);
+        for (int i = 0; i < n; i++) {
+            if (leaf.nKeys == order - 1) {
+                Node next  = new Node (true);
+                leaf.right = next;
+                leaf       = next;
+                level.add (leaf);
+            } // if
+            leaf.key [leaf.nKeys] = keys [i];
+            leaf.ref [leaf.nKeys] = values [i];
+            leaf.nKeys++;
+        } // for
+        size = n;
+
+        long [] low = new long [level.size ()];                  // smallest key under each node
+        for (int j = 0; j < low.length; j++) low [j] = level.get (j).key [0];
+
+        while (level.size () > 1) {
+            int nParents = (level.size () + order - 1) / order;
+            List <Node> parents = new ArrayList <> (nParents);
+            long [] parentLow = new long [nParents];
+            int next = 0;
+            for (int j = 0; j < nParents; j++) {
+                int  nChildren = (level.size () - next) / (nParents - j);
+                Node parent    = new Node (false);
+                parentLow [j]  = low [next];
+                for (int i = 0; i < nChildren; i++, next++) {
+                    parent.ref [i] = level.get (next);
+                    if (i > 0) parent.key [i - 1] = low [next];
+                } // for
+                parent.nKeys = nChildren - 1;
+                parents.add (parent);
+            } // for
+            level = parents;
+            low   = parentLow;
+        } // while
+        root = level.get (0);
+    } // bulkLoad
+
+    /********************************************************************************
+     * Sort the first n keys into ascending order, moving their values along with
+     * them.  The sort is stable (a merge sort), so among equal keys the values keep
+     * their relative order.
+     *
+     * @param keys    the keys
+     * @param values  the values of the keys
+     * @param n       the number of keys to sort
+     */
+    public static void sort (long [] keys, Object [] values, int n)
+    {
+        boolean sorted = true;
+        for (int i = 1; i < n && sorted; i++) sorted = keys [i - 1] <= keys [i];
+        if (sorted) return;
+        long []   k2 = new long [n];
+        Object [] v2 = new Object [n];
+        long []   kFrom = keys, kTo = k2;
+        Object [] vFrom = values, vTo = v2;
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min (lo + width, n), hi = Math.min (lo + 2 * width, n);
+                int a = lo, b = mid;
+                for (int t = lo; t < hi; t++) {
+                    if (a < mid && (b >= hi || kFrom [a] <= kFrom [b])) { kTo [t] = kFrom [a]; vTo [t] = vFrom [a++]; }
+                    else                                               { kTo [t] = kFrom [b]; vTo [t] = vFrom [b++]; }
+                } // for
+            } // for
+            long []   kt = kFrom; kFrom = kTo; kTo = kt;
+            Object [] vt = vFrom; vFrom = vTo; vTo = vt;
+        } // for
+        if (kFrom != keys) {
+            System.arraycopy (kFrom, 0, keys, 0, n);
+            System.arraycopy (vFrom, 0, values, 0, n);
+        } // if
+    } // sort
+
+    /********************************************************************************
+     * Return the first (smallest) key in the map.
+     *
+     * @return  the first key
+     */
+    public Long firstKey ()
+    {
+        if (size == 0) throw new NoSuchElementException ();
+        Node n = root;
+        while (! n.isLeaf) n = (Node) n.ref [0];
+        return n.key [0];
+    } // firstKey
+
+    /********************************************************************************
+     * Return the last (largest) key in the map.
+     *
+     * @return  the last key
+     */
+    public Long lastKey ()
+    {
+        if (size == 0) throw new NoSuchElementException ();
+        Node n = root;
+        while (! n.isLeaf) n = (Node) n.ref [n.nKeys];
+        return n.key [n.nKeys - 1];
+    } // lastKey
+
+    /********************************************************************************
+     * Return a lazy view of the portion of the map where key < toKey.
+     *
+     * @param toKey  the upper bound (exclusive)
+     * @return  the range view
+     */
+    public SortedMap <Long, V> headMap (Long toKey)
+    {
+        return new SubMap (Long.MIN_VALUE, true, toKey, false);
+    } // headMap
+
+    /********************************************************************************
+     * Return a lazy view of the portion of the map where fromKey <= key.
+     *
+     * @param fromKey  the lower bound (inclusive)
+     * @return  the range view
+     */
+    public SortedMap <Long, V> tailMap (Long fromKey)
+    {
+        return new SubMap (fromKey, true, Long.MAX_VALUE, true);
+    } // tailMap
+
+    /********************************************************************************
+     * Return a lazy view of the portion of the map where fromKey <= key < toKey.
+     *
+     * @param fromKey  the lower bound (inclusive)
+     * @param toKey    the upper bound (exclusive)
+     * @return  the range view
+     */
+    public SortedMap <Long, V> subMap (Long fromKey, Long toKey)
+    {
+        return new SubMap (fromKey, true, toKey, false);
+    } // subMap
+
+    /********************************************************************************
+     * Open a cursor for a streaming range scan over the keys between lo and hi.
+     * The cursor descends once to the leaf where the range starts and then follows
+     * the right sibling links.
+     *
+     * @param lo           the lower bound
+     * @param loInclusive  whether a key equal to lo is in the range
+     * @param hi           the upper bound
+     * @param hiInclusive  whether a key equal to hi is in the range
+     * @return  the cursor, positioned before the first key in the range
+     */
+    public Cursor cursor (long lo, boolean loInclusive, long hi, boolean hiInclusive)
+    {
+        return new Cursor (lo, loInclusive, hi, hiInclusive);
+    } // cursor
+
+    /********************************************************************************
+     * This inner class is a cursor over a range of keys in ascending order.  Besides
+     * iterating over (boxed) entries, it streams primitive keys (peekKey) and values
+     * (nextValue).
+     */
+    public class Cursor
+           implements Iterator <Map.Entry <Long, V>>
+    {
+        private final long    hi;
+        private final boolean hiInclusive;
+        private Node leaf;
+        private int  i;
+
+        @SuppressWarnings("unchecked")
+        Cursor (long lo, boolean loInclusive, long _hi, boolean _hiInclusive)
+        {
+            hi          = _hi;
+            hiInclusive = _hiInclusive;
+            leaf        = root;
+            while (! leaf.isLeaf) {
+                count++;
+                leaf = (Node) leaf.ref [upper (leaf, lo)];
+            } // while
+            i = loInclusive ? lower (leaf, lo) : upper (leaf, lo);
+            settle ();
+        } // constructor
+
+        /** Move to the next leaf when this one is used up, and stop past hi. */
+        private void settle ()
+        {
+            while (leaf != null && i >= leaf.nKeys) { leaf = leaf.right; i = 0; }
+            if (leaf != null && (leaf.key [i] > hi || (leaf.key [i] == hi && ! hiInclusive))) leaf = null;
+        } // settle
+
+        public boolean hasNext () { return leaf != null; }
+
+        /** Return the key of the next entry without advancing (hasNext must be true). */
+        public long peekKey ()
+        {
+            if (leaf == null) throw new NoSuchElementException ();
+            return leaf.key [i];
+        } // peekKey
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry <Long, V> next ()
+        {
+            if (leaf == null) throw new NoSuchElementException ();
+            Map.Entry <Long, V> e = new AbstractMap.SimpleImmutableEntry <> (leaf.key [i], (V) leaf.ref [i]);
+            i++;
+            settle ();
+            return e;
+        } // next
+
+        /** Return the value of the next key in the range, advancing the cursor. */
+        @SuppressWarnings("unchecked")
+        public V nextValue ()
+        {
+            if (leaf == null) throw new NoSuchElementException ();
+            V v = (V) leaf.ref [i++];
+            settle ();
+            return v;
+        } // nextValue
+    } // Cursor inner class
+
+    /********************************************************************************
+     * This inner class is a lazy view of the keys between lo and hi, backed by the
+     * tree.
+     */
+    private class SubMap
+            extends AbstractMap <Long, V>
+            implements SortedMap <Long, V>
+    {
+        private final long    lo, hi;
+        private final boolean loIn, hiIn;
+
+        SubMap (long _lo, boolean _loIn, long _hi, boolean _hiIn)
+        {
+            lo = _lo; loIn = _loIn; hi = _hi; hiIn = _hiIn;
+        } // constructor
+
+        private boolean inRange (long k)
+        {
+            return (k > lo || (k == lo && loIn)) && (k < hi || (k == hi && hiIn));
+        } // inRange
+
+        public Comparator <? super Long> comparator () { return null; }
+
+        public V get (Object key)
+        {
+            return (key instanceof Number && inRange (((Number) key).longValue ())) ? LongBpTreeMap.this.get (key) : null;
+        } // get
+
+        public boolean containsKey (Object key) { return get (key) != null; }
+
+        public V put (Long key, V value)
+        {
+            if (! inRange (key)) throw new IllegalArgumentException ("key out of range: " + key);
+            return LongBpTreeMap.this.putLong (key.longValue (), value);
+        } // put
+
+        public Set <Map.Entry <Long, V>> entrySet ()
+        {
+            return new AbstractSet <Map.Entry <Long, V>> () {
+                public Iterator <Map.Entry <Long, V>> iterator () { return cursor (lo, loIn, hi, hiIn); }
+                public int size ()
+                {
+                    int n = 0;
+                    for (Cursor c = cursor (lo, loIn, hi, hiIn); c.hasNext (); c.nextValue ()) n++;
+                    return n;
+                } // size
+            };
+        } // entrySet
+
+        public Long firstKey ()
+        {
+            Cursor c = cursor (lo, loIn, hi, hiIn);
+            if (! c.hasNext ()) throw new NoSuchElementException ();
+            return c.peekKey ();
+        } // firstKey
+
+        public Long lastKey ()
+        {
+            Cursor c = cursor (lo, loIn, hi, hiIn);
+            if (! c.hasNext ()) throw new NoSuchElementException ();
+            long last = 0;
+            while (c.hasNext ()) { last = c.peekKey (); c.nextValue (); }
+            return last;
+        } // lastKey
+
+        public SortedMap <Long, V> subMap (Long from, Long to)
+        {
+            return headMapOf (to, tailMapOf (from, this));
+        } // subMap
+
+        public SortedMap <Long, V> headMap (Long to) { return headMapOf (to, this); }
+
+        public SortedMap <Long, V> tailMap (Long from) { return tailMapOf (from, this); }
+
+        /** Narrow view m to keys < to. */
+        private SubMap headMapOf (long to, SubMap m)
+        {
+            return (to < m.hi || (to == m.hi && m.hiIn)) ? new SubMap (m.lo, m.loIn, to, false) : m;
+        } // headMapOf
+
+        /** Narrow view m to keys >= from. */
+        private SubMap tailMapOf (long from, SubMap m)
+        {
+            return (from > m.lo || (from == m.lo && ! m.loIn)) ? new SubMap (from, true, m.hi, m.hiIn) : m;
+        } // tailMapOf
+    } // SubMap inner class
+
+    /********************************************************************************
+     * Return the position of the first key in node n that is >= key.
+     */
+    private int lower (Node n, long key)
+    {
+        long [] k = n.key;
+        int lo = 0, hi = n.nKeys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (k [mid] < key) lo = mid + 1;
+            else               hi = mid;
+        } // while
+        return lo;
+    } // lower
+
+    /********************************************************************************
+     * Return the position of the first key in node n that is > key, which for an
+     * internal node is the child to descend into.
+     */
+    private int upper (Node n, long key)
+    {
+        long [] k = n.key;
+        int lo = 0, hi = n.nKeys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (k [mid] <= key) lo = mid + 1;
+            else                hi = mid;
+        } // while
+        return lo;
+    } // upper
+
+    /********************************************************************************
+     * Insert a key and ref at position i of node n (for an internal node the ref is
+     * the child to the right of the key).
+     */
+    private void wedge (Node n, int i, long key, Object ref)
+    {
+        System.arraycopy (n.key, i, n.key, i + 1, n.nKeys - i);
+        n.key [i] = key;
+        if (n.isLeaf) {
+            System.arraycopy (n.ref, i, n.ref, i + 1, n.nKeys - i);
+            n.ref [i] = ref;
+        } else {
+            System.arraycopy (n.ref, i + 1, n.ref, i + 2, n.nKeys - i);
+            n.ref [i + 1] = ref;
+        } // if
+        n.nKeys++;
+    } // wedge
+
+    /********************************************************************************
+     * Split the overfull leaf n, moving its upper half to a new leaf linked in to
+     * its right.
+     */
+    private Node splitLeaf (Node n)
+    {
+        Node right = new Node (true);
+        int  keep  = n.nKeys / 2;
+        int  move  = n.nKeys - keep;
+        System.arraycopy (n.key, keep, right.key, 0, move);
+        System.arraycopy (n.ref, keep, right.ref, 0, move);
+        Arrays.fill (n.ref, keep, n.nKeys, null);
+        right.nKeys = move;
+        n.nKeys     = keep;
+        right.right = n.right;
+        n.right     = right;
+        return right;
+    } // splitLeaf
+
+    /********************************************************************************
+     * Split the overfull internal node n around key mid: the keys after mid and their
+     * children move to a new node (key mid moves up to the parent).
+     */
+    private Node splitInner (Node n, int mid)
+    {
+        Node right = new Node (false);
+        int  move  = n.nKeys - mid - 1;
+        System.arraycopy (n.key, mid + 1, right.key, 0, move);
+        System.arraycopy (n.ref, mid + 1, right.ref, 0, move + 1);
+        Arrays.fill (n.ref, mid + 1, n.nKeys + 1, null);
+        right.nKeys = move;
+        n.nKeys     = mid;
+        return right;
+    } // splitInner
+
+    /********************************************************************************
+     * Write the map as its size followed by its keys and values in key order.
+     *
+     * @param out  the stream to write to
+     * @throws IOException  if writing fails
+     */
+    private void writeObject (ObjectOutputStream out)
+            throws IOException
+    {
+        out.defaultWriteObject ();
+        out.writeInt (size);
+        for (Cursor c = cursor (Long.MIN_VALUE, true, Long.MAX_VALUE, true); c.hasNext (); ) {
+            out.writeLong (c.peekKey ());
+            out.writeObject (c.nextValue ());
+        } // for
+    } // writeObject
+
+    /********************************************************************************
+     * Read a map written by writeObject, rebuilding the tree bottom-up.
+     *
+     * @param in  the stream to read from
+     * @throws IOException  if reading fails
+     * @throws ClassNotFoundException  if a value's class cannot be found
+     */
+    private void readObject (ObjectInputStream in)
+            throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject ();
+        int n = in.readInt ();
+        long []   keys   = new long [n];
+        Object [] values = new Object [n];
+        for (int i = 0; i < n; i++) {
+            keys [i]   = in.readLong ();
+            values [i] = in.readObject ();
+        } // for
+        path = new Object [8];
+        slot = new int [8];
+        bulkLoad (keys, values, n);
+    } // readObject
+
+    /********************************************************************************
+     * The main method used for testing.
+     * @param  the command-line arguments (args [0] gives number of keys to insert)
+     */
+    public static void main (String [] args)
+    {
+        int nKeys = (args.length == 1) ? Integer.valueOf (args [0]) : 100000;
+        LongBpTreeMap <Integer> bpt = new LongBpTreeMap <> ();
+        for (int i = 1; i < nKeys; i += 2) bpt.putLong (i, i * 2);
+        int found = 0;
+        for (int i = 0; i < nKeys; i++) if (bpt.get ((long) i) != null) found++;
+        out.println ("keys = " + bpt.size () + ", found = " + found);
+        out.println ("subMap (100, 120) = " + bpt.subMap (100L, 120L).keySet ());
+        out.println ("Average number of nodes accessed = " + bpt.count / (double) (nKeys / 2 + nKeys));
+    } // main
+
+} // LongBpTreeMap class
@@ -0,0 +1,257 @@
+/****************************************************************************************
+ * @file  LongKeyIndex.java
+ *
+ * @author   John Miller
+ */
+
+import java.io.Serializable;
+import java.util.*;
+
+/****************************************************************************************
+ * This class is the primary index of a table whose key is a single integer column
+ * (Integer, Long, Short or Byte).  It presents a LongBpTreeMap of row numbers as the
+ * Map from KeyType to row number that Table expects: each KeyType is turned into its
+ * long value on the way in and rebuilt (with the column's own type) on the way out.
+ * Table uses the tree directly (see tree ()) for range scans and bulk loads, where
+ * keys stay primitive throughout.
+ */
+class LongKeyIndex
+      extends AbstractMap <KeyType, Integer>
+      implements SortedMap <KeyType, Integer>, Serializable
+{
+    /** The domain (data type) of the key column.
+     */
+    private final Class domain;
+
+    /** The tree mapping key values to row numbers.
+     */
+    private final LongBpTreeMap <Integer> tree;
+
+    /** The part of the tree this map presents (the tree itself or a range view).
+     */
+    private final SortedMap <Long, Integer> map;
+
+    /************************************************************************************
+     * Construct an empty index for a key column of the given domain.
+     *
+     * @param _domain  the domain of the key column (see supports)
+     */
+    LongKeyIndex (Class _domain)
+    {
+        domain = _domain;
+        tree   = new LongBpTreeMap <> ();
+        map    = tree;
+    } // constructor
+
+    /************************************************************************************
+     * Construct a view presenting part of the given tree.
+     *
+     * @param _domain  the domain of the key column
+     * @param _tree    the whole tree
+     * @param _map     the part of the tree to present
+     */
+    private LongKeyIndex (Class _domain, LongBpTreeMap <Integer> _tree, SortedMap <Long, Integer> _map)
+    {
+        domain = _domain;
+        tree   = _tree;
+        map    = _map;
+    } // constructor
+
+    /************************************************************************************
+     * Determine whether a key column of the given domain can be indexed as longs.
+     *
+     * @param c  the domain of the key column
+     * @return  whether c is an integer type
+     */
+    static boolean supports (Class c)
+    {
+        return c == Integer.class || c == Long.class || c == Short.class || c == Byte.class;
+    } // supports
+
+    /************************************************************************************
+     * Return the underlying tree (for primitive range scans and bulk loads).
+     *
+     * @return  the tree
+     */
+    LongBpTreeMap <Integer> tree ()
+    {
+        return tree;
+    } // tree
+
+    /************************************************************************************
+     * Return the long value of a single-column integer key.
+     *
+     * @param k  the key
+     * @return  the key's value
+     */
+    static long toLong (KeyType k)
+    {
+        return ((Number) k.key [0]).longValue ();
+    } // toLong
+
+    /************************************************************************************
+     * Rebuild the KeyType for a key value, using the key column's own type.
+     *
+     * @param k  the key's value
+     * @return  the key
+     */
+    private KeyType toKey (long k)
+    {
+        if (domain == Integer.class) return new KeyType ((int) k);
+        if (domain == Long.class)    return new KeyType (k);
+        if (domain == Short.class)   return new KeyType ((short) k);
+        return new KeyType ((byte) k);
+    } // toKey
+
+    /************************************************************************************
+     * Determine whether the object is a key this index can hold.
+     *
+     * @param key  the object to check
+     * @return  whether key is a single-column KeyType holding a number
+     */
+    private static boolean isKey (Object key)
+    {
+        return key instanceof KeyType && ((KeyType) key).key.length == 1 && ((KeyType) key).key [0] instanceof Number;
+    } // isKey
+
+    /************************************************************************************
+     * Return null to use the natural order of the keys.
+     *
+     * @return  null
+     */
+    public Comparator <? super KeyType> comparator ()
+    {
+        return null;
+    } // comparator
+
+    /************************************************************************************
+     * Return the number of keys in this index (or range view).
+     *
+     * @return  the number of keys
+     */
+    public int size ()
+    {
+        return map.size ();
+    } // size
+
+    /************************************************************************************
+     * Return the row number for the given key, or null if the key is absent or is not
+     * a key this index can hold.
+     *
+     * @param key  the key to look up
+     * @return  the row number or null
+     */
+    public Integer get (Object key)
+    {
+        if (! isKey (key)) return null;
+        long k = toLong ((KeyType) key);
+        return (map == tree) ? tree.get (k) : map.get (k);
+    } // get
+
+    /************************************************************************************
+     * Determine whether the index holds the given key.
+     *
+     * @param key  the key to look for
+     * @return  whether the key is present
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /************************************************************************************
+     * Put the key and row number into the index (going straight to the tree's
+     * primitive putLong unless this is a range view).
+     *
+     * @param key    the key (a single integer column)
+     * @param value  the row number
+     * @return  the previous row number for the key or null
+     */
+    public Integer put (KeyType key, Integer value)
+    {
+        long k = toLong (key);
+        return (map == tree) ? tree.putLong (k, value) : map.put (k, value);
+    } // put
+
+    /************************************************************************************
+     * Return a view of the entries in key order, rebuilding each KeyType from its
+     * long value as the entry is reached.
+     *
+     * @return  the set of entries
+     */
+    public Set <Map.Entry <KeyType, Integer>> entrySet ()
+    {
+        return new AbstractSet <Map.Entry <KeyType, Integer>> () {
+            public Iterator <Map.Entry <KeyType, Integer>> iterator ()
+            {
+                Iterator <Map.Entry <Long, Integer>> it = map.entrySet ().iterator ();
+                return new Iterator <Map.Entry <KeyType, Integer>> () {
+                    public boolean hasNext () { return it.hasNext (); }
+                    public Map.Entry <KeyType, Integer> next ()
+                    {
+                        Map.Entry <Long, Integer> e = it.next ();
+                        return new AbstractMap.SimpleImmutableEntry <> (toKey (e.getKey ()), e.getValue ());
+                    } // next
+                };
+            } // iterator
+            public int size () { return map.size (); }
+        };
+    } // entrySet
+
+    /************************************************************************************
+     * Return the smallest key in the index.
+     *
+     * @return  the first key
+     * @throws NoSuchElementException  if the index is empty
+     */
+    public KeyType firstKey ()
+    {
+        return toKey (map.firstKey ());
+    } // firstKey
+
+    /************************************************************************************
+     * Return the largest key in the index.
+     *
+     * @return  the last key
+     * @throws NoSuchElementException  if the index is empty
+     */
+    public KeyType lastKey ()
+    {
+        return toKey (map.lastKey ());
+    } // lastKey
+
+    /************************************************************************************
+     * Return a view of the keys from 'from' (inclusive) to 'to' (exclusive).
+     *
+     * @param from  the lower bound (inclusive)
+     * @param to    the upper bound (exclusive)
+     * @return  the range view
+     */
+    public SortedMap <KeyType, Integer> subMap (KeyType from, KeyType to)
+    {
+        return new LongKeyIndex (domain, tree, map.subMap (toLong (from), toLong (to)));
+    } // subMap
+
+    /************************************************************************************
+     * Return a view of the keys less than 'to'.
+     *
+     * @param to  the upper bound (exclusive)
+     * @return  the range view
+     */
+    public SortedMap <KeyType, Integer> headMap (KeyType to)
+    {
+        return new LongKeyIndex (domain, tree, map.headMap (toLong (to)));
+    } // headMap
+
+    /************************************************************************************
+     * Return a view of the keys greater than or equal to 'from'.
+     *
+     * @param from  the lower bound (inclusive)
+     * @return  the range view
+     */
+    public SortedMap <KeyType, Integer> tailMap (KeyType from)
+    {
+        return new LongKeyIndex (domain, tree, map.tailMap (toLong (from)));
+    } // tailMap
+
+} // LongKeyIndex class
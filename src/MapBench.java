@@ -0,0 +1,692 @@
+/*****************************************************************************************
+ * @file  MapBench.java
+ *
+ * @author   John Miller
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+import static java.lang.System.out;
+
+/*****************************************************************************************
+ * This class benchmarks the index maps (TreeMap, BpTreeMap, ExtHashMap and LinHashMap).
+ * For each map, key count (10^3 up to a maximum), key type (Integer, String, KeyType)
+ * and insertion order (sequential, random) it measures the throughput of put, get,
+ * range scan (sorted maps only) and iteration.  Every measurement is preceded by warm
+ * up runs and repeated, and results are written as CSV lines
+ *
+ *     suite,map,keyType,order,keys,operation,opsPerSec
+ *
+ * to standard output and, if given, to a file, so runs can be compared to spot
+ * regressions.
+ *
+ * #usage java MapBench [suite] [maxKeys] [results.csv]
+ */
+public class MapBench
+{
+    /** Number of warm up runs before each measurement.
+     */
+    private static final int WARMUP = 2;
+
+    /** Number of range scans per range measurement.
+     */
+    private static final int SCANS = 100;
+
+    /** Sink for values computed by the benchmarks so the JIT cannot drop the work.
+     */
+    static volatile int sink;
+
+    /** Where the CSV results are written (besides standard output).
+     */
+    private static PrintWriter csv;
+
+    /*************************************************************************************
+     * Make an empty map of the given kind for the given key class.
+     * @param kind    the map kind (TreeMap, BpTreeMap, ExtHashMap or LinHashMap)
+     * @param classK  the class of the keys
+     * @return  an empty map
+     */
+    @SuppressWarnings("unchecked")
+    static Map <Comparable, Integer> make (String kind, Class classK)
+    {
+        switch (kind) {
+        case "TreeMap":    return new TreeMap <> ();
+        case "BpTreeMap":  return new BpTreeMap <> (classK, Integer.class);
+        case "ExtHashMap": return new ExtHashMap <> (classK, Integer.class, 16);
+        case "LinHashMap": return new LinHashMap <> (classK, Integer.class, 16);
+        default:           throw new IllegalArgumentException ("unknown map " + kind);
+        } // switch
+    } // make
+
+    /*************************************************************************************
+     * Generate n distinct keys of the given type in ascending order.
+     * @param keyType  the key type (Integer, String or KeyType)
+     * @param n        the number of keys
+     * @return  the array of keys
+     */
+    static Comparable [] keys (String keyType, int n)
+    {
+        Comparable [] k = new Comparable [n];
+        for (int i = 0; i < n; i++) {
+            switch (keyType) {
+            case "Integer": k [i] = i; break;
+            case "String":  k [i] = String.format ("key%09d", i); break;
+            case "KeyType": k [i] = new KeyType (i / 1000, String.format ("k%03d", i % 1000)); break;
+            default:        throw new IllegalArgumentException ("unknown key type " + keyType);
+            } // switch
+        } // for
+        return k;
+    } // keys
+
+    /*************************************************************************************
+     * Return a shuffled copy of the given keys (fixed seed, so runs are repeatable).
+     * @param k  the keys
+     * @return  the shuffled keys
+     */
+    static Comparable [] shuffle (Comparable [] k)
+    {
+        List <Comparable> l = new ArrayList <> (Arrays.asList (k));
+        Collections.shuffle (l, new Random (42));
+        return l.toArray (new Comparable [k.length]);
+    } // shuffle
+
+    /*************************************************************************************
+     * Time a task: run it WARMUP times, then reps times, and return the average
+     * number of operations per second, where one run performs ops operations.
+     * @param reps  the number of measured runs
+     * @param ops   the number of operations per run
+     * @param task  the task to time
+     * @return  the throughput in operations per second
+     */
+    static double time (int reps, long ops, Runnable task)
+    {
+        for (int i = 0; i < WARMUP; i++) task.run ();
+        long start = System.nanoTime ();
+        for (int i = 0; i < reps; i++) task.run ();
+        return ops * reps / ((System.nanoTime () - start) / 1E9);
+    } // time
+
+    /*************************************************************************************
+     * Report one result line.
+     * @param fields  the CSV fields, the last being the throughput
+     */
+    static void report (Object ... fields)
+    {
+        StringBuilder sb = new StringBuilder ();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append (',');
+            sb.append (fields [i] instanceof Double ? String.format ("%.1f", fields [i]) : fields [i]);
+        } // for
+        out.println (sb);
+        if (csv != null) { csv.println (sb); csv.flush (); }
+    } // report
+
+    /*************************************************************************************
+     * Benchmark put, get, range scan and iteration for every map, key type, key count
+     * and insertion order.
+     * @param maxKeys  the largest key count (key counts go up by factors of 10 from 10^3)
+     */
+    static void maps (int maxKeys)
+    {
+        String [] kinds = { "TreeMap", "BpTreeMap", "ExtHashMap", "LinHashMap" };
+        String [] types = { "Integer", "String", "KeyType" };
+
+        for (String keyType : types) {
+            for (int size = 1000; size <= maxKeys; size *= 10) {
+                int n = size;
+                Comparable [] sorted   = keys (keyType, n);
+                Comparable [] shuffled = shuffle (sorted);
+                Class classK = sorted [0].getClass ();
+                int reps = Math.max (1, Math.min (10, 1000000 / n));
+
+                for (String kind : kinds) {
+                    for (String order : new String [] { "sequential", "random" }) {
+                        Comparable [] ins = order.equals ("sequential") ? sorted : shuffled;
+
+                        double put = time (reps, n, () -> {
+                            Map <Comparable, Integer> m = make (kind, classK);
+                            for (int i = 0; i < ins.length; i++) m.put (ins [i], i);
+                            sink += System.identityHashCode (m) & 1;
+                        });
+                        report ("maps", kind, keyType, order, n, "put", put);
+
+                        Map <Comparable, Integer> map = make (kind, classK);
+                        for (int i = 0; i < ins.length; i++) map.put (ins [i], i);
+
+                        double get = time (reps, n, () -> {
+                            int s = 0;
+                            for (Comparable k : shuffled) { Integer v = map.get (k); if (v != null) s += v; }
+                            sink += s;
+                        });
+                        report ("maps", kind, keyType, order, n, "get", get);
+
+                        if (map instanceof SortedMap) {
+                            SortedMap <Comparable, Integer> smap = (SortedMap <Comparable, Integer>) map;
+                            int width = Math.max (1, n / 100);
+                            Random rand = new Random (7);
+                            double range = time (reps, SCANS, () -> {
+                                int s = 0;
+                                for (int q = 0; q < SCANS; q++) {
+                                    int lo = rand.nextInt (n - width + 1);
+                                    int hi = Math.min (n - 1, lo + width);
+                                    for (Integer v : smap.subMap (sorted [lo], sorted [hi]).values ()) s += v;
+                                } // for
+                                sink += s;
+                            });
+                            report ("maps", kind, keyType, order, n, "range", range);
+                        } // if
+
+                        double iterate = time (reps, n, () -> {
+                            int s = 0;
+                            for (Map.Entry <Comparable, Integer> e : map.entrySet ()) s += e.getValue ();
+                            sink += s;
+                        });
+                        report ("maps", kind, keyType, order, n, "iterate", iterate);
+                    } // for
+                } // for
+            } // for
+        } // for
+    } // maps
+
+    /*************************************************************************************
+     * Benchmark building a map from n keys given in ascending order: put one key at a
+     * time ("put") versus the bulk path ("bulk"), which is a bottom-up build for
+     * BpTreeMap (bulkLoad), a presized directory for ExtHashMap and LinHashMap
+     * (ensureCapacity) and putAll of a sorted map for TreeMap.
+     * @param maxKeys  the largest key count (key counts go up by factors of 10 from 10^3)
+     */
+    @SuppressWarnings("unchecked")
+    static void load (int maxKeys)
+    {
+        String [] kinds = { "TreeMap", "BpTreeMap", "ExtHashMap", "LinHashMap" };
+
+        for (int size = 1000; size <= maxKeys; size *= 10) {
+            int n = size;
+            Comparable [] sorted = keys ("Integer", n);
+            Class classK = Integer.class;
+            int reps = Math.max (1, Math.min (10, 1000000 / n));
+            SortedMap <Comparable, Integer> source = new TreeMap <> ();
+            List <Map.Entry <Comparable, Integer>> entries = new ArrayList <> (n);
+            for (int i = 0; i < n; i++) {
+                source.put (sorted [i], i);
+                entries.add (new AbstractMap.SimpleEntry <> (sorted [i], i));
+            } // for
+
+            for (String kind : kinds) {
+                double put = time (reps, n, () -> {
+                    Map <Comparable, Integer> m = make (kind, classK);
+                    for (int i = 0; i < n; i++) m.put (sorted [i], i);
+                    sink += System.identityHashCode (m) & 1;
+                });
+                report ("load", kind, "Integer", "sequential", n, "put", put);
+
+                double bulk = time (reps, n, () -> {
+                    Map <Comparable, Integer> m = make (kind, classK);
+                    if (m instanceof BpTreeMap) {
+                        ((BpTreeMap) m).bulkLoad (entries);
+                    } else if (m instanceof TreeMap) {
+                        m.putAll (source);
+                    } else {
+                        if (m instanceof ExtHashMap) ((ExtHashMap) m).ensureCapacity (n);
+                        if (m instanceof LinHashMap) ((LinHashMap) m).ensureCapacity (n);
+                        for (int i = 0; i < n; i++) m.put (sorted [i], i);
+                    } // if
+                    sink += System.identityHashCode (m) & 1;
+                });
+                report ("load", kind, "Integer", "sequential", n, "bulk", bulk);
+            } // for
+        } // for
+    } // load
+
+    /*************************************************************************************
+     * Benchmark BpTreeMap put and get throughput for a range of node fanouts, from
+     * the default ORDER (5) up to 256, with Integer keys in random order.
+     * @param maxKeys  the largest key count (key counts go up by factors of 10 from 10^3)
+     */
+    static void fanout (int maxKeys)
+    {
+        int [] orders = { 5, 16, 32, 64, 128, 256 };
+
+        for (int size = 1000; size <= maxKeys; size *= 10) {
+            int n = size;
+            Comparable [] shuffled = shuffle (keys ("Integer", n));
+            int reps = Math.max (1, Math.min (10, 1000000 / n));
+
+            for (int order : orders) {
+                String kind = "BpTreeMap/" + order;
+                double put = time (reps, n, () -> {
+                    BpTreeMap <Integer, Integer> m = new BpTreeMap <> (Integer.class, Integer.class, order);
+                    for (int i = 0; i < n; i++) m.put ((Integer) shuffled [i], i);
+                    sink += m.size ();
+                });
+                report ("fanout", kind, "Integer", "random", n, "put", put);
+
+                BpTreeMap <Integer, Integer> map = new BpTreeMap <> (Integer.class, Integer.class, order);
+                for (int i = 0; i < n; i++) map.put ((Integer) shuffled [i], i);
+                double get = time (reps, n, () -> {
+                    int s = 0;
+                    for (Comparable k : shuffled) s += map.get (k);
+                    sink += s;
+                });
+                report ("fanout", kind, "Integer", "random", n, "get", get);
+            } // for
+        } // for
+    } // fanout
+
+    /*************************************************************************************
+     * Benchmark the primitive long-keyed LongBpTreeMap against BpTreeMap (same fanout)
+     * and TreeMap with Long keys in random order: put, get and range scan throughput
+     * (through the primitive methods for LongBpTreeMap) and heap bytes per entry.
+     * @param maxKeys  the largest key count (key counts go up by factors of 10 from 10^3)
+     */
+    static void longKeys (int maxKeys)
+    {
+        String [] kinds = { "TreeMap", "BpTreeMap/128", "LongBpTreeMap" };
+
+        for (int size = 1000; size <= maxKeys; size *= 10) {
+            int n = size;
+            long [] keys = new long [n];
+            Long [] boxed = new Long [n];
+            for (int i = 0; i < n; i++) keys [i] = i;
+            Random shuffle = new Random (42);
+            for (int i = n - 1; i > 0; i--) {
+                int j = shuffle.nextInt (i + 1);
+                long t = keys [i]; keys [i] = keys [j]; keys [j] = t;
+            } // for
+            for (int i = 0; i < n; i++) boxed [i] = keys [i];
+            int reps  = Math.max (1, Math.min (10, 1000000 / n));
+            int width = Math.max (1, n / 100);
+
+            for (String kind : kinds) {
+                Supplier <Map <Long, Integer>> make = () -> kind.equals ("TreeMap") ? new TreeMap <> ()
+                        : kind.equals ("LongBpTreeMap") ? new LongBpTreeMap <> () : new BpTreeMap <> (Long.class, Integer.class, 128);
+
+                double put = time (reps, n, () -> {
+                    Map <Long, Integer> m = make.get ();
+                    if (m instanceof LongBpTreeMap) {
+                        LongBpTreeMap <Integer> lm = (LongBpTreeMap <Integer>) m;
+                        for (int i = 0; i < n; i++) lm.putLong (keys [i], i);
+                    } else {
+                        for (int i = 0; i < n; i++) m.put (boxed [i], i);
+                    } // if
+                    sink += m.size ();
+                });
+                report ("long", kind, "Long", "random", n, "put", put);
+
+                long before = usedMemory ();
+                Map <Long, Integer> map = make.get ();
+                for (int i = 0; i < n; i++) {                              // fresh boxed keys, one shared value
+                    if (map instanceof LongBpTreeMap) ((LongBpTreeMap <Integer>) map).putLong (keys [i], 7);
+                    else map.put (Long.valueOf (keys [i]), 7);
+                } // for
+                double perEntry = (usedMemory () - before) / (double) n;
+
+                double get = time (reps, n, () -> {
+                    int s = 0;
+                    if (map instanceof LongBpTreeMap) {
+                        LongBpTreeMap <Integer> lm = (LongBpTreeMap <Integer>) map;
+                        for (long k : keys) s += lm.get (k);
+                    } else {
+                        for (Long k : boxed) s += map.get (k);
+                    } // if
+                    sink += s;
+                });
+                report ("long", kind, "Long", "random", n, "get", get);
+
+                Random rand = new Random (7);
+                double range = time (reps, SCANS, () -> {
+                    int s = 0;
+                    for (int q = 0; q < SCANS; q++) {
+                        long lo = rand.nextInt (n - width + 1);
+                        if (map instanceof LongBpTreeMap) {
+                            LongBpTreeMap <Integer>.Cursor c = ((LongBpTreeMap <Integer>) map).cursor (lo, true, lo + width, false);
+                            while (c.hasNext ()) s += c.nextValue ();
+                        } else {
+                            for (Integer v : ((SortedMap <Long, Integer>) map).subMap (lo, lo + width).values ()) s += v;
+                        } // if
+                    } // for
+                    sink += s;
+                });
+                report ("long", kind, "Long", "random", n, "range", range);
+                report ("long", kind, "Long", "random", n, "bytesPerEntry", perEntry);
+                sink += map.size ();
+            } // for
+        } // for
+    } // longKeys
+
+    /*************************************************************************************
+     * Benchmark deletion: n random Integer keys are inserted, then 90% of them
+     * removed in random order, and the remaining keys looked up.  Lookups after the
+     * churn are compared with lookups in a tree freshly built from the same keys,
+     * which shows whether deletion left the tree sparse or deep.
+     * @param maxKeys  the largest key count (key counts go up by factors of 10 from 10^3)
+     */
+    static void churn (int maxKeys)
+    {
+        String [] kinds = { "TreeMap", "BpTreeMap/5", "BpTreeMap/64" };
+
+        for (int size = 1000; size <= maxKeys; size *= 10) {
+            int n = size;
+            Comparable [] shuffled = shuffle (keys ("Integer", n));
+            int keep = n / 10;
+            Comparable [] kept = Arrays.copyOfRange (shuffled, 0, keep);
+            int reps = Math.max (1, Math.min (10, 1000000 / n));
+
+            for (String kind : kinds) {
+                Supplier <Map <Integer, Integer>> make = () -> kind.equals ("TreeMap") ? new TreeMap <> ()
+                        : new BpTreeMap <> (Integer.class, Integer.class, Integer.parseInt (kind.substring (kind.indexOf ('/') + 1)));
+
+                long [] elapsed = new long [1];
+                Map <Integer, Integer> [] last = new Map [1];
+                time (reps, n - keep, () -> {
+                    Map <Integer, Integer> m = make.get ();
+                    for (int i = 0; i < n; i++) m.put ((Integer) shuffled [i], i);
+                    long start = System.nanoTime ();
+                    for (int i = n - 1; i >= keep; i--) m.remove (shuffled [i]);
+                    elapsed [0] += System.nanoTime () - start;
+                    last [0] = m;
+                });
+                report ("churn", kind, "Integer", "random", n, "remove", (n - keep) * (double) (reps + WARMUP) / (elapsed [0] / 1E9));
+
+                Map <Integer, Integer> churned = last [0];
+                Map <Integer, Integer> fresh = make.get ();
+                for (int i = 0; i < keep; i++) fresh.put ((Integer) kept [i], i);
+                for (Map <Integer, Integer> map : Arrays.asList (churned, fresh)) {
+                    double get = time (reps, keep, () -> {
+                        int s = 0;
+                        for (Comparable k : kept) s += map.get (k);
+                        sink += s;
+                    });
+                    report ("churn", kind, "Integer", "random", n, (map == churned) ? "getAfterRemove" : "getFresh", get);
+                } // for
+            } // for
+        } // for
+    } // churn
+
+    /*************************************************************************************
+     * Benchmark BpTreeMap's order statistics against walking the keys: counting the
+     * keys in a random range (count vs a cursor scan over the range) and finding the
+     * key at a random offset (keyAt vs skipping that many keys from the start).  Range
+     * widths are 10% of the keys, so the walks cost what a pagination or selectivity
+     * question on a large table would.
+     * @param maxKeys  the largest key count (key counts go up by factors of 10 from 10^3)
+     */
+    static void rank (int maxKeys)
+    {
+        int queries = 100;
+
+        for (int size = 1000; size <= maxKeys; size *= 10) {
+            int n = size;
+            Comparable [] shuffled = shuffle (keys ("Integer", n));
+            BpTreeMap <Integer, Integer> map = new BpTreeMap <> (Integer.class, Integer.class, 64);
+            for (int i = 0; i < n; i++) map.put ((Integer) shuffled [i], i);
+            int width = n / 10;
+            int reps  = Math.max (1, Math.min (10, 1000000 / n));
+
+            Random rand = new Random (7);
+            double count = time (reps, queries, () -> {
+                for (int q = 0; q < queries; q++) {
+                    int lo = rand.nextInt (n - width);
+                    sink += map.count (lo, true, lo + width, false);
+                } // for
+            });
+            report ("rank", "BpTreeMap/64", "Integer", "random", n, "countRange", count);
+            double scan = time (reps, queries, () -> {
+                for (int q = 0; q < queries; q++) {
+                    int lo = rand.nextInt (n - width), c = 0;
+                    for (BpTreeMap <Integer, Integer>.Cursor it = map.cursor (lo, true, lo + width, false); it.hasNext (); it.nextValue ()) c++;
+                    sink += c;
+                } // for
+            });
+            report ("rank", "BpTreeMap/64", "Integer", "random", n, "scanRange", scan);
+
+            double select = time (reps, queries, () -> {
+                for (int q = 0; q < queries; q++) sink += map.keyAt (rand.nextInt (n));
+            });
+            report ("rank", "BpTreeMap/64", "Integer", "random", n, "keyAt", select);
+            double skip = time (reps, queries, () -> {
+                for (int q = 0; q < queries; q++) {
+                    BpTreeMap <Integer, Integer>.Cursor it = map.cursor (null, true, null, false);
+                    for (int j = rand.nextInt (n); j > 0; j--) it.nextValue ();
+                    sink += it.next ().getKey ();
+                } // for
+            });
+            report ("rank", "BpTreeMap/64", "Integer", "random", n, "skipTo", skip);
+        } // for
+    } // rank
+
+    /*************************************************************************************
+     * Benchmark concurrent access: 1, 2, 4, ... up to maxThreads threads share one map
+     * preloaded with n keys and each performs a random mix of get and put over 2n
+     * keys (95% and 50% reads).  BLinkTreeMap is compared with a BpTreeMap behind a
+     * single lock (the global lock it replaces) and ConcurrentSkipListMap.  Results
+     * are total operations per second over all threads.
+     * @param n           the number of preloaded keys
+     * @param maxThreads  the largest number of threads
+     */
+    static void concurrent (int n, int maxThreads)
+    {
+        String [] kinds = { "synchronized BpTreeMap", "BLinkTreeMap", "ConcurrentSkipListMap" };
+        int [] readPercents = { 95, 50 };
+        int ops = 200000;                                   // per thread per run
+
+        for (String kind : kinds) {
+            for (int reads : readPercents) {
+                for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                    int nThreads = threads;
+                    Map <Integer, Integer> map = kind.equals ("BLinkTreeMap") ? new BLinkTreeMap <> ()
+                            : kind.equals ("ConcurrentSkipListMap") ? new java.util.concurrent.ConcurrentSkipListMap <> ()
+                            : Collections.synchronizedMap (new BpTreeMap <> (Integer.class, Integer.class, 64));
+                    for (int i = 0; i < n; i++) map.put (2 * i, i);
+
+                    double rate = time (3, (long) ops * nThreads, () -> {
+                        Thread [] ts = new Thread [nThreads];
+                        for (int t = 0; t < nThreads; t++) {
+                            long seed = t * 31 + System.nanoTime ();
+                            ts [t] = new Thread (() -> {
+                                Random rand = new Random (seed);
+                                int s = 0;
+                                for (int i = 0; i < ops; i++) {
+                                    int k = rand.nextInt (2 * n);
+                                    if (rand.nextInt (100) < reads) {
+                                        Integer v = map.get (k);
+                                        if (v != null) s += v;
+                                    } else {
+                                        map.put (k, i);
+                                    } // if
+                                } // for
+                                sink += s;
+                            });
+                            ts [t].start ();
+                        } // for
+                        try {
+                            for (Thread t : ts) t.join ();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread ().interrupt ();
+                        } // try
+                    });
+                    report ("concurrent", kind, "Integer", "random", n, "read" + reads + "/threads" + nThreads, rate);
+                } // for
+            } // for
+        } // for
+    } // concurrent
+
+    /*************************************************************************************
+     * Benchmark the prefix-compressed StringBpTreeMap against BpTreeMap (same fanout)
+     * and TreeMap on keys shaped like TupleGeneratorImpl's String keys (an attribute
+     * name followed by a number, e.g., crsCode123456) in random order: put, get and
+     * range scan throughput and heap bytes per entry, counting the key Strings a map
+     * keeps.
+     * @param maxKeys  the largest key count (key counts go up by factors of 10 from 10^3)
+     */
+    static void strings (int maxKeys)
+    {
+        String [] kinds = { "TreeMap", "BpTreeMap/128", "StringBpTreeMap" };
+        List <Integer> numbers = new ArrayList <> ();
+        for (int i = 0; i < Math.max (1000000, maxKeys); i++) numbers.add (i);
+        Collections.shuffle (numbers, new Random (42));
+
+        for (int size = 1000; size <= maxKeys; size *= 10) {
+            int n = size;
+            String [] keys = new String [n];
+            for (int i = 0; i < n; i++) keys [i] = "crsCode" + numbers.get (i);
+            String [] sorted = keys.clone ();
+            Arrays.sort (sorted);
+            int reps  = Math.max (1, Math.min (10, 1000000 / n));
+            int width = Math.max (1, n / 100);
+
+            for (String kind : kinds) {
+                Supplier <SortedMap <String, Integer>> make = () -> kind.equals ("TreeMap") ? new TreeMap <> ()
+                        : kind.equals ("StringBpTreeMap") ? new StringBpTreeMap <> () : new BpTreeMap <> (String.class, Integer.class, 128);
+
+                double put = time (reps, n, () -> {
+                    SortedMap <String, Integer> m = make.get ();
+                    for (int i = 0; i < n; i++) m.put (keys [i], i);
+                    sink += m.size ();
+                });
+                report ("strings", kind, "String", "random", n, "put", put);
+
+                long before = usedMemory ();
+                SortedMap <String, Integer> map = make.get ();
+                for (int i = 0; i < n; i++) map.put (String.valueOf (keys [i].toCharArray ()), 7);   // key copies only the map holds
+                double perEntry = (usedMemory () - before) / (double) n;
+
+                double get = time (reps, n, () -> {
+                    int s = 0;
+                    for (String k : keys) s += map.get (k);
+                    sink += s;
+                });
+                report ("strings", kind, "String", "random", n, "get", get);
+
+                Random rand = new Random (7);
+                double range = time (reps, SCANS, () -> {
+                    int s = 0;
+                    for (int q = 0; q < SCANS; q++) {
+                        int lo = rand.nextInt (n - width + 1);
+                        String hi = (lo + width < n) ? sorted [lo + width] : null;
+                        SortedMap <String, Integer> sub = (hi == null) ? map.tailMap (sorted [lo]) : map.subMap (sorted [lo], hi);
+                        for (Integer v : sub.values ()) s += v;
+                    } // for
+                    sink += s;
+                });
+                report ("strings", kind, "String", "random", n, "range", range);
+                report ("strings", kind, "String", "random", n, "bytesPerEntry", perEntry);
+                sink += map.size ();
+            } // for
+        } // for
+    } // strings
+
+    /*************************************************************************************
+     * Benchmark the write-optimized BeTreeMap against BpTreeMap (default order 5 and
+     * order 128) and TreeMap with Integer keys in random order: insertion throughput
+     * (blind insert for BeTreeMap, plus put, which must look the key up first; each
+     * run ends with size (), which flushes BeTreeMap's buffers), get with and without
+     * messages still buffered, and range scan.
+     * @param maxKeys  the largest key count (key counts go up by factors of 10 from 10^3)
+     */
+    static void buffered (int maxKeys)
+    {
+        String [] kinds = { "TreeMap", "BpTreeMap/5", "BpTreeMap/128", "BeTreeMap" };
+
+        for (int size = 1000; size <= maxKeys; size *= 10) {
+            int n = size;
+            Integer [] keys = Arrays.copyOf (shuffle (keys ("Integer", n)), n, Integer [].class);
+            int reps  = Math.max (1, Math.min (10, 1000000 / n));
+            int width = Math.max (1, n / 100);
+
+            for (String kind : kinds) {
+                Supplier <SortedMap <Integer, Integer>> make = () -> kind.equals ("TreeMap") ? new TreeMap <> ()
+                        : kind.equals ("BeTreeMap") ? new BeTreeMap <> ()
+                        : new BpTreeMap <> (Integer.class, Integer.class, kind.endsWith ("/5") ? 5 : 128);
+
+                if (kind.equals ("BeTreeMap")) {
+                    double insert = time (reps, n, () -> {
+                        BeTreeMap <Integer, Integer> m = new BeTreeMap <> ();
+                        for (int i = 0; i < n; i++) m.insert (keys [i], i);
+                        sink += m.size ();
+                    });
+                    report ("buffered", kind, "Integer", "random", n, "insert", insert);
+                } // if
+
+                double put = time (reps, n, () -> {
+                    SortedMap <Integer, Integer> m = make.get ();
+                    for (int i = 0; i < n; i++) m.put (keys [i], i);
+                    sink += m.size ();
+                });
+                report ("buffered", kind, "Integer", "random", n, "put", put);
+
+                SortedMap <Integer, Integer> map = make.get ();
+                for (int i = 0; i < n; i++) map.put (keys [i], i);
+
+                double get = time (reps, n, () -> {
+                    int s = 0;
+                    for (Integer k : keys) s += map.get (k);
+                    sink += s;
+                });
+                report ("buffered", kind, "Integer", "random", n, "get", get);
+
+                if (map instanceof BeTreeMap) {
+                    map.size ();                                           // flush the buffers
+                    double drained = time (reps, n, () -> {
+                        int s = 0;
+                        for (Integer k : keys) s += map.get (k);
+                        sink += s;
+                    });
+                    report ("buffered", kind, "Integer", "random", n, "getDrained", drained);
+                } // if
+
+                Random rand = new Random (7);
+                double range = time (reps, SCANS, () -> {
+                    int s = 0;
+                    for (int q = 0; q < SCANS; q++) {
+                        int lo = rand.nextInt (n - width + 1);
+                        for (Integer v : map.subMap (lo, lo + width).values ()) s += v;
+                    } // for
+                    sink += s;
+                });
+                report ("buffered", kind, "Integer", "random", n, "range", range);
+            } // for
+        } // for
+    } // buffered
+
+    /*************************************************************************************
+     * Return the heap currently in use after requesting a garbage collection.
+     * @return  the used heap in bytes
+     */
+    static long usedMemory ()
+    {
+        Runtime rt = Runtime.getRuntime ();
+        for (int i = 0; i < 3; i++) System.gc ();
+        return rt.totalMemory () - rt.freeMemory ();
+    } // usedMemory
+
+    /*************************************************************************************
+     * The main method runs the selected benchmark suite.
+     * @param args  the suite (default maps), the largest key count (default 10^6) and
+     *              an optional CSV file to also write the results to
+     */
+    public static void main (String [] args) throws IOException
+    {
+        String suite   = (args.length > 0) ? args [0] : "maps";
+        int    maxKeys = (args.length > 1) ? Integer.parseInt (args [1]) : 1000000;
+        if (args.length > 2) csv = new PrintWriter (new FileWriter (args [2]));
+
+        report ("suite", "map", "keyType", "order", "keys", "operation", "opsPerSec");
+        switch (suite) {
+        case "maps":   maps (maxKeys); break;
+        case "load":   load (maxKeys); break;
+        case "fanout": fanout (maxKeys); break;
+        case "long":   longKeys (maxKeys); break;
+        case "churn":  churn (maxKeys); break;
+        case "rank":   rank (maxKeys); break;
+        case "strings": strings (maxKeys); break;
+        case "buffered": buffered (maxKeys); break;
+        case "concurrent": concurrent (maxKeys, Math.max (8, Runtime.getRuntime ().availableProcessors ())); break;
+        default:       out.println ("MapBench: unknown suite " + suite);
+        } // switch
+        if (csv != null) csv.close ();
+    } // main
+
+} // MapBench class
@@ -0,0 +1,126 @@
+/****************************************************************************************
+ * @file  MappedStore.java
+ *
+ * @author   John Miller
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/****************************************************************************************
+ * This class presents the tuples of a memory-mapped table file (see PageFile) as a
+ * List, so the relational operators in Table work on it unchanged.  Opening the store
+ * only maps the file: a page is brought in (by the operating system, into its page
+ * cache rather than the Java heap) when a scan or index probe first touches it, and
+ * a tuple is decoded from its page each time it is retrieved with get.  Tuples added
+ * after the file was opened are kept on the heap until the table is saved.
+ */
+class MappedStore
+      extends AbstractList <Comparable []>
+      implements RandomAccess
+{
+    /** The maximum number of bytes mapped by a single buffer.
+     */
+    private static final long SEGMENT = 1L << 30;
+
+    /** The file the tuples were mapped from (closed, used for its page directory).
+     */
+    private final PageFile file;
+
+    /** The domains (data types) of the columns.
+     */
+    private final Class [] domain;
+
+    /** The number of data pages per mapped segment.
+     */
+    private final int pagesPerSegment;
+
+    /** The mapped segments of the file.
+     */
+    private final ByteBuffer [] segment;
+
+    /** The number of tuples in the file.
+     */
+    private final int nMapped;
+
+    /** Tuples added since the file was opened.
+     */
+    private final List <Comparable []> tail = new ArrayList <> ();
+
+    /************************************************************************************
+     * Map the data pages of the given file.
+     *
+     * @param _file  the open table file
+     * @throws IOException  if mapping fails
+     */
+    MappedStore (PageFile _file)
+        throws IOException
+    {
+        file            = _file;
+        domain          = file.domain;
+        nMapped         = file.tuples ();
+        pagesPerSegment = (int) (SEGMENT / file.pageSize);
+        int pages       = file.pages ();
+        segment         = new ByteBuffer [(pages + pagesPerSegment - 1) / pagesPerSegment];
+        for (int s = 0; s < segment.length; s++) {
+            int first = s * pagesPerSegment;
+            segment [s] = file.map (first, Math.min (pagesPerSegment, pages - first));
+        } // for
+    } // constructor
+
+    /************************************************************************************
+     * Return the number of tuples in the store.
+     *
+     * @return  the number of tuples
+     */
+    public int size ()
+    {
+        return nMapped + tail.size ();
+    } // size
+
+    /************************************************************************************
+     * Decode the i-th tuple from its page (or return it from the tail).
+     *
+     * @param i  the row number
+     * @return  the tuple
+     */
+    public Comparable [] get (int i)
+    {
+        if (i < 0 || i >= size ()) throw new IndexOutOfBoundsException ("row " + i);
+        if (i >= nMapped) return tail.get (i - nMapped);
+        int p = file.pageOf (i);
+        return PageFile.tuple (page (p), i - file.firstRow (p), domain);
+    } // get
+
+    /************************************************************************************
+     * Append a tuple to the end of the store (only appends are supported).
+     *
+     * @param idx  the position to add at (must equal size ())
+     * @param tup  the tuple to add
+     */
+    public void add (int idx, Comparable [] tup)
+    {
+        if (idx != size ()) throw new UnsupportedOperationException ("MappedStore only supports appends");
+        tail.add (tup);
+        modCount++;
+    } // add
+
+    /************************************************************************************
+     * Return data page p as a buffer of its own over the mapped file.
+     *
+     * @param p  the data page number
+     * @return  the page buffer
+     */
+    private ByteBuffer page (int p)
+    {
+        ByteBuffer b   = segment [p / pagesPerSegment].duplicate ();
+        int        off = (p % pagesPerSegment) * file.pageSize;
+        b.position (off).limit (off + file.pageSize);
+        return b.slice ();
+    } // page
+
+} // MappedStore class
@@ -137,6 +137,15 @@ class MovieDB
         Table t_join2 = movie.join ("title year", "title year", cinema);
         t_join2.print ();
 
+        //--------------------- pipelined join-select-project
+
+        out.println ();
+        Table t_pipe = movie.query ().join ("studioName", "name", studio)
+                                     .select (t -> t[movie.col("year")].compareTo (1979) > 0)
+                                     .project ("title address")
+                                     .toTable ();
+        t_pipe.print ();
+
        
     } // main
 
@@ -0,0 +1,666 @@
+/****************************************************************************************
+ * @file  PageFile.java
+ *
+ * @author   John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/****************************************************************************************
+ * This class implements the binary on-disk format for tables.  A table file is a
+ * sequence of fixed-size pages accessed through an NIO FileChannel:
+ *
+ *     page 0        header: magic, version, page size, number of data pages, number
+ *                   of tuples, storage layout and the schema (name, attributes,
+ *                   domains, key)
+ *     pages 1 .. n  data pages holding the tuples
+ *     after page n  directory: the row number of the first tuple on each data page
+ *
+ * Data pages are slotted: an int count and an int data start are followed by one int
+ * slot (offset) per tuple, while the tuples themselves are packed from the end of the
+ * page towards the front.  Each value is stored in the binary form of its domain
+ * (e.g., 4 bytes for an Integer, a length and UTF-8 bytes for a String), so a single
+ * tuple can be decoded straight from its page without reading the rest.
+ */
+class PageFile
+      implements Closeable
+{
+    /** Magic number identifying a table file ("DBF1").
+     */
+    private static final int MAGIC = 0x44424631;
+
+    /** Version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /** The default page size in bytes.
+     */
+    static final int PAGE_SIZE = 8192;
+
+    /** Size of a data page's header (tuple count and data start).
+     */
+    private static final int PAGE_HEADER = 8;
+
+    /** Number of pages gathered into one write when a file is written sequentially.
+     */
+    private static final int BATCH = 32;
+
+    /** The name of the table stored in the file.
+     */
+    final String name;
+
+    /** The attribute names of the table.
+     */
+    final String [] attribute;
+
+    /** The attribute domains of the table.
+     */
+    final Class [] domain;
+
+    /** The primary key of the table.
+     */
+    final String [] key;
+
+    /** The storage layout the table used when it was saved.
+     */
+    final Table.Storage storage;
+
+    /** The size of each page in bytes.
+     */
+    final int pageSize;
+
+    /** The number of data pages.
+     */
+    private int nPages;
+
+    /** The number of tuples stored.
+     */
+    private int nTuples;
+
+    /** The row number of the first tuple on each data page.
+     */
+    private int [] firstRow;
+
+    /** The channel to the file.
+     */
+    private final FileChannel channel;
+
+    /** Whether the file was opened for writing.
+     */
+    private final boolean writable;
+
+    /************************************************************************************
+     * Construct a page file over an open channel.
+     *
+     * @param _channel    the channel to the file
+     * @param _name       the name of the table
+     * @param _attribute  the attribute names
+     * @param _domain     the attribute domains
+     * @param _key        the primary key
+     * @param _storage    the storage layout
+     * @param _pageSize   the page size in bytes
+     * @param _writable   whether the file may be written
+     */
+    private PageFile (FileChannel _channel, String _name, String [] _attribute, Class [] _domain,
+                      String [] _key, Table.Storage _storage, int _pageSize, boolean _writable)
+    {
+        channel   = _channel;
+        writable  = _writable;
+        name      = _name;
+        attribute = _attribute;
+        domain    = _domain;
+        key       = _key;
+        storage   = _storage;
+        pageSize  = _pageSize;
+        firstRow  = new int [16];
+    } // constructor
+
+    /************************************************************************************
+     * Create (or truncate) a table file for the given schema.  The file holds no
+     * tuples until they are appended.
+     *
+     * @param path       the path of the file
+     * @param name       the name of the table
+     * @param attribute  the attribute names
+     * @param domain     the attribute domains
+     * @param key        the primary key
+     * @param storage    the storage layout
+     * @return  the new page file, open for writing
+     * @throws IOException  if the file cannot be created
+     */
+    static PageFile create (Path path, String name, String [] attribute, Class [] domain,
+                            String [] key, Table.Storage storage)
+           throws IOException
+    {
+        if (path.getParent () != null) Files.createDirectories (path.getParent ());
+        FileChannel ch = FileChannel.open (path, CREATE, READ, WRITE, TRUNCATE_EXISTING);
+        PageFile pf = new PageFile (ch, name, attribute, domain, key, storage, PAGE_SIZE, true);
+        pf.writeHeader ();
+        return pf;
+    } // create
+
+    /************************************************************************************
+     * Open an existing table file, reading its header and page directory (but none of
+     * its data pages).
+     *
+     * @param path      the path of the file
+     * @param writable  whether the file may be written
+     * @return  the open page file
+     * @throws IOException  if the file cannot be read or is not a table file
+     */
+    static PageFile open (Path path, boolean writable)
+           throws IOException
+    {
+        FileChannel ch = writable ? FileChannel.open (path, READ, WRITE) : FileChannel.open (path, READ);
+        try {
+            ByteBuffer h = ByteBuffer.allocate (PAGE_SIZE);
+            readFully (ch, h, 0);
+            h.flip ();
+            if (h.getInt () != MAGIC)   throw new IOException (path + " is not a table file");
+            if (h.getInt () != VERSION) throw new IOException (path + " has an unsupported version");
+            int pageSize = h.getInt ();
+            int nPages   = h.getInt ();
+            int nTuples  = h.getInt ();
+            Table.Storage storage = Table.Storage.values () [h.get ()];
+            String    name      = getString (h);
+            String [] attribute = new String [h.getShort ()];
+            Class []  domain    = new Class [attribute.length];
+            for (int j = 0; j < attribute.length; j++) {
+                attribute [j] = getString (h);
+                domain [j]    = Class.forName ("java.lang." + getString (h));
+            } // for
+            String [] key = new String [h.getShort ()];
+            for (int j = 0; j < key.length; j++) key [j] = getString (h);
+
+            PageFile pf = new PageFile (ch, name, attribute, domain, key, storage, pageSize, writable);
+            pf.nPages   = nPages;
+            pf.nTuples  = nTuples;
+            pf.firstRow = new int [Math.max (16, nPages)];
+            ByteBuffer d = ByteBuffer.allocate (4 * nPages);
+            readFully (ch, d, pf.offset (nPages));
+            d.flip ();
+            d.asIntBuffer ().get (pf.firstRow, 0, nPages);
+            return pf;
+        } catch (IOException | ReflectiveOperationException | RuntimeException ex) {
+            ch.close ();
+            throw (ex instanceof IOException) ? (IOException) ex : new IOException (path + ": " + ex, ex);
+        } // try
+    } // open
+
+    /************************************************************************************
+     * Return the number of data pages.
+     *
+     * @return  the number of data pages
+     */
+    int pages ()
+    {
+        return nPages;
+    } // pages
+
+    /************************************************************************************
+     * Return the number of tuples stored.
+     *
+     * @return  the number of tuples
+     */
+    int tuples ()
+    {
+        return nTuples;
+    } // tuples
+
+    /************************************************************************************
+     * Return the row number of the first tuple on data page p.
+     *
+     * @param p  the data page number
+     * @return  the row number of its first tuple
+     */
+    int firstRow (int p)
+    {
+        return firstRow [p];
+    } // firstRow
+
+    /************************************************************************************
+     * Return the data page holding the given row (binary search of the directory).
+     *
+     * @param row  the row number
+     * @return  the data page number
+     */
+    int pageOf (int row)
+    {
+        int lo = 0, hi = nPages - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstRow [mid] <= row) lo = mid;
+            else                       hi = mid - 1;
+        } // while
+        return lo;
+    } // pageOf
+
+    /************************************************************************************
+     * Map n data pages starting at data page first into memory (read-only).  Nothing
+     * is read until the pages are touched, and the mapping stays valid after the file
+     * is closed.
+     *
+     * @param first  the first data page to map
+     * @param n      the number of data pages to map
+     * @return  the mapped pages
+     * @throws IOException  if mapping fails
+     */
+    MappedByteBuffer map (int first, int n)
+         throws IOException
+    {
+        return channel.map (FileChannel.MapMode.READ_ONLY, offset (first), (long) n * pageSize);
+    } // map
+
+    /************************************************************************************
+     * Return the position in the file of data page p.
+     *
+     * @param p  the data page number
+     * @return  the byte offset of the page
+     */
+    private long offset (int p)
+    {
+        return (long) (p + 1) * pageSize;
+    } // offset
+
+    /************************************************************************************
+     * Append the given tuples to the file, filling new data pages and writing them a
+     * batch of pages at a time.
+     *
+     * @param tups  the tuples to append
+     * @throws IOException  if writing fails or a tuple does not fit in a page
+     */
+    void append (Iterable <Comparable []> tups)
+         throws IOException
+    {
+        ByteBuffer batch = ByteBuffer.allocateDirect (BATCH * pageSize);
+        int first = nPages, used = 0;
+        ByteBuffer page = null;
+
+        for (Comparable [] t : tups) {
+            if (page == null || ! add (page, t, domain)) {
+                if (page != null) used++;
+                if (used == BATCH) {
+                    writeBatch (batch, first, used);
+                    first += used;
+                    used = 0;
+                } // if
+                page = slice (batch, used);
+                format (page);
+                if (! add (page, t, domain)) throw new IOException ("tuple too large for a page: "
+                                                                    + Arrays.toString (t));
+                addPage (nTuples);
+            } // if
+            nTuples++;
+        } // for
+        if (page != null) writeBatch (batch, first, used + 1);
+    } // append
+
+    /************************************************************************************
+     * Read data page p into the given buffer (of pageSize bytes).
+     *
+     * @param p    the data page number
+     * @param buf  the buffer to read into
+     * @throws IOException  if reading fails
+     */
+    void read (int p, ByteBuffer buf)
+         throws IOException
+    {
+        ByteBuffer b = buf.duplicate ();
+        b.clear ();
+        readFully (channel, b, offset (p));
+    } // read
+
+    /************************************************************************************
+     * Write the given buffer (of pageSize bytes) as data page p.
+     *
+     * @param p    the data page number
+     * @param buf  the page to write
+     * @throws IOException  if writing fails
+     */
+    void write (int p, ByteBuffer buf)
+         throws IOException
+    {
+        ByteBuffer b = buf.duplicate ();
+        b.clear ();
+        long pos = offset (p);
+        while (b.hasRemaining ()) pos += channel.write (b, pos);
+    } // write
+
+    /************************************************************************************
+     * Add an (as yet unwritten) data page after the last one; its first tuple will be
+     * the next one added.
+     *
+     * @return  the number of the new data page
+     */
+    int newPage ()
+    {
+        addPage (nTuples);
+        return nPages - 1;
+    } // newPage
+
+    /************************************************************************************
+     * Record that a tuple has been added to the last data page.
+     */
+    void addTuple ()
+    {
+        nTuples++;
+    } // addTuple
+
+    /************************************************************************************
+     * Record that a new data page has been added whose first tuple has the given row
+     * number.
+     *
+     * @param first  the row number of the page's first tuple
+     */
+    private void addPage (int first)
+    {
+        if (nPages == firstRow.length) firstRow = Arrays.copyOf (firstRow, 2 * nPages);
+        firstRow [nPages++] = first;
+    } // addPage
+
+    /************************************************************************************
+     * Write the header and page directory and force everything to disk.
+     *
+     * @throws IOException  if writing fails
+     */
+    void sync ()
+         throws IOException
+    {
+        writeHeader ();
+        ByteBuffer d = ByteBuffer.allocate (4 * nPages);
+        d.asIntBuffer ().put (firstRow, 0, nPages);
+        long pos = offset (nPages);
+        while (d.hasRemaining ()) pos += channel.write (d, pos);
+        channel.truncate (pos);
+        channel.force (true);
+    } // sync
+
+    /************************************************************************************
+     * Sync (if the file is writable) and close the file.
+     *
+     * @throws IOException  if writing or closing fails
+     */
+    public void close ()
+           throws IOException
+    {
+        try {
+            if (writable) sync ();
+        } finally {
+            channel.close ();
+        } // try
+    } // close
+
+    /************************************************************************************
+     * Scan all the tuples of the file in row order, reading a batch of pages at a
+     * time and decoding each tuple for the given action.
+     *
+     * @param action  the action to perform on each tuple
+     * @throws IOException  if reading fails
+     */
+    void scan (Consumer <Comparable []> action)
+         throws IOException
+    {
+        ByteBuffer batch = ByteBuffer.allocateDirect (BATCH * pageSize);
+        for (int p = 0; p < nPages; p += BATCH) {
+            int n = Math.min (BATCH, nPages - p);
+            batch.clear ().limit (n * pageSize);
+            readFully (channel, batch, offset (p));
+            for (int i = 0; i < n; i++) {
+                ByteBuffer page = slice (batch, i);
+                for (int s = 0, c = count (page); s < c; s++) action.accept (tuple (page, s, domain));
+            } // for
+        } // for
+    } // scan
+
+    //----------------------------------------------------------------------------------
+    // Page layout
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Format a buffer as an empty data page.
+     *
+     * @param page  the page buffer
+     */
+    static void format (ByteBuffer page)
+    {
+        page.putInt (0, 0);
+        page.putInt (4, page.capacity ());
+    } // format
+
+    /************************************************************************************
+     * Return the number of tuples on a data page.
+     *
+     * @param page  the page buffer
+     * @return  the number of tuples
+     */
+    static int count (ByteBuffer page)
+    {
+        return page.getInt (0);
+    } // count
+
+    /************************************************************************************
+     * Add a tuple to a data page if there is room for it.
+     *
+     * @param page    the page buffer
+     * @param t       the tuple to add
+     * @param domain  the attribute domains
+     * @return  whether the tuple fit on the page
+     */
+    static boolean add (ByteBuffer page, Comparable [] t, Class [] domain)
+    {
+        int n     = page.getInt (0);
+        int start = page.getInt (4) - size (t, domain);
+        if (start < PAGE_HEADER + 4 * (n + 1)) return false;
+
+        ByteBuffer b = page.duplicate ();
+        b.clear ().position (start);
+        for (int j = 0; j < t.length; j++) put (b, t [j], domain [j]);
+        page.putInt (PAGE_HEADER + 4 * n, start);
+        page.putInt (4, start);
+        page.putInt (0, n + 1);
+        return true;
+    } // add
+
+    /************************************************************************************
+     * Decode the tuple in the given slot of a data page.
+     *
+     * @param page    the page buffer
+     * @param slot    the slot number (position of the tuple on the page)
+     * @param domain  the attribute domains
+     * @return  the decoded tuple
+     */
+    static Comparable [] tuple (ByteBuffer page, int slot, Class [] domain)
+    {
+        ByteBuffer b = page.duplicate ();
+        b.clear ().position (page.getInt (PAGE_HEADER + 4 * slot));
+        Comparable [] t = new Comparable [domain.length];
+        for (int j = 0; j < t.length; j++) t [j] = get (b, domain [j]);
+        return t;
+    } // tuple
+
+    //----------------------------------------------------------------------------------
+    // Value encoding
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Return the number of bytes a tuple takes when encoded.
+     *
+     * @param t       the tuple
+     * @param domain  the attribute domains
+     * @return  the encoded size in bytes
+     */
+    static int size (Comparable [] t, Class [] domain)
+    {
+        int size = 0;
+        for (int j = 0; j < t.length; j++) {
+            Class c = domain [j];
+            if (c == Integer.class || c == Float.class)        size += 4;
+            else if (c == Long.class || c == Double.class)     size += 8;
+            else if (c == Short.class || c == Character.class) size += 2;
+            else if (c == Byte.class || c == Boolean.class)    size += 1;
+            else if (c == String.class) size += 2 + ((String) t [j]).getBytes (StandardCharsets.UTF_8).length;
+            else throw new IllegalArgumentException ("PageFile: unsupported domain " + c);
+        } // for
+        return size;
+    } // size
+
+    /************************************************************************************
+     * Encode a value of the given domain at the buffer's position.
+     *
+     * @param b  the buffer
+     * @param v  the value
+     * @param c  the domain of the value
+     */
+    static void put (ByteBuffer b, Comparable v, Class c)
+    {
+        if (c == Integer.class)        b.putInt ((Integer) v);
+        else if (c == Long.class)      b.putLong ((Long) v);
+        else if (c == Double.class)    b.putDouble ((Double) v);
+        else if (c == Float.class)     b.putFloat ((Float) v);
+        else if (c == Short.class)     b.putShort ((Short) v);
+        else if (c == Byte.class)      b.put ((Byte) v);
+        else if (c == Character.class) b.putChar ((Character) v);
+        else if (c == Boolean.class)   b.put ((byte) ((Boolean) v ? 1 : 0));
+        else if (c == String.class)    putString (b, (String) v);
+        else throw new IllegalArgumentException ("PageFile: unsupported domain " + c);
+    } // put
+
+    /************************************************************************************
+     * Decode a value of the given domain at the buffer's position.
+     *
+     * @param b  the buffer
+     * @param c  the domain of the value
+     * @return  the value
+     */
+    static Comparable get (ByteBuffer b, Class c)
+    {
+        if (c == Integer.class)   return b.getInt ();
+        if (c == Long.class)      return b.getLong ();
+        if (c == Double.class)    return b.getDouble ();
+        if (c == Float.class)     return b.getFloat ();
+        if (c == Short.class)     return b.getShort ();
+        if (c == Byte.class)      return b.get ();
+        if (c == Character.class) return b.getChar ();
+        if (c == Boolean.class)   return b.get () != 0;
+        if (c == String.class)    return getString (b);
+        throw new IllegalArgumentException ("PageFile: unsupported domain " + c);
+    } // get
+
+    /************************************************************************************
+     * Encode a string as an unsigned short length followed by its UTF-8 bytes.
+     *
+     * @param b  the buffer
+     * @param s  the string
+     */
+    static void putString (ByteBuffer b, String s)
+    {
+        byte [] bytes = s.getBytes (StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) throw new IllegalArgumentException ("PageFile: string too long");
+        b.putShort ((short) bytes.length);
+        b.put (bytes);
+    } // putString
+
+    /************************************************************************************
+     * Decode a string written by putString.
+     *
+     * @param b  the buffer
+     * @return  the string
+     */
+    static String getString (ByteBuffer b)
+    {
+        byte [] bytes = new byte [b.getShort () & 0xffff];
+        b.get (bytes);
+        return new String (bytes, StandardCharsets.UTF_8);
+    } // getString
+
+    //----------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Write the header page (magic, version, sizes and schema).
+     *
+     * @throws IOException  if writing fails or the schema does not fit in a page
+     */
+    private void writeHeader ()
+            throws IOException
+    {
+        ByteBuffer h = ByteBuffer.allocate (pageSize);
+        try {
+            h.putInt (MAGIC).putInt (VERSION).putInt (pageSize).putInt (nPages).putInt (nTuples);
+            h.put ((byte) storage.ordinal ());
+            putString (h, name);
+            h.putShort ((short) attribute.length);
+            for (int j = 0; j < attribute.length; j++) {
+                putString (h, attribute [j]);
+                putString (h, domain [j].getSimpleName ());
+            } // for
+            h.putShort ((short) key.length);
+            for (String k : key) putString (h, k);
+        } catch (java.nio.BufferOverflowException ex) {
+            throw new IOException ("schema of " + name + " does not fit in a page");
+        } // try
+        h.clear ();
+        long pos = 0;
+        while (h.hasRemaining ()) pos += channel.write (h, pos);
+    } // writeHeader
+
+    /************************************************************************************
+     * Write the first n pages of a batch buffer starting at data page first.
+     *
+     * @param batch  the batch buffer
+     * @param first  the data page number of the batch's first page
+     * @param n      the number of pages to write
+     * @throws IOException  if writing fails
+     */
+    private void writeBatch (ByteBuffer batch, int first, int n)
+            throws IOException
+    {
+        ByteBuffer b = batch.duplicate ();
+        b.clear ().limit (n * pageSize);
+        long pos = offset (first);
+        while (b.hasRemaining ()) pos += channel.write (b, pos);
+    } // writeBatch
+
+    /************************************************************************************
+     * Return page i of a batch buffer as a buffer of its own.
+     *
+     * @param batch  the batch buffer
+     * @param i      the page within the batch
+     * @return  the page buffer
+     */
+    private ByteBuffer slice (ByteBuffer batch, int i)
+    {
+        ByteBuffer b = batch.duplicate ();
+        b.clear ().position (i * pageSize).limit ((i + 1) * pageSize);
+        return b.slice ();
+    } // slice
+
+    /************************************************************************************
+     * Fill the buffer from the channel starting at the given position.
+     *
+     * @param ch   the channel
+     * @param buf  the buffer to fill (up to its limit)
+     * @param pos  the position in the file
+     * @throws IOException  if the file ends before the buffer is full
+     */
+    private static void readFully (FileChannel ch, ByteBuffer buf, long pos)
+            throws IOException
+    {
+        while (buf.hasRemaining ()) {
+            int n = ch.read (buf, pos);
+            if (n < 0) throw new EOFException ("unexpected end of table file");
+            pos += n;
+        } // while
+    } // readFully
+
+} // PageFile class
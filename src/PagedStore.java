@@ -0,0 +1,183 @@
+/****************************************************************************************
+ * @file  PagedStore.java
+ *
+ * @author   John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/****************************************************************************************
+ * This class presents the tuples of a table file (see PageFile) as a List whose pages
+ * are cached in a bounded BufferPool, so the relational operators in Table work on
+ * tables larger than the heap with predictable memory use.  Each get pins the page
+ * holding the tuple, decodes the tuple and unpins the page; appends fill the last
+ * page, adding pages as needed, and reach the file when the pool evicts or flushes
+ * them.  The store must be closed to write back its pages and the file's directory.
+ */
+class PagedStore
+      extends AbstractList <Comparable []>
+      implements RandomAccess, Closeable
+{
+    /** The table file.
+     */
+    private final PageFile file;
+
+    /** The domains (data types) of the columns.
+     */
+    private final Class [] domain;
+
+    /** The buffer pool caching the file's pages.
+     */
+    private final BufferPool pool;
+
+    /************************************************************************************
+     * Construct a paged store over the given (writable) file.
+     *
+     * @param _file    the table file
+     * @param frames   the number of page frames in the buffer pool
+     * @param policy   the eviction policy of the buffer pool
+     */
+    PagedStore (PageFile _file, int frames, BufferPool.Policy policy)
+    {
+        file   = _file;
+        domain = file.domain;
+        pool   = new BufferPool (file, frames, policy);
+    } // constructor
+
+    /************************************************************************************
+     * Return the buffer pool (e.g., for its hit, miss and eviction counters).
+     *
+     * @return  the buffer pool
+     */
+    BufferPool pool ()
+    {
+        return pool;
+    } // pool
+
+    /************************************************************************************
+     * Return the number of data pages in the store.
+     *
+     * @return  the number of pages
+     */
+    int pages ()
+    {
+        synchronized (pool) {
+            return file.pages ();
+        } // synchronized
+    } // pages
+
+    /************************************************************************************
+     * Return the number of tuples in the store.
+     *
+     * @return  the number of tuples
+     */
+    public int size ()
+    {
+        synchronized (pool) {
+            return file.tuples ();
+        } // synchronized
+    } // size
+
+    /************************************************************************************
+     * Decode the i-th tuple from its page, pinning the page while doing so.
+     *
+     * @param i  the row number
+     * @return  the tuple
+     */
+    public Comparable [] get (int i)
+    {
+        int p;
+        synchronized (pool) {
+            if (i < 0 || i >= file.tuples ()) throw new IndexOutOfBoundsException ("row " + i);
+            p = file.pageOf (i);
+        } // synchronized
+        ByteBuffer page = pin (p);
+        try {
+            return PageFile.tuple (page, i - file.firstRow (p), domain);
+        } finally {
+            pool.unpin (p, false);
+        } // try
+    } // get
+
+    /************************************************************************************
+     * Append a tuple to the end of the store (only appends are supported).
+     *
+     * @param idx  the position to add at (must equal size ())
+     * @param tup  the tuple to add
+     */
+    public void add (int idx, Comparable [] tup)
+    {
+        synchronized (pool) {
+            if (idx != file.tuples ()) throw new UnsupportedOperationException ("PagedStore only supports appends");
+            int p = file.pages () - 1;
+            boolean added = false;
+            if (p >= 0) {
+                added = PageFile.add (pin (p), tup, domain);
+                pool.unpin (p, added);
+            } // if
+            if (! added) {
+                ByteBuffer page;
+                try {
+                    page = pool.pinNew ();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException (ex);
+                } // try
+                p     = file.pages () - 1;
+                added = PageFile.add (page, tup, domain);
+                pool.unpin (p, true);
+                if (! added) throw new IllegalArgumentException ("PagedStore: tuple too large for a page");
+            } // if
+            file.addTuple ();
+            modCount++;
+        } // synchronized
+    } // add
+
+    /************************************************************************************
+     * Write back the dirty pages, then the file's header and directory, and force
+     * them to disk, leaving the store open.
+     *
+     * @throws IOException  if writing fails
+     */
+    void flush ()
+         throws IOException
+    {
+        synchronized (pool) {
+            pool.flush ();
+            file.sync ();
+        } // synchronized
+    } // flush
+
+    /************************************************************************************
+     * Write back the dirty pages, then the file's header and directory, and close it.
+     *
+     * @throws IOException  if writing fails
+     */
+    public void close ()
+           throws IOException
+    {
+        synchronized (pool) {
+            pool.flush ();
+            file.close ();
+        } // synchronized
+    } // close
+
+    /************************************************************************************
+     * Pin data page p, reporting I/O failures as unchecked (List methods cannot throw
+     * checked exceptions).
+     *
+     * @param p  the data page number
+     * @return  the frame holding the page
+     */
+    private ByteBuffer pin (int p)
+    {
+        try {
+            return pool.pin (p);
+        } catch (IOException ex) {
+            throw new UncheckedIOException (ex);
+        } // try
+    } // pin
+
+} // PagedStore class
@@ -0,0 +1,244 @@
+/****************************************************************************************
+ * @file  Query.java
+ *
+ * @author   John Miller
+ */
+
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+import static java.lang.System.out;
+
+/****************************************************************************************
+ * This class implements pipelined (Volcano-style) evaluation of relational algebra
+ * operators.  A query carries the schema of its result and a lazy stream of tuples;
+ * each operator wraps the stream of its input, so tuples flow one at a time through
+ * a chain such as join-select-project, and no intermediate table is built.  The
+ * result is only materialized when toTable is called (or consumed via iterator).
+ * Like a Java stream, a query may only be consumed once.
+ */
+public class Query
+{
+    /** Counter for naming result tables.
+     */
+    private static int count = 0;
+
+    /** Name of the query (derived from its source table).
+     */
+    private final String name;
+
+    /** Array of attribute names of the result.
+     */
+    private final String [] attribute;
+
+    /** Array of attribute domains of the result.
+     */
+    private final Class [] domain;
+
+    /** Primary key of the result.
+     */
+    private final String [] key;
+
+    /** Storage layout to use when the result is materialized.
+     */
+    private final Table.Storage storage;
+
+    /** Lazy stream of result tuples.
+     */
+    private final Stream <Comparable []> tuples;
+
+    /************************************************************************************
+     * Construct a query producing the given stream of tuples with the given schema.
+     *
+     * @param _name       the name of the query
+     * @param _attribute  the attribute names of the result
+     * @param _domain     the attribute domains of the result
+     * @param _key        the primary key of the result
+     * @param _storage    the storage layout for materialization
+     * @param _tuples     the lazy stream of result tuples
+     */
+    Query (String _name, String [] _attribute, Class [] _domain, String [] _key,
+           Table.Storage _storage, Stream <Comparable []> _tuples)
+    {
+        name      = _name;
+        attribute = _attribute;
+        domain    = _domain;
+        key       = _key;
+        storage   = _storage;
+        tuples    = _tuples;
+    } // constructor
+
+    /************************************************************************************
+     * Project the tuples onto a lower dimension by keeping only the given attributes.
+     *
+     * #usage movie.query ().project ("title year studioNo")
+     *
+     * @param attributes  the attributes to project onto
+     * @return  a query producing the projected tuples
+     */
+    public Query project (String attributes)
+    {
+        out.println ("RA> " + name + ".project (" + attributes + ")");
+        String [] attrs  = attributes.split (" ");
+        int []    colPos = match (attrs);
+        Class []  colDom = new Class [colPos.length];
+        for (int j = 0; j < colPos.length; j++) colDom [j] = domain [colPos [j]];
+        String [] newKey = (Arrays.asList (attrs).containsAll (Arrays.asList (key))) ? key : attrs;
+
+        return new Query (name, attrs, colDom, newKey, storage, tuples.map (t -> {
+            Comparable [] tup = new Comparable [colPos.length];
+            for (int j = 0; j < colPos.length; j++) tup [j] = t [colPos [j]];
+            return tup;
+        }));
+    } // project
+
+    /************************************************************************************
+     * Select the tuples satisfying the given predicate (Boolean function).
+     *
+     * #usage movie.query ().select (t -> t[movie.col("year")].equals (1977))
+     *
+     * @param predicate  the check condition for tuples
+     * @return  a query producing the tuples satisfying the predicate
+     */
+    public Query select (Predicate <Comparable []> predicate)
+    {
+        out.println ("RA> " + name + ".select (" + predicate + ")");
+        return new Query (name, attribute, domain, key, storage, tuples.filter (predicate));
+    } // select
+
+    /************************************************************************************
+     * Union this query's tuples with those of table2, removing duplicates.
+     *
+     * #usage movie.query ().union (show)
+     *
+     * @param table2  the rhs table in the union operation
+     * @return  a query producing the union
+     */
+    public Query union (Table table2)
+    {
+        out.println ("RA> " + name + ".union (" + table2.getName () + ")");
+        if (! compatible (table2)) return null;
+
+        Set <KeyType> seen = new HashSet <> ();
+        return new Query (name, attribute, domain, key, storage,
+                          Stream.concat (tuples, table2.getTuples ().stream ())
+                                .filter (t -> seen.add (new KeyType (t))));
+    } // union
+
+    /************************************************************************************
+     * Take the difference of this query's tuples and table2's tuples.  Like union
+     * (and Table.minus), it has set semantics: duplicate tuples are passed only once.
+     *
+     * #usage movie.query ().minus (show)
+     *
+     * @param table2  the rhs table in the minus operation
+     * @return  a query producing the difference
+     */
+    public Query minus (Table table2)
+    {
+        out.println ("RA> " + name + ".minus (" + table2.getName () + ")");
+        if (! compatible (table2)) return null;
+
+        Set <KeyType> rhs = new HashSet <> (), seen = new HashSet <> ();
+        for (Comparable [] t : table2.getTuples ()) rhs.add (new KeyType (t));
+        return new Query (name, attribute, domain, key, storage,
+                          tuples.filter (t -> { KeyType k = new KeyType (t); return ! rhs.contains (k) && seen.add (k); }));
+    } // minus
+
+    /************************************************************************************
+     * Join this query's tuples with table2 by performing an equijoin.  Table2 is
+     * loaded into a hash table on its join columns, then tuples from the query stream
+     * through one at a time and probe it.
+     *
+     * #usage movie.query ().join ("studioName", "name", studio)
+     *
+     * @param attributes1  the attributes of this query to be compared
+     * @param attributes2  the attributes of table2 to be compared
+     * @param table2       the rhs table in the join operation
+     * @return  a query producing the joined tuples
+     */
+    public Query join (String attributes1, String attributes2, Table table2)
+    {
+        out.println ("RA> " + name + ".join (" + attributes1 + ", " + attributes2 + ", "
+                                               + table2.getName () + ")");
+        int [] cols1 = match (attributes1.split (" "));
+        Map <KeyType, List <Comparable []>> ht = table2.hashOn (table2.match (attributes2.split (" ")));
+
+        return new Query (name, ArrayUtil.concat (attribute, table2.getAttribute ()),
+                          ArrayUtil.concat (domain, table2.getDomain ()), key, storage,
+                          tuples.flatMap (t -> ht.getOrDefault (new KeyType (Table.extract (t, cols1)),
+                                                                Collections.emptyList ())
+                                                 .stream ().map (u -> ArrayUtil.concat (t, u))));
+    } // join
+
+    /************************************************************************************
+     * Return an iterator over the result tuples (open/next), pulling each tuple
+     * through the whole operator pipeline on demand.
+     *
+     * @return  an iterator over the result tuples
+     */
+    public Iterator <Comparable []> iterator ()
+    {
+        return tuples.iterator ();
+    } // iterator
+
+    /************************************************************************************
+     * Run the pipeline and materialize its result as a table.
+     *
+     * @return  a table holding the result tuples
+     */
+    public Table toTable ()
+    {
+        Table t = new Table (name + "_q" + count++, attribute, domain, key, storage);
+        tuples.forEachOrdered (t::append);
+        tuples.close ();
+        return t;
+    } // toTable
+
+    /************************************************************************************
+     * Close the pipeline, releasing its input without producing any more tuples.
+     */
+    public void close ()
+    {
+        tuples.close ();
+    } // close
+
+    /************************************************************************************
+     * Match the attribute names to determine their column positions.
+     *
+     * @param column  the array of column names
+     * @return  an array of column index positions
+     */
+    private int [] match (String [] column)
+    {
+        int [] colPos = new int [column.length];
+
+        for (int j = 0; j < column.length; j++) {
+            colPos [j] = -1;
+            for (int k = 0; k < attribute.length; k++) {
+                if (column [j].equals (attribute [k])) colPos [j] = k;
+            } // for
+            if (colPos [j] < 0) out.println ("match: domain not found for " + column [j]);
+        } // for
+
+        return colPos;
+    } // match
+
+    /************************************************************************************
+     * Determine whether this query and table2 are compatible, i.e., have the same
+     * number of attributes each with the same corresponding domain.
+     *
+     * @param table2  the rhs table
+     * @return  whether the two are compatible
+     */
+    private boolean compatible (Table table2)
+    {
+        if (! Arrays.equals (domain, table2.getDomain ())) {
+            out.println ("compatible ERROR: query and table have different domains");
+            return false;
+        } // if
+        return true;
+    } // compatible
+
+} // Query class
@@ -0,0 +1,754 @@
+/************************************************************************************
+ * @file StringBpTreeMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * This class provides B+Tree maps specialized for String keys, with the keys in each
+ * node prefix-compressed.  Keys are kept as bytes in an order-preserving encoding
+ * (see encode).  A node stores the prefix its keys share once, and the rest of each
+ * key back to back in a single byte array, so a key costs its distinct suffix and an
+ * offset rather than a String object.  A search compares the key with a node's
+ * prefix once and then binary-searches the suffixes.  When a leaf splits, the
+ * separator posted to its parent is truncated to the shortest prefix of the right
+ * leaf's first key that still separates the two leaves, so internal nodes hold short
+ * keys as well.  Otherwise the tree works like LongBpTreeMap.
+ */
+public class StringBpTreeMap <V>
+       extends AbstractMap <String, V>
+       implements SortedMap <String, V>
+{
+    /** The default maximum fanout for a node.
+     */
+    private static final int ORDER = 128;
+
+    /** An empty byte sequence.
+     */
+    private static final byte [] NONE = new byte [0];
+
+    /** The maximum fanout of this tree's nodes (internal nodes have up to order
+     *  children and leaves up to order - 1 keys).
+     */
+    private final int order;
+
+    /********************************************************************************
+     * This inner class defines nodes.  Key i is prefix followed by the suffix
+     * tail [start (i) .. end [i]).  The arrays have room for one key (and ref) more
+     * than a node may keep, so an insertion goes in place before the overfull node
+     * is split.
+     */
+    private class Node
+    {
+        final boolean   isLeaf;
+        int             nKeys;
+        byte []         prefix = NONE;
+        byte []         tail   = NONE;
+        final int []    end;
+        final Object [] ref;
+        Node            right;
+
+        Node (boolean _isLeaf)
+        {
+            isLeaf = _isLeaf;
+            end    = new int [order];
+            ref    = new Object [order + 1];
+        } // constructor
+    } // Node inner class
+
+    /** The root of the B+Tree.
+     */
+    private Node root;
+
+    /** The number of keys in the B+Tree.
+     */
+    private int size = 0;
+
+    /** The internal nodes on the path from the root to the current leaf, and the
+     *  child taken at each (reused by put).
+     */
+    private Object [] path = new Object [8];
+    private int [] slot = new int [8];
+
+    /********************************************************************************
+     * Construct an empty B+Tree map with the default fanout.
+     */
+    public StringBpTreeMap ()
+    {
+        this (ORDER);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty B+Tree map whose nodes have the given maximum fanout.
+     *
+     * @param _order  the maximum fanout (at least 3)
+     */
+    public StringBpTreeMap (int _order)
+    {
+        if (_order < 3) throw new IllegalArgumentException ("StringBpTreeMap: order must be at least 3");
+        order = _order;
+        root  = new Node (true);
+    } // constructor
+
+    /********************************************************************************
+     * Return null to use the natural order of the keys.
+     */
+    public Comparator <? super String> comparator ()
+    {
+        return null;
+    } // comparator
+
+    /********************************************************************************
+     * Return the number of keys in the map.
+     *
+     * @return  the number of keys
+     */
+    public int size ()
+    {
+        return size;
+    } // size
+
+    /********************************************************************************
+     * Return a set view of the entries, in ascending key order (a lazy walk along
+     * the leaves).
+     *
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <String, V>> entrySet ()
+    {
+        return new AbstractSet <Map.Entry <String, V>> () {
+            public Iterator <Map.Entry <String, V>> iterator () { return cursor (null, true, null, false); }
+            public int size () { return size; }
+        };
+    } // entrySet
+
+    /********************************************************************************
+     * Given the key, look up the value in the B+Tree map.
+     *
+     * @param key  the key used for look up
+     * @return  the value associated with the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get (Object key)
+    {
+        if (! (key instanceof String)) return null;
+        byte [] k = encode ((String) key);
+        Node n = root;
+        while (! n.isLeaf) n = (Node) n.ref [upper (n, k)];
+        if (outside (n, k) >= 0) return null;
+        int i = lower (n, k);
+        return (i < n.nKeys && Arrays.equals (n.tail, start (n, i), n.end [i], k, n.prefix.length, k.length))
+               ? (V) n.ref [i] : null;
+    } // get
+
+    /********************************************************************************
+     * Determine whether the map holds the given key.
+     *
+     * @param key  the key to look for
+     * @return  whether the key is present
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Put the key-value pair in the B+Tree map, replacing the value of an existing
+     * key.  The descent is iterative and remembers the path, so splits propagate
+     * upward without recursion or parent pointers.
+     *
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for the key, or null if it was absent
+     */
+    @SuppressWarnings("unchecked")
+    public V put (String key, V value)
+    {
+        byte [] k = encode (key);
+        int  depth = 0;
+        Node n     = root;
+        while (! n.isLeaf) {
+            int i = upper (n, k);
+            if (depth == path.length) {
+                path = Arrays.copyOf (path, 2 * depth);
+                slot = Arrays.copyOf (slot, 2 * depth);
+            } // if
+            path [depth]   = n;
+            slot [depth++] = i;
+            n = (Node) n.ref [i];
+        } // while
+
+        int i = lower (n, k);
+        if (i < n.nKeys && outside (n, k) < 0
+                        && Arrays.equals (n.tail, start (n, i), n.end [i], k, n.prefix.length, k.length)) {
+            V old = (V) n.ref [i];
+            n.ref [i] = value;
+            while (depth > 0) path [--depth] = null;
+            return old;
+        } // if
+        wedge (n, i, k, value);
+        size++;
+        if (n.nKeys < order) {
+            while (depth > 0) path [--depth] = null;
+            return null;
+        } // if
+
+        byte [][] all = keys (n);                               // split the leaf
+        int  keep  = n.nKeys / 2;
+        Node right = new Node (true);
+        System.arraycopy (n.ref, keep, right.ref, 0, n.nKeys - keep);
+        Arrays.fill (n.ref, keep, n.nKeys, null);
+        pack (n, all, 0, keep);
+        pack (right, all, keep, all.length);
+        right.right = n.right;
+        n.right     = right;
+        byte [] sep = separator (all [keep - 1], all [keep]);
+
+        while (depth > 0) {
+            Node p = (Node) path [--depth];
+            path [depth] = null;
+            wedge (p, slot [depth], sep, right);
+            if (p.nKeys < order) {
+                while (depth > 0) path [--depth] = null;
+                return null;
+            } // if
+            all = keys (p);                                     // split the internal node:
+            int mid = p.nKeys / 2;                              // key mid moves up
+            Node r  = new Node (false);
+            System.arraycopy (p.ref, mid + 1, r.ref, 0, p.nKeys - mid);
+            Arrays.fill (p.ref, mid + 1, p.nKeys + 1, null);
+            pack (p, all, 0, mid);
+            pack (r, all, mid + 1, all.length);
+            sep   = all [mid];
+            right = r;
+        } // while
+
+        Node r = new Node (false);                              // the root split: grow a level
+        pack (r, new byte [][] { sep }, 0, 1);
+        r.ref [0] = root;
+        r.ref [1] = right;
+        root      = r;
+        return null;
+    } // put
+
+    /********************************************************************************
+     * Return the first (smallest) key in the map.
+     *
+     * @return  the first key
+     */
+    public String firstKey ()
+    {
+        if (size == 0) throw new NoSuchElementException ();
+        Node n = root;
+        while (! n.isLeaf) n = (Node) n.ref [0];
+        return decode (key (n, 0));
+    } // firstKey
+
+    /********************************************************************************
+     * Return the last (largest) key in the map.
+     *
+     * @return  the last key
+     */
+    public String lastKey ()
+    {
+        if (size == 0) throw new NoSuchElementException ();
+        Node n = root;
+        while (! n.isLeaf) n = (Node) n.ref [n.nKeys];
+        return decode (key (n, n.nKeys - 1));
+    } // lastKey
+
+    /********************************************************************************
+     * Return a lazy view of the portion of the map where key < toKey.
+     *
+     * @param toKey  the upper bound (exclusive)
+     * @return  the range view
+     */
+    public SortedMap <String, V> headMap (String toKey)
+    {
+        return new SubMap (null, toKey);
+    } // headMap
+
+    /********************************************************************************
+     * Return a lazy view of the portion of the map where fromKey <= key.
+     *
+     * @param fromKey  the lower bound (inclusive)
+     * @return  the range view
+     */
+    public SortedMap <String, V> tailMap (String fromKey)
+    {
+        return new SubMap (fromKey, null);
+    } // tailMap
+
+    /********************************************************************************
+     * Return a lazy view of the portion of the map where fromKey <= key < toKey.
+     *
+     * @param fromKey  the lower bound (inclusive)
+     * @param toKey    the upper bound (exclusive)
+     * @return  the range view
+     */
+    public SortedMap <String, V> subMap (String fromKey, String toKey)
+    {
+        return new SubMap (fromKey, toKey);
+    } // subMap
+
+    /********************************************************************************
+     * Open a cursor for a streaming range scan over the keys between lo and hi (a
+     * null bound is unbounded).  The cursor descends once to the leaf where the range
+     * starts and then follows the right sibling links.
+     *
+     * @param lo           the lower bound (or null)
+     * @param loInclusive  whether a key equal to lo is in the range
+     * @param hi           the upper bound (or null)
+     * @param hiInclusive  whether a key equal to hi is in the range
+     * @return  the cursor, positioned before the first key in the range
+     */
+    public Cursor cursor (String lo, boolean loInclusive, String hi, boolean hiInclusive)
+    {
+        return new Cursor ((lo == null) ? null : encode (lo), loInclusive, (hi == null) ? null : encode (hi), hiInclusive);
+    } // cursor
+
+    /********************************************************************************
+     * This inner class is a cursor over a range of keys in ascending order.  Besides
+     * iterating over entries, it streams just the values (nextValue), which skips
+     * decoding the keys.
+     */
+    public class Cursor
+           implements Iterator <Map.Entry <String, V>>
+    {
+        private final byte [] hi;
+        private final boolean hiInclusive;
+        private Node leaf;
+        private int  i;
+
+        Cursor (byte [] lo, boolean loInclusive, byte [] _hi, boolean _hiInclusive)
+        {
+            hi          = _hi;
+            hiInclusive = _hiInclusive;
+            leaf        = root;
+            while (! leaf.isLeaf) leaf = (Node) leaf.ref [(lo == null) ? 0 : upper (leaf, lo)];
+            i = (lo == null) ? 0 : loInclusive ? lower (leaf, lo) : upper (leaf, lo);
+            settle ();
+        } // constructor
+
+        /** Move to the next leaf when this one is used up, and stop past hi. */
+        private void settle ()
+        {
+            while (leaf != null && i >= leaf.nKeys) { leaf = leaf.right; i = 0; }
+            if (leaf != null && hi != null) {
+                int cmp = compare (leaf, i, hi);
+                if (cmp > 0 || (cmp == 0 && ! hiInclusive)) leaf = null;
+            } // if
+        } // settle
+
+        public boolean hasNext () { return leaf != null; }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry <String, V> next ()
+        {
+            if (leaf == null) throw new NoSuchElementException ();
+            Map.Entry <String, V> e = new AbstractMap.SimpleImmutableEntry <> (decode (key (leaf, i)), (V) leaf.ref [i]);
+            i++;
+            settle ();
+            return e;
+        } // next
+
+        /** Return the value of the next key in the range, advancing the cursor. */
+        @SuppressWarnings("unchecked")
+        public V nextValue ()
+        {
+            if (leaf == null) throw new NoSuchElementException ();
+            V v = (V) leaf.ref [i++];
+            settle ();
+            return v;
+        } // nextValue
+    } // Cursor inner class
+
+    /********************************************************************************
+     * This inner class is a lazy view of the keys in [lo, hi) (a null bound is
+     * unbounded), backed by the tree.
+     */
+    private class SubMap
+            extends AbstractMap <String, V>
+            implements SortedMap <String, V>
+    {
+        private final String lo, hi;
+
+        SubMap (String _lo, String _hi)
+        {
+            lo = _lo;
+            hi = _hi;
+        } // constructor
+
+        private boolean inRange (Object key)
+        {
+            String k = (String) key;
+            return (lo == null || k.compareTo (lo) >= 0) && (hi == null || k.compareTo (hi) < 0);
+        } // inRange
+
+        public Comparator <? super String> comparator () { return null; }
+
+        public V get (Object key)
+        {
+            return (key instanceof String && inRange (key)) ? StringBpTreeMap.this.get (key) : null;
+        } // get
+
+        public boolean containsKey (Object key) { return get (key) != null; }
+
+        public V put (String key, V value)
+        {
+            if (! inRange (key)) throw new IllegalArgumentException ("key out of range: " + key);
+            return StringBpTreeMap.this.put (key, value);
+        } // put
+
+        public Set <Map.Entry <String, V>> entrySet ()
+        {
+            return new AbstractSet <Map.Entry <String, V>> () {
+                public Iterator <Map.Entry <String, V>> iterator () { return cursor (lo, true, hi, false); }
+                public int size ()
+                {
+                    int n = 0;
+                    for (Cursor c = cursor (lo, true, hi, false); c.hasNext (); c.nextValue ()) n++;
+                    return n;
+                } // size
+            };
+        } // entrySet
+
+        public String firstKey ()
+        {
+            Cursor c = cursor (lo, true, hi, false);
+            if (! c.hasNext ()) throw new NoSuchElementException ();
+            return c.next ().getKey ();
+        } // firstKey
+
+        public String lastKey ()
+        {
+            String last = null;
+            for (Cursor c = cursor (lo, true, hi, false); c.hasNext (); ) last = c.next ().getKey ();
+            if (last == null) throw new NoSuchElementException ();
+            return last;
+        } // lastKey
+
+        public SortedMap <String, V> subMap (String from, String to) { return new SubMap (max (lo, from), min (hi, to)); }
+
+        public SortedMap <String, V> headMap (String to) { return new SubMap (lo, min (hi, to)); }
+
+        public SortedMap <String, V> tailMap (String from) { return new SubMap (max (lo, from), hi); }
+
+        /** Return the larger of two lower bounds (null is unbounded). */
+        private String max (String a, String b)
+        {
+            return (a == null) ? b : (b == null || a.compareTo (b) >= 0) ? a : b;
+        } // max
+
+        /** Return the smaller of two upper bounds (null is unbounded). */
+        private String min (String a, String b)
+        {
+            return (a == null) ? b : (b == null || a.compareTo (b) <= 0) ? a : b;
+        } // min
+    } // SubMap inner class
+
+    /********************************************************************************
+     * Encode a string as bytes whose unsigned lexicographic order is the order of
+     * the strings (String.compareTo): each char becomes 1, 2 or 3 bytes as in UTF-8,
+     * but chars are encoded one at a time (surrogates separately) and char 0 as a
+     * single zero byte, so the encoding is monotone in each char.  ASCII strings are
+     * encoded as is.
+     *
+     * @param s  the string to encode
+     * @return  its bytes
+     */
+    static byte [] encode (String s)
+    {
+        int n = s.length (), len = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt (i);
+            if (c >= 0x80) len += (c >= 0x800) ? 2 : 1;
+        } // for
+        if (len == n) return s.getBytes (StandardCharsets.ISO_8859_1);
+
+        byte [] b = new byte [len];
+        for (int i = 0, j = 0; i < n; i++) {
+            char c = s.charAt (i);
+            if (c < 0x80) {
+                b [j++] = (byte) c;
+            } else if (c < 0x800) {
+                b [j++] = (byte) (0xc0 | c >> 6);
+                b [j++] = (byte) (0x80 | c & 0x3f);
+            } else {
+                b [j++] = (byte) (0xe0 | c >> 12);
+                b [j++] = (byte) (0x80 | c >> 6 & 0x3f);
+                b [j++] = (byte) (0x80 | c & 0x3f);
+            } // if
+        } // for
+        return b;
+    } // encode
+
+    /********************************************************************************
+     * Decode bytes made by encode back into the string.
+     *
+     * @param b  the bytes
+     * @return  the string
+     */
+    static String decode (byte [] b)
+    {
+        char [] c = new char [b.length];
+        int n = 0;
+        for (int j = 0; j < b.length; ) {
+            int x = b [j++] & 0xff;
+            if (x < 0x80)      c [n++] = (char) x;
+            else if (x < 0xe0) c [n++] = (char) ((x & 0x1f) << 6 | b [j++] & 0x3f);
+            else { c [n++] = (char) ((x & 0x0f) << 12 | (b [j] & 0x3f) << 6 | b [j + 1] & 0x3f); j += 2; }
+        } // for
+        return new String (c, 0, n);
+    } // decode
+
+    /********************************************************************************
+     * Return the shortest prefix of key b that is greater than key a (where a < b),
+     * which separates a leaf ending with a from one starting with b.
+     */
+    private static byte [] separator (byte [] a, byte [] b)
+    {
+        return Arrays.copyOf (b, Arrays.mismatch (a, b) + 1);
+    } // separator
+
+    /********************************************************************************
+     * Return where key i's suffix starts in node n's tail.
+     */
+    private static int start (StringBpTreeMap <?>.Node n, int i)
+    {
+        return (i == 0) ? 0 : n.end [i - 1];
+    } // start
+
+    /********************************************************************************
+     * Return key i of node n in full (prefix and suffix).
+     */
+    private byte [] key (Node n, int i)
+    {
+        int p = n.prefix.length, s = start (n, i);
+        byte [] k = Arrays.copyOf (n.prefix, p + n.end [i] - s);
+        System.arraycopy (n.tail, s, k, p, n.end [i] - s);
+        return k;
+    } // key
+
+    /********************************************************************************
+     * Return all the keys of node n in full.
+     */
+    private byte [][] keys (Node n)
+    {
+        byte [][] all = new byte [n.nKeys][];
+        for (int i = 0; i < n.nKeys; i++) all [i] = key (n, i);
+        return all;
+    } // keys
+
+    /********************************************************************************
+     * Fill node n with the keys from..to - 1 (in ascending order): its prefix becomes
+     * the prefix they all share (that of the first and the last) and the rest of each
+     * key is packed into a tail of just the needed size.
+     */
+    private void pack (Node n, byte [][] keys, int from, int to)
+    {
+        byte [] first = keys [from], last = keys [to - 1];
+        int m = Arrays.mismatch (first, last);
+        int p = (m < 0) ? first.length : m;
+        int total = 0;
+        for (int j = from; j < to; j++) total += keys [j].length - p;
+        n.prefix = Arrays.copyOf (first, p);
+        n.tail   = new byte [total];
+        int at = 0;
+        for (int j = from; j < to; j++) {
+            int len = keys [j].length - p;
+            System.arraycopy (keys [j], p, n.tail, at, len);
+            n.end [j - from] = at += len;
+        } // for
+        n.nKeys = to - from;
+    } // pack
+
+    /********************************************************************************
+     * Shorten node n's prefix to its first m bytes, moving the rest of the old prefix
+     * to the front of every suffix (needed before adding a key that does not share
+     * the whole prefix).
+     */
+    private void widen (Node n, int m)
+    {
+        int x = n.prefix.length - m;
+        byte [] t = new byte [start (n, n.nKeys) + n.nKeys * x];
+        int from = 0, at = 0;
+        for (int i = 0; i < n.nKeys; i++) {
+            System.arraycopy (n.prefix, m, t, at, x);
+            System.arraycopy (n.tail, from, t, at + x, n.end [i] - from);
+            at  += x + n.end [i] - from;
+            from = n.end [i];
+            n.end [i] = at;
+        } // for
+        n.prefix = Arrays.copyOf (n.prefix, m);
+        n.tail   = t;
+    } // widen
+
+    /********************************************************************************
+     * Insert a key and ref at position i of node n (for an internal node the ref is
+     * the child to the right of the key).
+     */
+    private void wedge (Node n, int i, byte [] k, Object ref)
+    {
+        int p = n.prefix.length;
+        int m = Arrays.mismatch (k, 0, Math.min (k.length, p), n.prefix, 0, p);
+        if (m >= 0) {
+            widen (n, m);
+            p = m;
+        } // if
+        int len  = k.length - p;
+        int at   = start (n, i);
+        int used = start (n, n.nKeys);
+        if (used + len > n.tail.length) n.tail = Arrays.copyOf (n.tail, Math.max (used + len, n.tail.length * 3 / 2));
+        System.arraycopy (n.tail, at, n.tail, at + len, used - at);
+        System.arraycopy (k, p, n.tail, at, len);
+        for (int j = n.nKeys; j > i; j--) n.end [j] = n.end [j - 1] + len;
+        n.end [i] = at + len;
+        if (n.isLeaf) {
+            System.arraycopy (n.ref, i, n.ref, i + 1, n.nKeys - i);
+            n.ref [i] = ref;
+        } else {
+            System.arraycopy (n.ref, i + 1, n.ref, i + 2, n.nKeys - i);
+            n.ref [i + 1] = ref;
+        } // if
+        n.nKeys++;
+    } // wedge
+
+    /********************************************************************************
+     * Return -1 if key k starts with node n's prefix (so it must be compared with the
+     * suffixes), otherwise the position k has among the node's keys: 0 if it is below
+     * them all, nKeys if above.
+     */
+    private static int outside (StringBpTreeMap <?>.Node n, byte [] k)
+    {
+        byte [] p = n.prefix;
+        int m = Arrays.mismatch (k, 0, Math.min (k.length, p.length), p, 0, p.length);
+        if (m < 0) return -1;
+        return (m == k.length || (k [m] & 0xff) < (p [m] & 0xff)) ? 0 : n.nKeys;
+    } // outside
+
+    /********************************************************************************
+     * Compare key i of node n with key k.
+     */
+    private int compare (Node n, int i, byte [] k)
+    {
+        int o = outside (n, k);
+        if (o >= 0) return (o == 0) ? 1 : -1;
+        return Arrays.compareUnsigned (n.tail, start (n, i), n.end [i], k, n.prefix.length, k.length);
+    } // compare
+
+    /********************************************************************************
+     * Return the position of the first key in node n that is >= k.
+     */
+    private int lower (Node n, byte [] k)
+    {
+        int o = outside (n, k);
+        if (o >= 0) return o;
+        int p = n.prefix.length, lo = 0, hi = n.nKeys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned (n.tail, start (n, mid), n.end [mid], k, p, k.length) < 0) lo = mid + 1;
+            else                                                                                 hi = mid;
+        } // while
+        return lo;
+    } // lower
+
+    /********************************************************************************
+     * Return the position of the first key in node n that is > k, which for an
+     * internal node is the child to descend into.
+     */
+    private int upper (Node n, byte [] k)
+    {
+        int o = outside (n, k);
+        if (o >= 0) return o;
+        int p = n.prefix.length, lo = 0, hi = n.nKeys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned (n.tail, start (n, mid), n.end [mid], k, p, k.length) <= 0) lo = mid + 1;
+            else                                                                                  hi = mid;
+        } // while
+        return lo;
+    } // upper
+
+    /********************************************************************************
+     * The main method used for testing.
+     * @param  the command-line arguments (args [0] gives number of keys to insert)
+     */
+    public static void main (String [] args)
+    {
+        int nKeys = (args.length == 1) ? Integer.valueOf (args [0]) : 100000;
+        StringBpTreeMap <Integer> bpt = new StringBpTreeMap <> ();
+        for (int i = 1; i < nKeys; i += 2) bpt.put ("crsCode" + i, i);
+        int found = 0;
+        for (int i = 0; i < nKeys; i++) if (bpt.get ("crsCode" + i) != null) found++;
+        out.println ("keys = " + bpt.size () + ", found = " + found);
+        out.println ("subMap (crsCode100, crsCode101) = " + bpt.subMap ("crsCode100", "crsCode101").keySet ());
+
+        for (int order : new int [] { 3, 4, 5, 16, 128 }) {
+            out.println ("randomized check, order " + order + ": " + randomCheck (order, 100000) + " errors");
+        } // for
+    } // main
+
+    /********************************************************************************
+     * Check the tree against a TreeMap under a random mix of put and get on keys
+     * built from pieces that stress the byte encoding: char 0, characters taking two,
+     * three and four (surrogate pairs) UTF-8 bytes, the largest char, and pieces that
+     * are prefixes of one another.  Then the entries, first/last keys and range views
+     * (with bounds that are and are not keys) are compared, and the encoding is
+     * checked to preserve String order and to decode back to the key.
+     *
+     * @param order  the order of the tree to check
+     * @param steps  the number of random operations
+     * @return  the number of disagreements found
+     */
+    static int randomCheck (int order, int steps)
+    {
+        String [] piece = { "", "\0", "\0\0", "a", "a\0", "ab", "b", "z", "zz", "crsCode", "crsCode1",
+                            "\u00e9", "\u07ff", "\u0800", "\uffff", "\ud83d\ude00", "\ud83d\ude01x" };
+        Random rand = new Random (order);
+        StringBpTreeMap <Integer> bpt = new StringBpTreeMap <> (order);
+        TreeMap <String, Integer> tm = new TreeMap <> ();
+        int errors = 0;
+
+        for (String k : piece) {                                   // every edge case on its own
+            if (! Objects.equals (bpt.put (k, -1), tm.put (k, -1))) errors++;
+        } // for
+        for (int step = 0; step < steps; step++) {
+            StringBuilder sb = new StringBuilder ();
+            for (int j = rand.nextInt (4); j > 0; j--) sb.append (piece [rand.nextInt (piece.length)]);
+            if (rand.nextBoolean ()) sb.append (rand.nextInt (1000));
+            String k = sb.toString ();
+            if (rand.nextInt (3) > 0) {
+                if (! Objects.equals (bpt.put (k, step), tm.put (k, step))) errors++;
+            } else {
+                if (! Objects.equals (bpt.get (k), tm.get (k))) errors++;
+            } // if
+            if (bpt.size () != tm.size ()) errors++;
+        } // for
+
+        if (! new ArrayList <> (bpt.entrySet ()).equals (new ArrayList <> (tm.entrySet ()))) errors++;
+        if (! bpt.firstKey ().equals (tm.firstKey ()) || ! bpt.lastKey ().equals (tm.lastKey ())) errors++;
+        List <String> keys = new ArrayList <> (tm.keySet ());
+        for (int q = 0; q < 2000; q++) {
+            String lo = keys.get (rand.nextInt (keys.size ())), hi = keys.get (rand.nextInt (keys.size ()));
+            if (rand.nextInt (4) == 0) lo = lo + "\u0001";             // a bound that is not a key
+            if (lo.compareTo (hi) > 0) { String t = lo; lo = hi; hi = t; }
+            if (! new ArrayList <> (bpt.subMap (lo, hi).entrySet ()).equals (new ArrayList <> (tm.subMap (lo, hi).entrySet ()))) errors++;
+            if (! new ArrayList <> (bpt.headMap (lo).keySet ()).equals (new ArrayList <> (tm.headMap (lo).keySet ()))) errors++;
+            if (! new ArrayList <> (bpt.tailMap (hi).keySet ()).equals (new ArrayList <> (tm.tailMap (hi).keySet ()))) errors++;
+            if (bpt.subMap (lo, hi).size () != tm.subMap (lo, hi).size ()) errors++;
+        } // for
+        for (int q = 0; q < 20000; q++) {
+            String x = keys.get (rand.nextInt (keys.size ())), y = keys.get (rand.nextInt (keys.size ()));
+            if (Integer.signum (x.compareTo (y)) != Integer.signum (Arrays.compareUnsigned (encode (x), encode (y)))) errors++;
+            if (! decode (encode (x)).equals (x)) errors++;
+        } // for
+        return errors;
+    } // randomCheck
+
+} // StringBpTreeMap class
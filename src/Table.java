@@ -8,7 +8,10 @@
 
 import java.io.*;
 import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
 import java.util.stream.*;
 
@@ -31,10 +34,30 @@ public class Table implements Serializable
      */
     private static final String EXT = ".dbf";
 
+    /** Filename extension for write-ahead log files
+     */
+    private static final String LOG = ".wal";
+
+    /** Filename extension for disk-resident index files
+     */
+    private static final String IDX = ".idx";
+
+    /** Default maximum length in bytes of a String key column in a disk-resident index.
+     */
+    private static final int KEY_BYTES = 128;
+
     /** Counter for naming temporary tables.
      */
     private static int count = 0;
 
+    /** Number of tuples below which parallel operators run sequentially.
+     */
+    static int PAR_THRESHOLD = 10000;
+
+    /** Fork/join pools shared by parallel operators, one per degree of parallelism.
+     */
+    private static final Map <Integer, ForkJoinPool> pools = new HashMap <> ();
+
     /** Table name.
      */
     private final String name;
@@ -58,9 +81,53 @@ public class Table implements Serializable
      */
     private final String [] key;
 
-    /** Index into tuples (maps key to tuple number).
+    /** Column positions of the primary key attributes (resolved once).
+     */
+    private final int [] keyPos;
+
+    /** Index into tuples (maps key to tuple number), or null while it has not been
+     *  built for a table opened from a mapped file (see index ()).
+     */
+    private Map <KeyType, Integer> index;
+
+    /** Whether every tuple can be reached through the index under its own key
+     *  (i.e., the index was built for all tuples and no key is duplicated).
+     */
+    private boolean keyed;
+
+    /** Maximum length in bytes of a String key column in the disk-resident index
+     *  (widened to the longest key when a key does not fit, see index ()).
      */
-    private final Map <String, Comparable []> index;
+    private int keyBytes = KEY_BYTES;
+
+    /** Storage layout used for the tuples (row-wise or column-wise).
+     */
+    private final Storage storage;
+
+    /** Per-block min/max summaries of the columns, used to skip blocks in range
+     *  selections (null until first needed, see zones ()).
+     */
+    private transient ZoneMap zones;
+
+    /** Write-ahead log that inserts are recorded to (null unless logging is on).
+     */
+    private transient WriteAheadLog wal;
+
+    /** Number of logged inserts between automatic checkpoints.
+     */
+    private int checkpointInterval;
+
+    /** Number of logged inserts since the last checkpoint.
+     */
+    private int sinceCheckpoint;
+
+    /************************************************************************************
+     * The storage layouts available for a table's tuples.  ROW keeps each tuple as a
+     * Comparable array, while COLUMN keeps one primitive array per column (see
+     * ColumnStore) and materializes tuples on access.  The tables returned by the
+     * operators have the layout of their source (for joins, of the left table).
+     */
+    public enum Storage { ROW, COLUMN }
     
 
     //----------------------------------------------------------------------------------
@@ -76,17 +143,32 @@ public class Table implements Serializable
      * @param _key        the primary key
      */  
     public Table (String _name, String [] _attribute, Class [] _domain, String [] _key)
+    {
+        this (_name, _attribute, _domain, _key, Storage.ROW);
+    } // constructor
+
+    /************************************************************************************
+     * Construct an empty table from the meta-data specifications using the given
+     * storage layout.
+     *
+     * @param _name       the name of the relation
+     * @param _attribute  the string containing attributes names
+     * @param _domain     the string containing attribute domains (data types)
+     * @param _key        the primary key
+     * @param _storage    the storage layout (ROW or COLUMN)
+     */  
+    public Table (String _name, String [] _attribute, Class [] _domain, String [] _key,
+                  Storage _storage)
     {
         name      = _name;
         attribute = _attribute;
         domain    = _domain;
         key       = _key;
-        tuples    = new ArrayList <> ();        
-        /* Adjust the index based on which map you want to use*/
-        //index = new LinHashMap<> (String.class,Comparable[].class,11); 
-       index     = new TreeMap <> ();       
-       //index	  = new BpTreeMap<> (String.class, Comparable[].class); 
-       //index = new ExtHashMap<> (String.class, Comparable[].class, 1024);
+        storage   = _storage;
+        tuples    = (storage == Storage.COLUMN) ? new ColumnStore (domain) : new ArrayList <> ();
+        keyPos    = match (key);
+        index     = makeIndex ();
+        keyed     = true;
     } // constructor
 
     /************************************************************************************
@@ -106,12 +188,45 @@ public class Table implements Serializable
         domain    = _domain;
         key       = _key;
         tuples    = _tuples;
-        /* Adjust the index based on which map you want to just */
-        //index = new LinHashMap<> (String.class,Comparable[].class,11); 
-        index     = new TreeMap <> ();       
-        //index	  = new BpTreeMap<> (String.class, Comparable[].class); 
-        //index = new ExtHashMap<> (String.class, Comparable[].class, 1024);
-        } // constructor
+        storage   = (_tuples instanceof ColumnStore) ? Storage.COLUMN : Storage.ROW;
+        keyPos    = match (key);
+        index     = makeIndex ();
+        keyed     = _tuples.isEmpty ();                  // the given tuples are not indexed
+    } // constructor
+
+    /************************************************************************************
+     * Construct a table holding the given rows in the given storage layout (used by the
+     * operators to give their results the layout of their source table).
+     *
+     * @param _name       the name of the relation
+     * @param _attribute  the string containing attributes names
+     * @param _domain     the string containing attribute domains (data types)
+     * @param _key        the primary key
+     * @param rows        the list of tuples containing the data
+     * @param _storage    the storage layout (ROW or COLUMN)
+     */
+    private Table (String _name, String [] _attribute, Class [] _domain, String [] _key,
+                   List <Comparable []> rows, Storage _storage)
+    {
+        this (_name, _attribute, _domain, _key, stored (rows, _domain, _storage));
+    } // constructor
+
+    /************************************************************************************
+     * Return the given rows in the given storage layout, copying them into a column
+     * store for the COLUMN layout.
+     *
+     * @param rows      the list of tuples
+     * @param _domain   the domains of the columns
+     * @param _storage  the storage layout (ROW or COLUMN)
+     * @return  the tuples in the requested layout
+     */
+    private static List <Comparable []> stored (List <Comparable []> rows, Class [] _domain, Storage _storage)
+    {
+        if (_storage != Storage.COLUMN) return rows;
+        ColumnStore cols = new ColumnStore (_domain);
+        cols.addAll (rows);
+        return cols;
+    } // stored
 
     /************************************************************************************
      * Construct an empty table from the raw string specifications.
@@ -127,6 +242,22 @@ public class Table implements Serializable
         out.println ("DDL> create table " + name + " (" + attributes + ")");
     } // constructor
 
+    /************************************************************************************
+     * Construct an empty table from the raw string specifications using the given
+     * storage layout.
+     *
+     * @param name        the name of the relation
+     * @param attributes  the string containing attributes names
+     * @param domains     the string containing attribute domains (data types)
+     * @param _storage    the storage layout (ROW or COLUMN)
+     */
+    public Table (String name, String attributes, String domains, String _key, Storage _storage)
+    {
+        this (name, attributes.split (" "), findClass (domains.split (" ")), _key.split(" "), _storage);
+
+        out.println ("DDL> create " + _storage + " table " + name + " (" + attributes + ")");
+    } // constructor
+
     //----------------------------------------------------------------------------------
     // Public Methods
     //----------------------------------------------------------------------------------
@@ -174,11 +305,10 @@ public class Table implements Serializable
         	
         }
   
-        List <Comparable []> rows2 = new ArrayList <> ();
-        Table t = new Table (name + count++, attrs, colDomain, newKey, rows2);
+        Table t = new Table (name + count++, attrs, colDomain, newKey, storage);
         for (int i = 0; i<rows.size(); i++){
-        	//t.insert will automatically add that value to the table's index as well
-        	t.insert(rows.get(i));
+        	//t.append will automatically add that value to the table's index as well
+        	t.append(rows.get(i));
         }
         return t;     
     } // project
@@ -207,15 +337,59 @@ public class Table implements Serializable
         }
         //return a new table with the selected rows and updated index
         //Worth noting that if the list of rows is empty, the new table will still be returned, but with no rows
-        List <Comparable []> rows2 = new ArrayList <> ();
-        Table t = new Table (name + count++, attribute, domain, key, rows2);
+        Table t = new Table (name + count++, attribute, domain, key, storage);
         for (int i = 0; i<rows.size(); i++){
-        	//t.insert will automatically add that value to the table's index as well
-        	t.insert(rows.get(i));
+        	//t.append will automatically add that value to the table's index as well
+        	t.append(rows.get(i));
         }
         return t;
     } // select
 
+    /************************************************************************************
+     * Select the tuples satisfying the given predicate using several threads.  The
+     * tuples are split into chunks that are scanned in parallel on a fork/join pool,
+     * and the chunk results are concatenated in chunk order, so the result keeps the
+     * tuples in the same order as select (predicate).  Tables smaller than
+     * PAR_THRESHOLD are scanned sequentially.
+     *
+     * #usage student.select (t -> t[student.col("status")].equals ("status202834"), 8)
+     *
+     * @param predicate    the check condition for tuples
+     * @param parallelism  the number of threads to scan with
+     * @return  a table with tuples satisfying the predicate
+     */
+    public Table select (Predicate <Comparable []> predicate, int parallelism)
+    {
+        if (parallelism <= 1 || tuples.size () < PAR_THRESHOLD) return select (predicate);
+
+        out.println ("RA> " + name + ".select (" + predicate + ", " + parallelism + " threads)");
+
+        int n      = tuples.size ();
+        int chunk  = Math.max (PAR_THRESHOLD / 4, n / (4 * parallelism));
+        int nParts = (n + chunk - 1) / chunk;
+        List <List <Comparable []>> parts = new ArrayList <> (Collections.nCopies (nParts, null));
+
+        List <Callable <Object>> scans = new ArrayList <> (nParts);
+        for (int c = 0; c < nParts; c++) {
+            int part = c, lo = c * chunk, hi = Math.min (n, lo + chunk);
+            scans.add (Executors.callable (() -> {
+                List <Comparable []> rows = new ArrayList <> ();
+                for (int i = lo; i < hi; i++) {
+                    Comparable [] tup = tuples.get (i);
+                    if (predicate.test (tup)) rows.add (tup);
+                } // for
+                parts.set (part, rows);
+            }));
+        } // for
+        runAll (parallelism, scans);
+
+        Table t = new Table (name + count++, attribute, domain, key, storage);
+        for (List <Comparable []> rows : parts) {
+            for (Comparable [] tup : rows) t.append (tup);
+        } // for
+        return t;
+    } // select
+
    /*
     /************************************************************************************
      * Select the tuples satisfying the given predicate (Integer function).
@@ -238,6 +412,7 @@ public class Table implements Serializable
      * Select the tuples that are in between lower bound and upper bound.
      * ex:lowerBound <= studentId <= upperBound
      * Select the tuples satisfying the given key predicate (v1<=id & id<=v2).
+     * Blocks whose zone map summary of id lies outside the range are skipped.
      *
      * #usage movie.select (int lowerBound, int upperBound)
      *
@@ -248,39 +423,84 @@ public class Table implements Serializable
     public Table select (int lowerBound, int upperBound)
     {
         out.println ("RA> " + name + ".select ("+lowerBound+"<=id<="+upperBound+")");
-        
-        //Initialize the new list
-        List <Comparable []> rows = new ArrayList <> ();
-        //Loop through our current list of tuples
-       for (int i = 0; i<tuples.size(); i++){
-        	//If the tuple in btwn, we want to add it to the new list of rows/tuples
-     /*   	if(((tuples.get(i)[col("id")].compareTo(lowerBound)==0)||(tuples.get(i)[col("id")].compareTo(lowerBound)==1))&&
-        	((tuples.get(i)[col("id")].compareTo(upperBound)==0)||(tuples.get(i)[col("id")].compareTo(lowerBound)==-1))){//might need have issues b/c doing tuple.compareTo(Int)
-        		rows.add(tuples.get(i));
-        	*/
-        		
-    	   int currentStudentID=(int) tuples.get(i)[col("id")];
-    	   	
-        		if(((currentStudentID>=lowerBound))&&(currentStudentID<=upperBound)){
-        				rows.add(tuples.get(i));        	        		        		
-        	}//else do nothing
-        }
-        //return a new table with the selected rows and updated index
-        //Worth noting that if the list of rows is empty, the new table will still be returned, but with no rows
-        List <Comparable []> rows2 = new ArrayList <> ();
-        Table t = new Table (name + count++, attribute, domain, key, rows2);
-        for (int i = 0; i<rows.size(); i++){
-        	//t.insert will automatically add that value to the table's index as well
-        	t.insert(rows.get(i));
-        }
-        return t;
+
+        int c = col ("id");
+        return zoneScan (c, lowerBound, upperBound, t -> {
+            int currentStudentID = (Integer) t [c];
+            return currentStudentID >= lowerBound && currentStudentID <= upperBound;
+        });
+    } // select
+
+    /************************************************************************************
+     * Select the tuples whose value of the given attribute lies in the range
+     * [lowerBound, upperBound].  Blocks of tuples whose zone map summary lies outside
+     * the range are skipped without being read.  The bounds must be of the
+     * attribute's domain.
+     *
+     * #usage movie.selectRange ("year", 1970, 1979)
+     *
+     * @param attr        the attribute to compare
+     * @param lowerBound  the lower bound (inclusive)
+     * @param upperBound  the upper bound (inclusive)
+     * @return  a table with the tuples in the range
+     */
+    @SuppressWarnings("unchecked")
+    public Table selectRange (String attr, Comparable lowerBound, Comparable upperBound)
+    {
+        out.println ("RA> " + name + ".selectRange (" + lowerBound + " <= " + attr + " <= " + upperBound + ")");
+
+        int c = col (attr);
+        if (c < 0) {
+            out.println ("select: attribute " + attr + " not found");
+            return null;
+        } // if
+        return zoneScan (c, lowerBound, upperBound,
+                         t -> t [c].compareTo (lowerBound) >= 0 && t [c].compareTo (upperBound) <= 0);
+    } // selectRange
+
+    /************************************************************************************
+     * Select the tuples whose value of the given attribute compares to the value as
+     * given by the operator (==, !=, <, <=, > or >=).  Blocks of tuples whose zone map
+     * summary shows they cannot satisfy the comparison are skipped without being
+     * read.  The value must be of the attribute's domain.
+     *
+     * #usage movie.select ("year", ">=", 1977)
+     *
+     * @param attr   the attribute to compare
+     * @param op     the comparison operator
+     * @param value  the value to compare with
+     * @return  a table with the tuples satisfying the comparison
+     */
+    @SuppressWarnings("unchecked")
+    public Table select (String attr, String op, Comparable value)
+    {
+        out.println ("RA> " + name + ".select (" + attr + " " + op + " " + value + ")");
+
+        int c = col (attr);
+        if (c < 0) {
+            out.println ("select: attribute " + attr + " not found");
+            return null;
+        } // if
+        switch (op) {
+        case "==": return zoneScan (c, value, value, t -> t [c].compareTo (value) == 0);
+        case "!=": return zoneScan (c, null,  null,  t -> t [c].compareTo (value) != 0);
+        case "<":  return zoneScan (c, null,  value, t -> t [c].compareTo (value) < 0);
+        case "<=": return zoneScan (c, null,  value, t -> t [c].compareTo (value) <= 0);
+        case ">":  return zoneScan (c, value, null,  t -> t [c].compareTo (value) > 0);
+        case ">=": return zoneScan (c, value, null,  t -> t [c].compareTo (value) >= 0);
+        default:
+            out.println ("select: unknown comparison operator " + op);
+            return null;
+        } // switch
     } // select
      
     
     
     /************************************************************************************
      * Select the tuples satisfying the given key predicate (v1<=id & id<=v2).  Use an index
-     * (Map) to retrieve the tuple with the given key value.
+     * (Map) to retrieve the tuple with the given key value.  Ordered indices (SortedMap)
+     * answer the range directly (a B+Tree streams it with a cursor along its
+     * leaves); hashed indices are scanned.
      *
      * @param keyVal  the lower key value limit
      * @param UpperkeyVal the upper key value limit
@@ -288,23 +508,36 @@ public class Table implements Serializable
      */
     public Table select (KeyType keyVal, KeyType UpperkeyVal)
     {        
-		out.println ("RA> " + name + ".select (" + keyVal + ")");
+		out.println ("RA> " + name + ".select (" + keyVal + " <= key <= " + UpperkeyVal + ")");
 		
 		List<Comparable[]> rows = new ArrayList<> ();
 		
-		//index.submap(keyVal, UpperkeyVal);
-		SortedMap resultSub=((SortedMap) index).subMap(keyVal, UpperkeyVal);
-		for (Object e : resultSub.entrySet()){
-			//System.out.println(e);
-			rows.add(index.get(e));
+		if (index () instanceof LongKeyIndex){
+			LongBpTreeMap <Integer>.Cursor c = ((LongKeyIndex) index ()).tree ()
+			        .cursor (LongKeyIndex.toLong (keyVal), true, LongKeyIndex.toLong (UpperkeyVal), true);
+			while (c.hasNext ()) rows.add (tuples.get (c.nextValue ()));
+		}
+		else if (index () instanceof BpTreeMap){
+			BpTreeMap <KeyType, Integer>.Cursor c = ((BpTreeMap <KeyType, Integer>) index ()).cursor (keyVal, true, UpperkeyVal, true);
+			while (c.hasNext ()) rows.add (tuples.get (c.nextValue ()));
+		}
+		else if (index () instanceof SortedMap){
+			SortedMap <KeyType, Integer> resultSub = ((SortedMap <KeyType, Integer>) index ()).subMap(keyVal, UpperkeyVal);
+			for (Integer pos : resultSub.values()){
+				rows.add(tuples.get(pos));
+			}
+			Integer last = index ().get(UpperkeyVal);     // subMap excludes the upper limit
+			if (last != null) rows.add(tuples.get(last));
+		}
+		else{
+			for (Map.Entry <KeyType, Integer> e : index ().entrySet()){
+				if (e.getKey().compareTo(keyVal) >= 0 && e.getKey().compareTo(UpperkeyVal) <= 0){
+					rows.add(tuples.get(e.getValue()));
+				}
+			}
 		}
-	
-		
-		return new Table (name + count++, attribute, domain, key, rows);
-		
-		
 		
-    	
+		return new Table (name + count++, attribute, domain, key, rows, storage);
     } // select
     
     
@@ -322,18 +555,18 @@ public class Table implements Serializable
  
   		out.println ("RA> " + name + ".select (" + keyVal + ")");
 		List<Comparable[]> rows = new ArrayList<> ();
-		String newkey=new String();
-		
-		for (int i = 0; i < keyVal.key.length; i++)
-			newkey = newkey + keyVal.key[i];
 		
-		rows.add (index.get(newkey));
+		Integer pos = index ().get(keyVal);
+		if (pos != null) rows.add (tuples.get(pos));
 
-		return new Table (name + count++, attribute, domain, key, rows);
+		return new Table (name + count++, attribute, domain, key, rows, storage);
     } // select
 
     /************************************************************************************
      * Union this table and table2.  Check that the two tables are compatible.
+     * Duplicate tuples (equal in every attribute) are eliminated using a hash set
+     * over tuple values, or by probing this table's index when both tables share
+     * the same primary key.
      *
      * #usage movie.union (show)
      *
@@ -347,38 +580,34 @@ public class Table implements Serializable
 
         List <Comparable []> rows = new ArrayList<Comparable []>();//initializes the list
 
-        if(compatible(table2)){//if compatible then do the operation
-        	       	
-        	for(Comparable[] temp1 : tuples){//adds all tuples from table 1
-            	rows.add(temp1);        	
-            }
-            
-            for(Comparable[] temp1 : table2.tuples){//adds tuple from table 2, also checks for duplicates
-            	boolean unique=true;
-            	for(Comparable[] temp2 : tuples){
-            		if(temp1.equals(temp2)){
-            			unique=false;
-            		}
-            	}
-            	if(unique==true){
-            		rows.add(temp1);
-            	}        	
-            }                               
-        	        	       	
-        }
+        if (sameKey (table2)) {
+            rows.addAll (tuples);                                  // unique keys => unique tuples
+            for (Comparable [] temp1 : table2.tuples) {            // adds tuple from table 2 unless in table 1
+                Integer pos = index ().get (table2.keyOf (temp1));
+                if (pos == null || ! Arrays.equals (tuples.get (pos), temp1)) rows.add (temp1);
+            } // for
+        } else {
+            Set <KeyType> seen = new HashSet <> (2 * (tuples.size () + table2.tuples.size ()));
+            for (Comparable [] temp1 : tuples) {
+                if (seen.add (new KeyType (temp1))) rows.add (temp1);
+            } // for
+            for (Comparable [] temp1 : table2.tuples) {
+                if (seen.add (new KeyType (temp1))) rows.add (temp1);
+            } // for
+        } // if
                 
-        List <Comparable []> rows2 = new ArrayList <> ();
-        Table t = new Table (name + count++, attribute, domain, key, rows2);
+        Table t = new Table (name + count++, attribute, domain, key, storage);
         for (int i = 0; i<rows.size(); i++){
-        	//t.insert will automatically add that value to the table's index as well
-        	t.insert(rows.get(i));
+        	//t.append will automatically add that value to the table's index as well
+        	t.append(rows.get(i));
         }
         return t;
     } // union
 
     /************************************************************************************
      * Take the difference of this table and table2.  Check that the two tables are
-     * compatible.
+     * compatible.  Membership in table2 is tested with a hash set over tuple values,
+     * or by probing table2's index when both tables share the same primary key.
      *
      * #usage movie.minus (show)
      *
@@ -392,27 +621,26 @@ public class Table implements Serializable
         if (! compatible (table2)) return null;
 
         List <Comparable []> rows = new ArrayList <Comparable []> () ;
-    	
-        for(Comparable [] newrows : tuples){
-        	boolean check = true;
-        	for(Comparable [] row : table2.tuples){
-        		if(newrows.equals(row)){
-        			check = false;
-        			break;
-        		}
-        	}
-        	if(check)
-        	rows.add(newrows);
-        	     	       	
-        }
 
-        // I M P L E M E N T E D 
+        if (sameKey (table2)) {
+            for (Comparable [] newrows : tuples) {
+                Integer pos = table2.index ().get (keyOf (newrows));
+                if (pos == null || ! Arrays.equals (table2.tuples.get (pos), newrows)) rows.add (newrows);
+            } // for
+        } else {
+            Set <KeyType> rhs = new HashSet <> (2 * table2.tuples.size ());
+            for (Comparable [] row : table2.tuples) rhs.add (new KeyType (row));
+            Set <KeyType> seen = new HashSet <> ();
+            for (Comparable [] newrows : tuples) {
+                KeyType k = new KeyType (newrows);
+                if (! rhs.contains (k) && seen.add (k)) rows.add (newrows);
+            } // for
+        } // if
 
-        List <Comparable []> rows2 = new ArrayList <> ();
-        Table t = new Table (name + count++, attribute, domain, key, rows2);
+        Table t = new Table (name + count++, attribute, domain, key, storage);
         for (int i = 0; i<rows.size(); i++){
-        	//t.insert will automatically add that value to the table's index as well
-        	t.insert(rows.get(i));
+        	//t.append will automatically add that value to the table's index as well
+        	t.append(rows.get(i));
         }
         return t;
     } // minus
@@ -438,7 +666,11 @@ public class Table implements Serializable
     /************************************************************************************
      * Join this table and table2 by performing an equijoin.  Tuples from both tables
      * are compared requiring attributes1 to equal attributes2.  Disambiguate attribute
-     * names by append "2" to the end of any duplicate attribute name.
+     * names by append "2" to the end of any duplicate attribute name.  When both
+     * tables have an ordered index (SortedMap) on exactly their join columns, a
+     * sort-merge join over the index order is done.  Otherwise this is a hash join:
+     * the smaller table is loaded into a hash table on its join columns, which is
+     * then probed once by each tuple of the larger table.
      *
      * #usage movie.join ("studioNo", "name", studio)
      * #usage movieStar.join ("name == s.name", starsIn)
@@ -452,30 +684,244 @@ public class Table implements Serializable
         out.println ("RA> " + name + ".join (" + attributes1 + ", " + attributes2 + ", "
                                                + table2.name + ")");
 
-        String [] t_attrs = attributes1.split (" ");
-        String [] u_attrs = attributes2.split (" ");
-
-        List <Comparable []> rows = new ArrayList <Comparable []> () ;
+        int [] cols1 = match (attributes1.split (" "));
+        int [] cols2 = table2.match (attributes2.split (" "));
 
-	    for(Comparable [] newrows : tuples){
-	    	for(Comparable [] row : table2.tuples){
-	        		if(compareAttr(t_attrs, u_attrs, newrows, row, table2))
-	                	rows.add(ArrayUtil.concat(newrows, row));
-	        }
-        }
+        List <Comparable []> rows = (sameDomains (cols1, table2, cols2) && indexOrdered (cols1)
+                                                                  && table2.indexOrdered (cols2))
+                                  ? mergeRows (cols1, table2, cols2)
+                                  : hashRows (cols1, table2, cols2);
 	    
 	    return new Table (name + count++, ArrayUtil.concat (attribute, table2.attribute),
-                ArrayUtil.concat (domain, table2.domain), key, rows);
+                ArrayUtil.concat (domain, table2.domain), key, rows, storage);
+    } // join
 
-    }
+    /************************************************************************************
+     * Join this table and table2 by performing a partitioned parallel hash join.
+     * Both inputs are hash partitioned on their join columns by parallel chunk
+     * scans, then each pair of matching partitions is joined (build on the smaller
+     * side, probe with the larger) as a separate task on a fork/join pool.  Tuples
+     * come out grouped by partition rather than in input order.
+     *
+     * #usage student.join ("id", "studId", transcript, 64, 8)
+     *
+     * @param attributes1  the attributes of this table to be compared
+     * @param attributes2  the attributes of table2 to be compared
+     * @param table2       the rhs table in the join operation
+     * @param partitions   the number of hash partitions per input (at least 1)
+     * @param parallelism  the number of threads to use (taken as 1 if less)
+     * @return  a table with tuples satisfying the equality predicate
+     * @throws IllegalArgumentException  if partitions is not positive
+     */
+    public Table join (String attributes1, String attributes2, Table table2,
+                       int partitions, int parallelism)
+    {
+        out.println ("RA> " + name + ".join (" + attributes1 + ", " + attributes2 + ", "
+                     + table2.name + ", " + partitions + " partitions, " + parallelism + " threads)");
+
+        if (partitions < 1) throw new IllegalArgumentException ("join: partitions must be positive, not " + partitions);
+        parallelism = Math.max (1, parallelism);
+        int [] cols1 = match (attributes1.split (" "));
+        int [] cols2 = table2.match (attributes2.split (" "));
+
+        List <List <Comparable []>> part1 = partition (tuples, cols1, partitions, parallelism);
+        List <List <Comparable []>> part2 = partition (table2.tuples, cols2, partitions, parallelism);
+
+        List <List <Comparable []>> joined = new ArrayList <> (Collections.nCopies (partitions, null));
+        List <Callable <Object>> tasks = new ArrayList <> (partitions);
+        for (int p = 0; p < partitions; p++) {
+            int pp = p;
+            tasks.add (Executors.callable (() -> {
+                List <Comparable []> r = part1.get (pp), u = part2.get (pp), rows = new ArrayList <> ();
+                boolean buildLeft = r.size () <= u.size ();
+                Map <KeyType, List <Comparable []>> ht = new HashMap <> (2 * Math.min (r.size (), u.size ()));
+                for (Comparable [] b : buildLeft ? r : u) {
+                    ht.computeIfAbsent (new KeyType (extract (b, buildLeft ? cols1 : cols2)), k -> new ArrayList <> (1)).add (b);
+                } // for
+                for (Comparable [] q : buildLeft ? u : r) {
+                    List <Comparable []> matches = ht.get (new KeyType (extract (q, buildLeft ? cols2 : cols1)));
+                    if (matches == null) continue;
+                    for (Comparable [] b : matches) rows.add (buildLeft ? ArrayUtil.concat (b, q) : ArrayUtil.concat (q, b));
+                } // for
+                joined.set (pp, rows);
+            }));
+        } // for
+        runAll (parallelism, tasks);
+
+        List <Comparable []> rows = new ArrayList <> ();
+        for (List <Comparable []> r : joined) rows.addAll (r);
+
+	    return new Table (name + count++, ArrayUtil.concat (attribute, table2.attribute),
+                ArrayUtil.concat (domain, table2.domain), key, rows, storage);
+    } // join
+
+    /************************************************************************************
+     * Hash partition the given tuples on the given columns.  Chunks of the input are
+     * partitioned in parallel and their pieces are then concatenated per partition.
+     *
+     * @param rows         the tuples to partition
+     * @param colPos       the positions of the partitioning columns
+     * @param partitions   the number of partitions
+     * @param parallelism  the number of threads to use
+     * @return  the list of partitions
+     */
+    private static List <List <Comparable []>> partition (List <Comparable []> rows, int [] colPos,
+                                                          int partitions, int parallelism)
+    {
+        int n      = rows.size ();
+        int chunk  = Math.max (1024, n / (4 * parallelism));
+        int nParts = (n + chunk - 1) / chunk;
+        List <List <Comparable []> []> pieces = new ArrayList <> (Collections.nCopies (nParts, null));
+
+        List <Callable <Object>> scans = new ArrayList <> (nParts);
+        for (int c = 0; c < nParts; c++) {
+            int part = c, lo = c * chunk, hi = Math.min (n, lo + chunk);
+            scans.add (Executors.callable (() -> {
+                @SuppressWarnings("unchecked")
+                List <Comparable []> [] piece = new List [partitions];
+                for (int p = 0; p < partitions; p++) piece [p] = new ArrayList <> ();
+                for (int i = lo; i < hi; i++) {
+                    Comparable [] tup = rows.get (i);
+                    int h = new KeyType (extract (tup, colPos)).hashCode ();
+                    piece [Math.floorMod (h ^ (h >>> 16), partitions)].add (tup);
+                } // for
+                pieces.set (part, piece);
+            }));
+        } // for
+        runAll (parallelism, scans);
+
+        List <List <Comparable []>> result = new ArrayList <> (partitions);
+        for (int p = 0; p < partitions; p++) {
+            List <Comparable []> all = new ArrayList <> ();
+            for (List <Comparable []> [] piece : pieces) all.addAll (piece [p]);
+            result.add (all);
+        } // for
+        return result;
+    } // partition
+
+    /************************************************************************************
+     * Join this table and table2 by performing a sort-merge equijoin.  Each input is
+     * read in join column order, taken from an ordered index scan (e.g., the leaf
+     * level of a BpTreeMap) when its index covers the join columns, and otherwise by
+     * sorting a copy of its tuples.  The result comes out in join column order.  Join
+     * columns of different domains (e.g., Integer and Long) cannot be compared, so
+     * they are joined by hashing instead (and never match, as in join).
+     *
+     * #usage student.mergeJoin ("id", "studId", transcript)
+     *
+     * @param attributes1  the attributes of this table to be compared
+     * @param attributes2  the attributes of table2 to be compared
+     * @param table2       the rhs table in the join operation
+     * @return  a table with tuples satisfying the equality predicate
+     */
+    public Table mergeJoin (String attributes1, String attributes2, Table table2)
+    {
+        out.println ("RA> " + name + ".mergeJoin (" + attributes1 + ", " + attributes2 + ", "
+                                                    + table2.name + ")");
+
+        int [] cols1 = match (attributes1.split (" "));
+        int [] cols2 = table2.match (attributes2.split (" "));
+
+        List <Comparable []> rows = sameDomains (cols1, table2, cols2) ? mergeRows (cols1, table2, cols2)
+                                                                      : hashRows (cols1, table2, cols2);
+
+	    return new Table (name + count++, ArrayUtil.concat (attribute, table2.attribute),
+                ArrayUtil.concat (domain, table2.domain), key, rows, storage);
+    } // mergeJoin
+
+    /************************************************************************************
+     * Determine whether the join columns of this table and table2 have the same
+     * domains pairwise, so their values can be compared (as merging requires).
+     *
+     * @param cols1   the positions of the join columns in this table
+     * @param table2  the rhs table in the join operation
+     * @param cols2   the positions of the join columns in table2
+     * @return  whether the join columns have the same domains
+     */
+    private boolean sameDomains (int [] cols1, Table table2, int [] cols2)
+    {
+        if (cols1.length != cols2.length) return false;
+        for (int j = 0; j < cols1.length; j++) {
+            if (domain [cols1 [j]] != table2.domain [cols2 [j]]) return false;
+        } // for
+        return true;
+    } // sameDomains
+
+    /************************************************************************************
+     * Produce the tuples of an equijoin with table2 by merging both inputs in join
+     * column order.  Runs of equal join values on both sides are cross multiplied.
+     *
+     * @param cols1   the positions of the join columns in this table
+     * @param table2  the rhs table in the join operation
+     * @param cols2   the positions of the join columns in table2
+     * @return  the joined tuples
+     */
+    private List <Comparable []> mergeRows (int [] cols1, Table table2, int [] cols2)
+    {
+        List <Comparable []> rows  = new ArrayList <Comparable []> () ;
+        List <Comparable []> left  = sortedOn (cols1);
+        List <Comparable []> right = table2.sortedOn (cols2);
+
+        int i = 0, j = 0;
+        while (i < left.size () && j < right.size ()) {
+            int cmp = compareOn (left.get (i), cols1, right.get (j), cols2);
+            if (cmp < 0) i++;
+            else if (cmp > 0) j++;
+            else {
+                int i2 = i + 1, j2 = j + 1;                  // find the runs of equal values
+                while (i2 < left.size () && compareOn (left.get (i2), cols1, left.get (i), cols1) == 0) i2++;
+                while (j2 < right.size () && compareOn (right.get (j2), cols2, right.get (j), cols2) == 0) j2++;
+                for (int a = i; a < i2; a++) {
+                    for (int b = j; b < j2; b++) rows.add (ArrayUtil.concat (left.get (a), right.get (b)));
+                } // for
+                i = i2; j = j2;
+            } // if
+        } // while
+        return rows;
+    } // mergeRows
+
+    /************************************************************************************
+     * Produce the tuples of an equijoin with table2 by hashing the smaller input on
+     * its join columns and probing with the larger one.
+     *
+     * @param cols1   the positions of the join columns in this table
+     * @param table2  the rhs table in the join operation
+     * @param cols2   the positions of the join columns in table2
+     * @return  the joined tuples
+     */
+    private List <Comparable []> hashRows (int [] cols1, Table table2, int [] cols2)
+    {
+        List <Comparable []> rows = new ArrayList <Comparable []> () ;
+
+        if (tuples.size () <= table2.tuples.size ()) {               // build on this table
+            Map <KeyType, List <Comparable []>> ht = hashOn (cols1);
+            for (Comparable [] row : table2.tuples) {
+                List <Comparable []> matches = ht.get (new KeyType (extract (row, cols2)));
+                if (matches == null) continue;
+                for (Comparable [] newrows : matches) rows.add (ArrayUtil.concat (newrows, row));
+            } // for
+        } else {                                                        // build on table2
+            Map <KeyType, List <Comparable []>> ht = table2.hashOn (cols2);
+            for (Comparable [] newrows : tuples) {
+                List <Comparable []> matches = ht.get (new KeyType (extract (newrows, cols1)));
+                if (matches == null) continue;
+                for (Comparable [] row : matches) rows.add (ArrayUtil.concat (newrows, row));
+            } // for
+        } // if
+        return rows;
+    } // hashRows
     
     /************************************************************************************
      * Join this table and table2 by performing an equijoin in respect to their indexes.
-     * The primary and foreign keys are compared to see if they are equal.  
-     * Tuples from both tables are compared requiring attributes1 to equal attributes2. 
+     * The primary and foreign keys are compared to see if they are equal.  Whichever
+     * table is joined on its full primary key has its index probed once per tuple of
+     * the other (foreign key) table.  If neither is, a hash join is done instead.
      * 
-     * @param keyVal  the key of the first table
-     * @param keyVal2  the key of the second table
+     * #usage student.indexedJoin ("id", "studId", transcript)
+     *
+     * @param attributes1  the attributes of this table to be compared
+     * @param attributes2  the attributes of table2 to be compared
+     * @param table2       the rhs table in the join operation
      * @return  a table with the joined index tuples
      */
     public Table indexedJoin (String attributes1, String attributes2, Table table2)
@@ -486,37 +932,30 @@ public class Table implements Serializable
         String [] attr1 = attributes1.split (" ");
         String [] attr2 = attributes2.split (" ");
         
-    	//first see which one is a primary key
-    	KeyType key1 = new KeyType(attributes1);
-    	KeyType key2 = new KeyType(attributes2);
-    	Table fTable = null;
-    	Table pTable = null;
-    	
-    	if (key1.equals(new KeyType(key))){
-    		//primary key of table 1
-    		fTable = table2;
-    		pTable = this;
-    		
-    	}
-    	else if (key2.equals(new KeyType(table2.key))){
-    		//primary key of table 2
-    		fTable = this;
-    		pTable = table2;
-    	}
-
         List <Comparable []> rows = new ArrayList <Comparable []> ();
 
-	    for(Comparable [] newrows: fTable.tuples){
-	    	for(Comparable [] row : pTable.tuples){
-        		if(compareAttr(attr1, attr2, newrows, row, table2))
-                	rows.add(ArrayUtil.concat(row, newrows));	
-        	}
-        }
+    	//first see which one is a primary key
+        int [] probe = keyProbe (attr1, attr2, table2);
+        if (probe != null) {
+    		//primary key of table 1: probe this index with each tuple of table2
+            for (Comparable [] row : table2.tuples) {
+                Integer pos = index ().get (new KeyType (extract (row, probe)));
+                if (pos != null) rows.add (ArrayUtil.concat (tuples.get (pos), row));
+            } // for
+        } else if ((probe = table2.keyProbe (attr2, attr1, this)) != null) {
+    		//primary key of table 2: probe table2's index with each tuple of this table
+            for (Comparable [] newrows : tuples) {
+                Integer pos = table2.index ().get (new KeyType (extract (newrows, probe)));
+                if (pos != null) rows.add (ArrayUtil.concat (newrows, table2.tuples.get (pos)));
+            } // for
+        } else {
+            out.println ("indexedJoin: neither side is joined on an indexed primary key");
+            return join (attributes1, attributes2, table2);
+        } // if
 	    
 		return new Table (name + count++, ArrayUtil.concat (attribute, table2.attribute),
-                ArrayUtil.concat (domain, table2.domain), key, rows);
-		
-    }
+                ArrayUtil.concat (domain, table2.domain), key, rows, storage);
+    } // indexedJoin
     
     /************************************************************************************
      * Return the column position for the given attribute name.
@@ -534,7 +973,9 @@ public class Table implements Serializable
     } // col
 
     /************************************************************************************
-     * Insert a tuple to the table.
+     * Insert a tuple to the table.  If logging is on (see logInserts), the tuple is
+     * first recorded in the write-ahead log, and insert only returns once the record
+     * is on disk; concurrent inserts share the log flushes (group commit).
      *
      * #usage movie.insert ("'Star_Wars'", 1977, 124, "T", "Fox", 12345)
      *
@@ -545,23 +986,214 @@ public class Table implements Serializable
     {
         //out.println ("DML> insert into " + name + " values ( " + Arrays.toString (tup) + " )");
 
-        if (typeCheck (tup)) {
-            tuples.add (tup);
-            Comparable [] keyVal = new Comparable [key.length];
-            String newkey=new String();
-            
-            int []        cols   = match (key);
-            for (int j = 0; j < keyVal.length; j++){
-            	keyVal [j] = tup [cols [j]];
-            	newkey=newkey+keyVal[j];
-        	}
-            index.put(newkey, tup);
+        if (! typeCheck (tup)) return false;
+        if (wal == null) {
+            append (tup);
             return true;
-        } else {
-            return false;
         } // if
+
+        try {
+            long    lsn;
+            boolean due;
+            synchronized (this) {
+                lsn = wal.append (tuples.size (), tup);
+                append (tup);
+                sinceCheckpoint++;
+                due = checkpointInterval > 0 && sinceCheckpoint >= checkpointInterval;
+            } // synchronized
+            wal.commit (lsn);
+            if (due) checkpoint ();
+            return true;
+        } catch (IOException ex) {
+            out.println ("insert: IO Exception");
+            ex.printStackTrace ();
+            return false;
+        } // try
     } // insert
 
+    /************************************************************************************
+     * Insert a batch of tuples into this table (bulk load).  The column types of the
+     * whole batch are checked before anything is inserted (so one bad tuple rejects
+     * the batch), an empty B+Tree index (BpTreeMap or LongKeyIndex) is built
+     * bottom-up from the sorted keys with full leaves (see BpTreeMap.bulkLoad), and
+     * hash indexes are presized for the new rows.  With logging on, the batch is
+     * appended to the log and committed with a single flush.
+     *
+     * #usage movie.insertAll (Arrays.asList (film0, film1, film2))
+     *
+     * @param tups  the tuples to insert
+     * @return  whether the tuples were inserted
+     */
+    public boolean insertAll (List <Comparable []> tups)
+    {
+        if (! typeCheck (tups)) return false;
+        if (wal == null) {
+            appendAll (tups);
+            return true;
+        } // if
+
+        try {
+            long    lsn = 0;
+            boolean due;
+            synchronized (this) {
+                int row = tuples.size ();
+                for (Comparable [] tup : tups) lsn = wal.append (row++, tup);
+                appendAll (tups);
+                sinceCheckpoint += tups.size ();
+                due = checkpointInterval > 0 && sinceCheckpoint >= checkpointInterval;
+            } // synchronized
+            wal.commit (lsn);
+            if (due) checkpoint ();
+            return true;
+        } catch (IOException ex) {
+            out.println ("insertAll: IO Exception");
+            ex.printStackTrace ();
+            return false;
+        } // try
+    } // insertAll
+
+    /************************************************************************************
+     * Turn on write-ahead logging of inserts.  Inserted tuples are appended to the
+     * table's log file, and every checkpointInterval inserts the table is saved and the
+     * log truncated (a checkpoint).  After a crash, load and open replay the log.
+     *
+     * #usage movie.logInserts (10000)
+     *
+     * @param _checkpointInterval  the number of inserts between checkpoints
+     */
+    public synchronized void logInserts (int _checkpointInterval)
+    {
+        try {
+            if (wal == null) wal = new WriteAheadLog (Paths.get (DIR + name + LOG), domain);
+            checkpointInterval = _checkpointInterval;
+            sinceCheckpoint    = 0;
+        } catch (IOException ex) {
+            out.println ("logInserts: IO Exception");
+            ex.printStackTrace ();
+        } // try
+    } // logInserts
+
+    /************************************************************************************
+     * Take a checkpoint: save the table to its file and then truncate its log, so
+     * durability no longer depends on the logged records.  If the save fails, the log
+     * is kept (it is then the only durable copy of the inserts) and the checkpoint is
+     * retried on the next insert.
+     *
+     * @return  whether the checkpoint was taken
+     */
+    public synchronized boolean checkpoint ()
+    {
+        if (! save ()) return false;
+        sinceCheckpoint = 0;
+        if (wal != null) {
+            try {
+                wal.truncate ();
+            } catch (IOException ex) {
+                out.println ("checkpoint: IO Exception");
+                ex.printStackTrace ();
+                return false;
+            } // try
+        } // if
+        return true;
+    } // checkpoint
+
+    /************************************************************************************
+     * Append a tuple that is already known to comply with the domains (e.g., one
+     * produced by an operator on this table's data) without type checking it again.
+     *
+     * @param tup  the array of attribute values forming the tuple
+     */
+    void append (Comparable [] tup)
+    {
+        KeyType k = keyOf (tup);
+        if (keyed && index ().get (k) != null) keyed = false;
+        tuples.add (tup);
+        indexPut (k, tuples.size () - 1);
+        if (zones != null) zones.add (tup);
+    } // append
+
+    /************************************************************************************
+     * Append a batch of tuples that are known to comply with the domains.  An empty
+     * B+Tree index (BpTreeMap or LongKeyIndex) is built bottom-up from the batch's
+     * keys in sorted order (for a duplicated key the last row is indexed, as with
+     * repeated appends); other indexes are presized if they are hash maps and then
+     * filled in batch order.
+     *
+     * @param tups  the tuples to append
+     */
+    @SuppressWarnings("unchecked")
+    private void appendAll (List <Comparable []> tups)
+    {
+        Map <KeyType, Integer> idx = index ();
+        int first = tuples.size ();
+        tuples.addAll (tups);
+        if (zones != null) for (Comparable [] tup : tups) zones.add (tup);
+
+        if (idx instanceof LongKeyIndex && idx.isEmpty ()) {
+            int n = tups.size ();
+            long []   keys = new long [n];
+            Object [] rows = new Object [n];
+            for (int i = 0; i < n; i++) {
+                keys [i] = ((Number) tups.get (i) [keyPos [0]]).longValue ();
+                rows [i] = first + i;
+            } // for
+            LongBpTreeMap.sort (keys, rows, n);                   // stable: later rows last
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                if (m > 0 && keys [m - 1] == keys [i]) {
+                    keyed = false;
+                    rows [m - 1] = rows [i];
+                } else {
+                    keys [m]   = keys [i];
+                    rows [m++] = rows [i];
+                } // if
+            } // for
+            ((LongKeyIndex) idx).tree ().bulkLoad (keys, rows, m);
+            return;
+        } // if
+
+        if (idx instanceof BpTreeMap && idx.isEmpty ()) {
+            List <Map.Entry <KeyType, Integer>> entries = new ArrayList <> (tups.size ());
+            for (int i = 0; i < tups.size (); i++) {
+                entries.add (new AbstractMap.SimpleEntry <> (keyOf (tups.get (i)), first + i));
+            } // for
+            entries.sort (Map.Entry.comparingByKey ());             // stable: later rows last
+            int n = 0;
+            for (Map.Entry <KeyType, Integer> e : entries) {
+                if (n > 0 && entries.get (n - 1).getKey ().equals (e.getKey ())) {
+                    keyed = false;
+                    entries.set (n - 1, e);
+                } else {
+                    entries.set (n++, e);
+                } // if
+            } // for
+            ((BpTreeMap <KeyType, Integer>) idx).bulkLoad (entries.subList (0, n));
+            return;
+        } // if
+
+        if (idx instanceof ExtHashMap) ((ExtHashMap <KeyType, Integer>) idx).ensureCapacity (tuples.size ());
+        if (idx instanceof LinHashMap) ((LinHashMap <KeyType, Integer>) idx).ensureCapacity (tuples.size ());
+        for (int i = 0; i < tups.size (); i++) {
+            KeyType k = keyOf (tups.get (i));
+            if (keyed && idx.get (k) != null) keyed = false;
+            if (indexPut (k, first + i)) return;
+        } // for
+    } // appendAll
+
+    /************************************************************************************
+     * Start a pipelined query over this table.  Operators chained on the returned
+     * Query stream tuples through one another and nothing is materialized until
+     * Query.toTable is called.
+     *
+     * #usage movie.query ().join ("studioName", "name", studio).select (p).project ("title").toTable ()
+     *
+     * @return  a query whose source is a scan of this table
+     */
+    public Query query ()
+    {
+        return new Query (name, attribute, domain, key, storage, tuples.stream ());
+    } // query
+
     /************************************************************************************
      * Get the name of the table.
      *
@@ -572,6 +1204,46 @@ public class Table implements Serializable
         return name;
     } // getName
 
+    /************************************************************************************
+     * Get the attribute names of the table.
+     *
+     * @return  the table's attributes
+     */
+    String [] getAttribute ()
+    {
+        return attribute;
+    } // getAttribute
+
+    /************************************************************************************
+     * Get the attribute domains of the table.
+     *
+     * @return  the table's domains
+     */
+    Class [] getDomain ()
+    {
+        return domain;
+    } // getDomain
+
+    /************************************************************************************
+     * Get the tuples of the table (for operators that read this table directly).
+     *
+     * @return  the table's tuples
+     */
+    List <Comparable []> getTuples ()
+    {
+        return tuples;
+    } // getTuples
+
+    /************************************************************************************
+     * Get the write-ahead log of the table (null unless logging is on).
+     *
+     * @return  the table's log
+     */
+    WriteAheadLog getLog ()
+    {
+        return wal;
+    } // getLog
+
     /************************************************************************************
      * Print this table.
      */
@@ -613,46 +1285,185 @@ public class Table implements Serializable
     {
         out.println ("\n Index for " + name);
         out.println ("-------------------");
-        for (Map.Entry <String, Comparable []> e : index.entrySet ()) {
-            out.println (e.getKey () + " -> " + Arrays.toString (e.getValue ()));
+        for (Map.Entry <KeyType, Integer> e : index ().entrySet ()) {
+            out.println (e.getKey () + " -> " + Arrays.toString (tuples.get (e.getValue ())));
         } // for
         out.println ("-------------------");
     } // printIndex
 
     /************************************************************************************
-     * Load the table with the given name into memory. 
+     * Load the table with the given name into memory.  The file is read a batch of
+     * pages at a time (see PageFile) and the index is rebuilt as the tuples are added.
+     * Inserts recorded in the table's write-ahead log since its last checkpoint are
+     * then replayed (see replay).
      *
      * @param name  the name of the table to load
      */
     public static Table load (String name)
     {
         Table tab = null;
-        try {
-            ObjectInputStream ois = new ObjectInputStream (new FileInputStream (DIR + name + EXT));
-            tab = (Table) ois.readObject ();
-            ois.close ();
+        try (PageFile pf = PageFile.open (Paths.get (DIR + name + EXT), false)) {
+            Table t = new Table (pf.name, pf.attribute, pf.domain, pf.key, pf.storage);
+            pf.scan (t::append);
+            t.replay ();
+            tab = t;
         } catch (IOException ex) {
             out.println ("load: IO Exception");
             ex.printStackTrace ();
-        } catch (ClassNotFoundException ex) {
-            out.println ("load: Class Not Found Exception");
-            ex.printStackTrace ();
+            tab = null;
         } // try
         return tab;
     } // load
 
     /************************************************************************************
-     * Save this table in a file.
+     * Replay the inserts recorded in the table's write-ahead log since its last
+     * checkpoint.  Each record carries the row number its tuple was given, so the
+     * records for rows the table file already holds (the system crashed between
+     * saving the table and truncating the log) are skipped, whatever the tuples'
+     * keys.  Recovery then ends with a checkpoint: the table is saved if anything was
+     * replayed, and the log is emptied, so the same records are never replayed again.
+     *
+     * @throws IOException  if reading the log fails, or the recovered table cannot
+     *                      be saved
      */
-    public void save ()
+    private void replay ()
+            throws IOException
     {
+        Path log = Paths.get (DIR + name + LOG);
+        if (! Files.exists (log) || Files.size (log) == 0) return;
+        int [] n = { 0 };
+        WriteAheadLog.replay (log, domain, (tup, row) -> {
+            if (row >= tuples.size ()) {
+                append (tup);
+                n [0]++;
+            } // if
+        });
+        if (n [0] > 0) {
+            out.println ("replay: replayed " + n [0] + " logged inserts into " + name);
+            if (! save ()) throw new IOException ("replay: could not save " + name + " after recovery");
+        } // if
+        WriteAheadLog.clear (log);
+    } // replay
+
+    /************************************************************************************
+     * Open the table with the given name without loading it.  The table file is
+     * memory-mapped (see MappedStore), so only the pages touched by scans and index
+     * probes are ever read, and they are cached by the operating system rather than
+     * held on the Java heap.  The index is built the first time it is needed.  Logged
+     * inserts are replayed as by load.
+     *
+     * #usage Table movie = Table.open ("movie")
+     *
+     * @param name  the name of the table to open
+     * @return  the opened table, or null if it could not be opened
+     */
+    public static Table open (String name)
+    {
+        Table tab = null;
+        try (PageFile pf = PageFile.open (Paths.get (DIR + name + EXT), false)) {
+            tab = new Table (pf.name, pf.attribute, pf.domain, pf.key, new MappedStore (pf));
+            tab.index = null;
+            tab.keyed = true;
+            tab.replay ();
+        } catch (IOException ex) {
+            out.println ("open: IO Exception");
+            ex.printStackTrace ();
+        } // try
+        return tab;
+    } // open
+
+    /************************************************************************************
+     * Open the table with the given name for paged access through a buffer pool of
+     * the given number of page frames (see PagedStore and BufferPool), so that a
+     * table larger than the heap can be queried and inserted into.  The table must
+     * be closed to write its changes back to its file.  Logged inserts are replayed
+     * as by load.
+     *
+     * #usage Table movie = Table.open ("movie", 256, BufferPool.Policy.LRU)
+     *
+     * @param name    the name of the table to open
+     * @param frames  the number of page frames in the buffer pool
+     * @param policy  the eviction policy of the buffer pool
+     * @return  the opened table, or null if it could not be opened
+     */
+    public static Table open (String name, int frames, BufferPool.Policy policy)
+    {
+        Table tab = null;
         try {
-            ObjectOutputStream oos = new ObjectOutputStream (new FileOutputStream (DIR + name + EXT));
-            oos.writeObject (this);
-            oos.close ();
+            PageFile pf = PageFile.open (Paths.get (DIR + name + EXT), true);
+            tab = new Table (pf.name, pf.attribute, pf.domain, pf.key, new PagedStore (pf, frames, policy));
+            tab.index = null;
+            tab.keyed = true;
+            tab.replay ();
         } catch (IOException ex) {
+            out.println ("open: IO Exception");
+            ex.printStackTrace ();
+        } // try
+        return tab;
+    } // open
+
+    /************************************************************************************
+     * Close this table, writing back the pages (and disk-resident index) of a table
+     * opened for paged access and closing its write-ahead log.  Tables held on the heap without logging need
+     * not be closed.
+     */
+    public synchronized void close ()
+    {
+        if (wal != null) {
+            try {
+                wal.close ();
+            } catch (IOException ex) {
+                out.println ("close: IO Exception");
+                ex.printStackTrace ();
+            } // try
+            wal = null;
+        } // if
+        if (tuples instanceof Closeable) {
+            try {
+                ((Closeable) tuples).close ();
+            } catch (IOException ex) {
+                out.println ("close: IO Exception");
+                ex.printStackTrace ();
+            } // try
+        } // if
+        if (index instanceof Closeable) {
+            try {
+                ((Closeable) index).close ();
+            } catch (IOException ex) {
+                out.println ("close: IO Exception");
+                ex.printStackTrace ();
+            } // try
+            index = null;
+        } // if
+    } // close
+
+    /************************************************************************************
+     * Save this table in a file, using the binary page format of PageFile.  The file
+     * is written under a temporary name and then renamed over the old one, so a crash
+     * never leaves a half-written table and an open (mapped) copy of the old file
+     * stays valid.  A table opened for paged access already lives in its file, so its
+     * buffer pool is flushed to the open file instead (rewriting the file would leave
+     * the pool writing to the old, unlinked one).
+     *
+     * @return  whether the table was saved
+     */
+    public boolean save ()
+    {
+        try {
+            if (tuples instanceof PagedStore) {
+                ((PagedStore) tuples).flush ();
+                return true;
+            } // if
+            Path path = Paths.get (DIR + name + EXT), tmp = Paths.get (DIR + name + EXT + ".tmp");
+            try (PageFile pf = PageFile.create (tmp, name, attribute, domain, key, storage)) {
+                pf.append (tuples);
+            } // try
+            Files.move (tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException | UncheckedIOException ex) {
             out.println ("save: IO Exception");
             ex.printStackTrace ();
+            return false;
         } // try
     } // save
 
@@ -682,13 +1493,25 @@ public class Table implements Serializable
         return true;
     } // compatible
 
+    /************************************************************************************
+     * Determine whether this table and table2 have the same primary key attributes
+     * and both indices reach every tuple, so a tuple's key can be looked up in either.
+     *
+     * @param table2  the rhs table
+     * @return  whether both tables are keyed on the same attributes
+     */
+    private boolean sameKey (Table table2)
+    {
+        return keyed () && table2.keyed () && Arrays.equals (key, table2.key);
+    } // sameKey
+
     /************************************************************************************
      * Match the column and attribute names to determine the domains.
      *
      * @param column  the array of column names
      * @return  an array of column index positions
      */
-    private int [] match (String [] column)
+    int [] match (String [] column)
     {
         int [] colPos = new int [column.length];
 
@@ -708,6 +1531,337 @@ public class Table implements Serializable
         return colPos;
     } // match
 
+    /************************************************************************************
+     * Determine whether this table is joined on exactly its primary key (pAttrs is a
+     * permutation of key) and its index holds every tuple.  If so, return the
+     * positions in fTable of the matching attributes fAttrs, ordered as in key, so a
+     * tuple of fTable can be turned into a probe key for this table's index.
+     *
+     * @param pAttrs  the join attributes of this table
+     * @param fAttrs  the corresponding join attributes of fTable
+     * @param fTable  the other table in the join
+     * @return  the probe column positions in fTable, or null if the index can't be used
+     */
+    private int [] keyProbe (String [] pAttrs, String [] fAttrs, Table fTable)
+    {
+        if (! keyed () || pAttrs.length != key.length) return null;
+
+        String [] fKey = new String [key.length];
+        for (int j = 0; j < key.length; j++) {
+            int i = Arrays.asList (pAttrs).indexOf (key [j]);
+            if (i < 0) return null;
+            fKey [j] = fAttrs [i];
+        } // for
+        return fTable.match (fKey);
+    } // keyProbe
+
+    /************************************************************************************
+     * Return the shared fork/join pool with the given parallelism, creating it on
+     * first use.
+     *
+     * @param parallelism  the number of worker threads
+     * @return  the fork/join pool
+     */
+    static synchronized ForkJoinPool pool (int parallelism)
+    {
+        return pools.computeIfAbsent (parallelism, ForkJoinPool::new);
+    } // pool
+
+    /************************************************************************************
+     * Run the tasks on the shared pool for the given degree of parallelism and wait
+     * for all of them.  If a task failed, its exception is rethrown here (an unchecked
+     * exception or error as it is, a checked one wrapped in a CompletionException), so
+     * a failure in, e.g., a user's predicate reaches the caller with its cause.
+     *
+     * @param parallelism  the number of threads to use
+     * @param tasks        the tasks to run
+     */
+    static void runAll (int parallelism, List <Callable <Object>> tasks)
+    {
+        for (Future <Object> f : pool (parallelism).invokeAll (tasks)) {
+            try {
+                f.get ();
+            } catch (InterruptedException ex) {
+                Thread.currentThread ().interrupt ();
+                throw new CancellationException ("interrupted waiting for parallel tasks");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause ();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new CompletionException (cause);
+            } // try
+        } // for
+    } // runAll
+
+    /************************************************************************************
+     * Determine whether the index is ordered (a SortedMap such as TreeMap or BpTreeMap)
+     * on exactly the given columns and reaches every tuple, so that scanning it yields
+     * the tuples sorted on those columns.
+     *
+     * @param colPos  the column positions
+     * @return  whether an index scan gives the tuples in colPos order
+     */
+    private boolean indexOrdered (int [] colPos)
+    {
+        return keyed () && index instanceof SortedMap && Arrays.equals (colPos, keyPos);
+    } // indexOrdered
+
+    /************************************************************************************
+     * Return the tuples sorted on the given columns, either by scanning an ordered
+     * index that covers them or by sorting a copy of the tuples.
+     *
+     * @param colPos  the column positions to sort on
+     * @return  the tuples in colPos order
+     */
+    private List <Comparable []> sortedOn (int [] colPos)
+    {
+        List <Comparable []> sorted = new ArrayList <> (tuples.size ());
+        if (indexOrdered (colPos)) {
+            for (Integer pos : index ().values ()) sorted.add (tuples.get (pos));
+        } else {
+            sorted.addAll (tuples);
+            sorted.sort ((t, u) -> compareOn (t, colPos, u, colPos));
+        } // if
+        return sorted;
+    } // sortedOn
+
+    /************************************************************************************
+     * Compare tuple t on columns tCols with tuple u on columns uCols, column by column.
+     *
+     * @param t      the first tuple
+     * @param tCols  the columns of t to compare
+     * @param u      the second tuple
+     * @param uCols  the columns of u to compare
+     * @return  a negative, zero or positive integer as t is less, equal or greater
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareOn (Comparable [] t, int [] tCols, Comparable [] u, int [] uCols)
+    {
+        for (int j = 0; j < tCols.length; j++) {
+            int cmp = t [tCols [j]].compareTo (u [uCols [j]]);
+            if (cmp != 0) return cmp;
+        } // for
+        return 0;
+    } // compareOn
+
+    /************************************************************************************
+     * Return the index, first building it over the tuples if the table was opened
+     * from a mapped file and the index has not been needed until now.
+     *
+     * @return  the index
+     */
+    private Map <KeyType, Integer> index ()
+    {
+        if (index == null) {
+            Map <KeyType, Integer> idx = null;
+            if (tuples instanceof PagedStore) {
+                idx = diskIndex ();
+                if (idx == null) {                                // a String key is too long
+                    keyBytes = longestKey ();
+                    idx = diskIndex ();
+                } // if
+            } // if
+            index = (idx != null) ? idx : fill (makeIndex ());
+        } // if
+        return index;
+    } // index
+
+    /************************************************************************************
+     * Put the given key and row number in the index.  Should the key not fit in a
+     * disk-resident index (a String key longer than keyBytes), the index is rebuilt
+     * over all the tuples (which must already include the row) with keys as wide as
+     * the longest one.
+     *
+     * @param k    the key
+     * @param row  the row number
+     * @return  whether the index was rebuilt
+     */
+    private boolean indexPut (KeyType k, int row)
+    {
+        try {
+            index.put (k, row);
+            return false;
+        } catch (IllegalArgumentException ex) {
+            if (! (index instanceof DiskBpTreeMap)) throw ex;
+            closeQuietly ((Closeable) index);
+            index    = null;
+            keyBytes = longestKey ();
+            index ();
+            return true;
+        } // try
+    } // indexPut
+
+    /************************************************************************************
+     * Fill the given (empty) index with the keys of all the tuples.
+     *
+     * @param idx  the index to fill
+     * @return  the filled index
+     */
+    private Map <KeyType, Integer> fill (Map <KeyType, Integer> idx)
+    {
+        for (int i = 0; i < tuples.size (); i++) {
+            KeyType k = keyOf (tuples.get (i));
+            if (keyed && idx.get (k) != null) keyed = false;
+            idx.put (k, i);
+        } // for
+        return idx;
+    } // fill
+
+    /************************************************************************************
+     * Build a disk-resident index over the tuples with String keys of up to keyBytes
+     * bytes.
+     *
+     * @return  the index, or null if a key does not fit (or keys this wide do not fit
+     *          in a page)
+     */
+    private Map <KeyType, Integer> diskIndex ()
+    {
+        Map <KeyType, Integer> idx = null;
+        try {
+            idx = makeDiskIndex ();
+            return fill (idx);
+        } catch (IllegalArgumentException ex) {
+            if (idx != null) closeQuietly ((Closeable) idx);
+            return null;
+        } // try
+    } // diskIndex
+
+    /************************************************************************************
+     * Return the length in bytes (UTF-8) of the longest String key column value in the
+     * table, but at least KEY_BYTES.
+     *
+     * @return  the key width for String key columns
+     */
+    private int longestKey ()
+    {
+        int longest = KEY_BYTES;
+        for (int j = 0; j < keyPos.length; j++) {
+            if (domain [keyPos [j]] != String.class) continue;
+            for (Comparable [] tup : tuples) {
+                longest = Math.max (longest, ((String) tup [keyPos [j]]).getBytes (StandardCharsets.UTF_8).length);
+            } // for
+        } // for
+        return longest;
+    } // longestKey
+
+    /************************************************************************************
+     * Close the given index, ignoring failures (the index is being discarded).
+     *
+     * @param idx  the index to close
+     */
+    private static void closeQuietly (Closeable idx)
+    {
+        try {
+            idx.close ();
+        } catch (IOException ex) {
+            out.println ("closeQuietly: IO Exception");
+        } // try
+    } // closeQuietly
+
+    /************************************************************************************
+     * Return the zone map, first building it over the tuples if it has not been
+     * needed until now (it is then kept up to date by append).
+     *
+     * @return  the zone map
+     */
+    private ZoneMap zones ()
+    {
+        if (zones == null) {
+            ZoneMap zm = new ZoneMap (attribute.length);
+            for (Comparable [] t : tuples) zm.add (t);
+            zones = zm;
+        } // if
+        return zones;
+    } // zones
+
+    /************************************************************************************
+     * Collect the tuples satisfying the predicate into a new table, reading only the
+     * blocks whose zone map summary of column c overlaps [lo, hi].
+     *
+     * @param c          the column the predicate restricts
+     * @param lo         the lower bound on the column (inclusive) or null
+     * @param hi         the upper bound on the column (inclusive) or null
+     * @param predicate  the condition the tuples must satisfy
+     * @return  a table with the tuples satisfying the predicate
+     */
+    private Table zoneScan (int c, Comparable lo, Comparable hi, Predicate <Comparable []> predicate)
+    {
+        ZoneMap zm = zones ();
+        int     n  = tuples.size ();
+        Table   t  = new Table (name + count++, attribute, domain, key, storage);
+        for (int b = 0; b < zm.blocks (); b++) {
+            if (! zm.overlaps (b, c, lo, hi)) continue;
+            for (int i = b * ZoneMap.BLOCK, end = Math.min (n, i + ZoneMap.BLOCK); i < end; i++) {
+                Comparable [] tup = tuples.get (i);
+                if (predicate.test (tup)) t.append (tup);
+            } // for
+        } // for
+        return t;
+    } // zoneScan
+
+    /************************************************************************************
+     * Return whether every tuple can be reached through the index under its own key
+     * (building the index first if need be).
+     *
+     * @return  whether the table is keyed
+     */
+    private boolean keyed ()
+    {
+        index ();
+        return keyed;
+    } // keyed
+
+    /************************************************************************************
+     * Make the primary index.  Adjust the index based on which map you want to use.
+     * A single-column integer key is indexed by a B+Tree on primitive longs (see
+     * LongKeyIndex), which needs neither key objects nor boxed comparisons.
+     *
+     * @return  an empty map from primary key values to tuple numbers
+     */
+    private Map <KeyType, Integer> makeIndex ()
+    {
+        if (keyPos.length == 1 && LongKeyIndex.supports (domain [keyPos [0]])) {
+            return new LongKeyIndex (domain [keyPos [0]]);
+        } // if
+        //return new LinHashMap <> (KeyType.class, Integer.class, 11);
+        //return new BpTreeMap <> (KeyType.class, Integer.class);
+        //return new ExtHashMap <> (KeyType.class, Integer.class, 1024);
+        return new TreeMap <> ();
+    } // makeIndex
+
+    /************************************************************************************
+     * Make a disk-resident primary index (see DiskBpTreeMap) for a table opened for
+     * paged access, so that neither its tuples nor its index need fit on the heap.
+     * The index file is rebuilt each time the table is opened.  String key columns
+     * take up to keyBytes bytes each.
+     *
+     * @return  an empty disk-resident map from primary key values to tuple numbers
+     */
+    private Map <KeyType, Integer> makeDiskIndex ()
+    {
+        Class [] keyDomain = new Class [keyPos.length];
+        for (int j = 0; j < keyPos.length; j++) keyDomain [j] = domain [keyPos [j]];
+        try {
+            Path path = Paths.get (DIR + name + IDX);
+            Files.deleteIfExists (path);
+            return new DiskBpTreeMap <> (path, DiskBpTreeMap.keyType (keyDomain, keyBytes), DiskBpTreeMap.INTEGER);
+        } catch (IOException ex) {
+            throw new UncheckedIOException (ex);
+        } // try
+    } // makeDiskIndex
+
+    /************************************************************************************
+     * Extract the primary key of tuple t, using the key positions resolved when the
+     * table was created.
+     *
+     * @param t  the tuple to extract the key from
+     * @return  the composite key of tuple t
+     */
+    private KeyType keyOf (Comparable [] t)
+    {
+        return new KeyType (extract (t, keyPos));
+    } // keyOf
+
     /************************************************************************************
      * Extract the attributes specified by the column array from tuple t.
      *
@@ -717,12 +1871,39 @@ public class Table implements Serializable
      */
     private Comparable [] extract (Comparable [] t, String [] column)
     {
-        Comparable [] tup = new Comparable [column.length];
-        int [] colPos = match (column);
-        for (int j = 0; j < column.length; j++) tup [j] = t [colPos [j]];
+        return extract (t, match (column));
+    } // extract
+
+    /************************************************************************************
+     * Extract the attributes at the given column positions from tuple t.
+     *
+     * @param t       the tuple to extract from
+     * @param colPos  the column positions (e.g., resolved once per query by match)
+     * @return  a smaller tuple extracted from tuple t 
+     */
+    static Comparable [] extract (Comparable [] t, int [] colPos)
+    {
+        Comparable [] tup = new Comparable [colPos.length];
+        for (int j = 0; j < colPos.length; j++) tup [j] = t [colPos [j]];
         return tup;
     } // extract
 
+    /************************************************************************************
+     * Build a hash table over this table's tuples, grouping them by the values in the
+     * given columns (the build phase of a hash join).
+     *
+     * @param colPos  the positions of the join columns
+     * @return  a map from join column values to the tuples having them
+     */
+    Map <KeyType, List <Comparable []>> hashOn (int [] colPos)
+    {
+        Map <KeyType, List <Comparable []>> ht = new HashMap <> (2 * tuples.size ());
+        for (Comparable [] t : tuples) {
+            ht.computeIfAbsent (new KeyType (extract (t, colPos)), k -> new ArrayList <> (1)).add (t);
+        } // for
+        return ht;
+    } // hashOn
+
     /************************************************************************************
      * Check the size of the tuple (number of elements in list) as well as the type of
      * each value to ensure it is from the right domain. 
@@ -754,6 +1935,33 @@ public class Table implements Serializable
         return true;
     } // typeCheck
 
+    /************************************************************************************
+     * Check the size and type of every tuple in a batch, one column at a time.
+     *
+     * @param tups  the tuples to check
+     * @return  whether all the tuples conform to the domains
+     */
+    private boolean typeCheck (List <Comparable []> tups)
+    {
+        for (Comparable [] t : tups) {
+            if (t.length != domain.length) {
+                out.println ("size ERROR: tuple size does not match domain");
+                return false;
+            } // if
+        } // for
+        for (int j = 0; j < domain.length; j++) {
+            Class c = domain [j];
+            for (Comparable [] t : tups) {
+                if (t [j].getClass () != c) {
+                    out.println ("type ERROR: expected type of tuple is" + c);
+                    out.println ("tuple type is: " + t [j].getClass ());
+                    return false;
+                } // if
+            } // for
+        } // for
+        return true;
+    } // typeCheck
+
     /************************************************************************************
      * Find the classes in the "java.lang" package with given names.
      *
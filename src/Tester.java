@@ -6,6 +6,8 @@
 import static java.lang.System.out;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 /*****************************************************************************************
  * This class times our select and joins with the Student Registration Database defined in the
  * Kifer, Bernstein and Lewis 2006 database textbook.
@@ -69,19 +71,15 @@ public class Tester {
     
     out.println("DDL> Inserting 5000 Students, 2000 Professors, 3000 Transcripts..");
     for (int i = 0; i <tups.length; i++) {
-        for (int j = 0; j < tups[i].length; j++) {
-        	
-        	if (tables[i].equals("Student")){
-                	student.insert(tups[i][j]);
-                }
-        	else if(tables[i].equals("Professor")){
-                	professor.insert(tups[i][j]);
-                }
-	        else if(tables[i].equals("Transcript")){
-	        		//out.println(Arrays.toString(tups[i][j]));
-	        		transcript.insert(tups[i][j]);
-	        }
-        } // for
+    	if (tables[i].equals("Student")){
+            	student.insertAll(Arrays.asList(tups[i]));
+            }
+    	else if(tables[i].equals("Professor")){
+            	professor.insertAll(Arrays.asList(tups[i]));
+            }
+        else if(tables[i].equals("Transcript")){
+        		transcript.insertAll(Arrays.asList(tups[i]));
+        }
     } // for    
     
     //Print tables
@@ -154,7 +152,7 @@ public class Tester {
     sum = 0; avg = 0;
     for(int x = 0; x < 4; x++){
 	    startTime = System.currentTimeMillis();
-	    Table t_riselect = student.select (680080, 900000);
+	    Table t_riselect = student.select (new KeyType (680080), new KeyType (900000));
 	    endTime = System.currentTimeMillis();
 	    duration = (endTime - startTime); 
 	    sum = sum + duration;
@@ -200,10 +198,335 @@ public class Tester {
     //t_jiselect.print ();
     
     
+    //--------------------- sort-merge join
+    out.println ();
+    out.println("----Case 3.3: Join, Sort-Merge----");
+    sum = 0; avg = 0;
+    for(int x = 0; x < 4; x++){
+	    startTime = System.currentTimeMillis();
+	    Table t_jmselect = student.mergeJoin("id", "studId", transcript);
+	    endTime = System.currentTimeMillis();
+	    duration = (endTime - startTime); 
+	    sum = sum + duration;
+	    out.println("Time " + x + " = " + duration);
+    }
+    avg = sum/4;
+    out.println("Avg Time = " + avg + "ms");
+    //t_jmselect.print ();
+    
+    
 	}//gen
 	
+    /*************************************************************************************
+     * The storage method compares the ROW and COLUMN storage layouts on the Student and
+     * Transcript workload: retained heap after loading, and the time taken to load,
+     * select, project and join.
+     * @param nStudents  the number of Student tuples to generate
+     */
+	public static void storage (int nStudents){
+
+	for (Table.Storage layout : Table.Storage.values ()) {
+	    TupleGenerator test = new TupleGeneratorImpl ();
+	    test.addRelSchema ("Student",
+	                       "id name address status",
+	                       "Integer String String String",
+	                       "id",
+	                       null);
+	    test.addRelSchema ("Transcript",
+	                       "studId crsCode semester grade",
+	                       "Integer String String String",
+	                       "studId",
+	                       new String [][] {{ "studId", "Student", "id"}});
+
+	    long before = usedMemory ();
+	    Comparable [][][] tups = test.generate (new int [] {nStudents, nStudents / 5});
+
+	    Table student = new Table ("student", "id name address status", "Integer String String String", "id", layout);
+	    Table transcript = new Table ("transcript", "studId crsCode semester grade", "Integer String String String", "studId", layout);
+
+	    long startTime = System.currentTimeMillis ();
+	    for (Comparable [] tup : tups [0]) student.insert (tup);
+	    for (Comparable [] tup : tups [1]) transcript.insert (tup);
+	    long loadTime = System.currentTimeMillis () - startTime;
+
+	    tups = null; test = null;                     // only the tables now hold the data
+	    long retained = usedMemory () - before;
+
+	    startTime = System.currentTimeMillis ();
+	    student.select (t -> t[student.col("status")].equals ("status202834"));
+	    long selectTime = System.currentTimeMillis () - startTime;
+
+	    startTime = System.currentTimeMillis ();
+	    student.project ("id status");
+	    long projectTime = System.currentTimeMillis () - startTime;
+
+	    startTime = System.currentTimeMillis ();
+	    student.join ("id", "studId", transcript);
+	    long joinTime = System.currentTimeMillis () - startTime;
+
+	    out.println ();
+	    out.println ("----Storage " + layout + ": " + nStudents + " Students----");
+	    out.println ("Retained heap = " + retained / (1024 * 1024) + " MB");
+	    out.println ("Load = " + loadTime + "ms, Select = " + selectTime + "ms, Project = "
+	                 + projectTime + "ms, Join = " + joinTime + "ms");
+	} // for
+	}//storage
+
+    /*************************************************************************************
+     * The parallel method times a full-scan select on a large Student table using
+     * 1, 2, 4, ... threads up to the number of available processors.
+     * @param nStudents  the number of Student tuples to generate
+     */
+	public static void parallel (int nStudents){
+
+	TupleGenerator test = new TupleGeneratorImpl ();
+	test.addRelSchema ("Student",
+	                   "id name address status",
+	                   "Integer String String String",
+	                   "id",
+	                   null);
+	Table student = new Table ("student", "id name address status", "Integer String String String", "id");
+	for (Comparable [] tup : test.generate (new int [] {nStudents}) [0]) student.insert (tup);
+
+	int nCores = Runtime.getRuntime ().availableProcessors ();
+	for (int threads = 1; threads <= nCores; threads = (threads == nCores) ? threads + 1 : Math.min (2 * threads, nCores)) {
+	    double sum = 0;
+	    for (int x = 0; x < 6; x++){
+		    long startTime = System.nanoTime ();
+		    student.select (t -> ((String) t[3]).endsWith ("77") && ((String) t[1]).compareTo ("name5") < 0, threads);
+		    long duration = System.nanoTime () - startTime;
+		    if (x > 0) sum += duration / 1E6;                 // skip the warm up run
+	    }
+	    out.println ();
+	    out.println ("----Parallel Select: " + nStudents + " Students, " + threads + " threads----");
+	    out.println ("Avg Time = " + sum / 5 + "ms");
+	} // for
+	}//parallel
+
+    /*************************************************************************************
+     * The pjoin method times the Student-Transcript join on scaled-up generated data,
+     * first with the single-threaded hash join and then with the partitioned parallel
+     * hash join using 1, 2, 4, ... threads up to the number of available processors.
+     * @param nStudents  the number of Student (and Transcript) tuples to generate
+     */
+	public static void pjoin (int nStudents){
+
+	TupleGenerator test = new TupleGeneratorImpl ();
+	test.addRelSchema ("Student",
+	                   "id name address status",
+	                   "Integer String String String",
+	                   "id",
+	                   null);
+	test.addRelSchema ("Transcript",
+	                   "studId crsCode semester grade",
+	                   "Integer String String String",
+	                   "studId",
+	                   new String [][] {{ "studId", "Student", "id"}});
+	Comparable [][][] tups = test.generate (new int [] {nStudents, nStudents});
+	Table student = new Table ("student", "id name address status", "Integer String String String", "id");
+	Table transcript = new Table ("transcript", "studId crsCode semester grade", "Integer String String String", "studId");
+	for (Comparable [] tup : tups [0]) student.insert (tup);
+	for (Comparable [] tup : tups [1]) transcript.insert (tup);
+
+	int nCores = Runtime.getRuntime ().availableProcessors ();
+	for (int threads = 0; threads <= nCores; threads = (threads == nCores) ? threads + 1 : Math.min (Math.max (1, 2 * threads), nCores)) {
+	    double sum = 0;
+	    for (int x = 0; x < 4; x++){
+		    long startTime = System.nanoTime ();
+		    if (threads == 0) student.join ("id", "studId", transcript);
+		    else student.join ("id", "studId", transcript, 16 * nCores, threads);
+		    long duration = System.nanoTime () - startTime;
+		    if (x > 0) sum += duration / 1E6;                 // skip the warm up run
+	    }
+	    out.println ();
+	    out.println ("----Join: " + nStudents + " Students, " + (threads == 0 ? "hash join" : "partitioned, " + threads + " threads") + "----");
+	    out.println ("Avg Time = " + sum / 3 + "ms");
+	} // for
+	}//pjoin
+
+    /*************************************************************************************
+     * Benchmark a table opened through a buffer pool: full scans and skewed point
+     * lookups (90% of them on 10% of the rows) for each eviction policy and several
+     * pool sizes, reporting the time and the pool's hits, misses and evictions.
+     * @param nStudents  the number of Student tuples
+     */
+	public static void pool (int nStudents){
+
+	TupleGenerator test = new TupleGeneratorImpl ();
+	test.addRelSchema ("Student",
+	                   "id name address status",
+	                   "Integer String String String",
+	                   "id",
+	                   null);
+	Comparable [][][] tups = test.generate (new int [] {nStudents});
+	Table student = new Table ("student_pool", "id name address status", "Integer String String String", "id");
+	for (Comparable [] tup : tups [0]) student.insert (tup);
+	student.save ();
+	student = null;
+
+	int nLookups = 100000;
+	Random rand = new Random (42);
+	int [] rows = new int [nLookups];
+	for (int i = 0; i < nLookups; i++) {
+	    rows [i] = (rand.nextInt (10) < 9) ? rand.nextInt (Math.max (1, nStudents / 10)) : rand.nextInt (nStudents);
+	} // for
+
+	Table sized = Table.open ("student_pool", 1, BufferPool.Policy.LRU);
+	int nPages = ((PagedStore) sized.getTuples ()).pages ();
+	sized.close ();
+
+	for (BufferPool.Policy policy : BufferPool.Policy.values ()) {
+	    for (int pct : new int [] {1, 10, 50, 100}) {
+		    int frames = Math.max (1, nPages * pct / 100);
+		    Table t = Table.open ("student_pool", frames, policy);
+		    List <Comparable []> tl = t.getTuples ();
+		    BufferPool bp = ((PagedStore) tl).pool ();
+		    out.println ();
+		    out.println ("----Buffer pool: " + policy + ", " + frames + " frames (" + pct + "% of " + nPages + " pages)----");
+
+		    long startTime = System.nanoTime ();
+		    for (int x = 0; x < 2; x++) t.select (u -> u [3].equals (""));
+		    out.println ("Scan   Avg Time = " + (System.nanoTime () - startTime) / 2E6 + "ms"
+		                 + ", hits " + bp.hits () + ", misses " + bp.misses () + ", evictions " + bp.evictions ());
+		    bp.resetStats ();
+
+		    startTime = System.nanoTime ();
+		    for (int r : rows) tl.get (r);
+		    out.println ("Lookup Time     = " + (System.nanoTime () - startTime) / 1E6 + "ms"
+		                 + ", hits " + bp.hits () + ", misses " + bp.misses () + ", evictions " + bp.evictions ());
+		    bp.resetStats ();
+
+		    startTime = System.nanoTime ();
+		    for (int q = 0; q < 4; q++) {                                  // lookups with a scan between batches
+			    for (int i = q * nLookups / 4; i < (q + 1) * nLookups / 4; i++) tl.get (rows [i]);
+			    for (Comparable [] u : tl) { }
+		    } // for
+		    out.println ("Mixed Time      = " + (System.nanoTime () - startTime) / 1E6 + "ms"
+		                 + ", hits " + bp.hits () + ", misses " + bp.misses () + ", evictions " + bp.evictions ());
+		    t.close ();
+	    } // for
+	} // for
+	}//pool
+
+    /*************************************************************************************
+     * Benchmark inserts with write-ahead logging on: each insert waits for its log
+     * record to reach disk, so the throughput with 1, 2, 4, ... concurrent writers
+     * shows how many writers share each log flush (group commit).  Inserts without
+     * logging and the time of a final checkpoint are reported for comparison.
+     * @param nStudents  the number of Student tuples to insert
+     */
+	public static void wal (int nStudents){
+
+	TupleGenerator test = new TupleGeneratorImpl ();
+	test.addRelSchema ("Student",
+	                   "id name address status",
+	                   "Integer String String String",
+	                   "id",
+	                   null);
+	Comparable [][] tups = test.generate (new int [] {nStudents}) [0];
+
+	Table plain = new Table ("student_wal", "id name address status", "Integer String String String", "id");
+	long startTime = System.nanoTime ();
+	for (Comparable [] tup : tups) plain.insert (tup);
+	double secs = (System.nanoTime () - startTime) / 1E9;
+	out.println ();
+	out.println ("----Insert: " + nStudents + " Students, no log----");
+	out.println ("Throughput = " + (int) (nStudents / secs) + " inserts/s");
+
+	for (int threads = 1; threads <= 16; threads *= 2) {
+	    Table t = new Table ("student_wal", "id name address status", "Integer String String String", "id");
+	    t.logInserts (Integer.MAX_VALUE);
+	    t.checkpoint ();                                          // start from an empty file and log
+	    int nThreads = threads;
+	    Thread [] writer = new Thread [nThreads];
+	    for (int w = 0; w < nThreads; w++) {
+		    int first = w;
+		    writer [w] = new Thread (() -> {
+			    for (int i = first; i < tups.length; i += nThreads) t.insert (tups [i]);
+		    });
+	    } // for
+	    startTime = System.nanoTime ();
+	    for (Thread w : writer) w.start ();
+	    for (Thread w : writer) {
+		    try { w.join (); } catch (InterruptedException ex) { Thread.currentThread ().interrupt (); }
+	    } // for
+	    secs = (System.nanoTime () - startTime) / 1E9;
+	    long syncs = t.getLog ().syncs ();
+	    out.println ();
+	    out.println ("----Insert: " + nStudents + " Students, logged, " + nThreads + " writers----");
+	    out.println ("Throughput = " + (int) (nStudents / secs) + " inserts/s, "
+	                 + syncs + " log flushes (" + String.format ("%.1f", nStudents / (double) syncs) + " inserts per flush)");
+	    startTime = System.nanoTime ();
+	    t.checkpoint ();
+	    out.println ("Checkpoint Time = " + (System.nanoTime () - startTime) / 1E6 + "ms");
+	    t.close ();
+	} // for
+	}//wal
+
+    /*************************************************************************************
+     * Benchmark the initial load of a table: inserting the tuples one at a time versus
+     * one bulk insertAll (using the index chosen by Table.makeIndex).
+     * @param nStudents  the number of Student tuples to load
+     */
+	public static void load (int nStudents){
+
+	TupleGenerator test = new TupleGeneratorImpl ();
+	test.addRelSchema ("Student",
+	                   "id name address status",
+	                   "Integer String String String",
+	                   "id",
+	                   null);
+	Comparable [][] tups = test.generate (new int [] {nStudents}) [0];
+	List <Comparable []> batch = Arrays.asList (tups);
+
+	for (int rep = 0; rep < 3; rep++) {
+	    Table t = new Table ("student", "id name address status", "Integer String String String", "id");
+	    long startTime = System.nanoTime ();
+	    for (Comparable [] tup : tups) t.insert (tup);
+	    double insert = (System.nanoTime () - startTime) / 1E6;
+
+	    Table u = new Table ("student", "id name address status", "Integer String String String", "id");
+	    startTime = System.nanoTime ();
+	    u.insertAll (batch);
+	    double insertAll = (System.nanoTime () - startTime) / 1E6;
+
+	    out.println ();
+	    out.println ("----Load: " + nStudents + " Students (run " + (rep + 1) + ")----");
+	    out.println ("insert    Time = " + insert + "ms");
+	    out.println ("insertAll Time = " + insertAll + "ms");
+	} // for
+	}//load
+
+    /*************************************************************************************
+     * Return the heap currently in use after requesting a garbage collection.
+     * @return  the used heap in bytes
+     */
+	private static long usedMemory (){
+	    Runtime rt = Runtime.getRuntime ();
+	    for (int i = 0; i < 3; i++) System.gc ();
+	    return rt.totalMemory () - rt.freeMemory ();
+	}//usedMemory
+
     public static void main (String [] args){ 	
-    	gen();
+    	if (args.length > 0 && args[0].equals ("storage")){
+    		storage (args.length > 1 ? Integer.parseInt (args[1]) : 100000);
+    	}
+    	else if (args.length > 0 && args[0].equals ("pjoin")){
+    		pjoin (args.length > 1 ? Integer.parseInt (args[1]) : 500000);
+    	}
+    	else if (args.length > 0 && args[0].equals ("parallel")){
+    		parallel (args.length > 1 ? Integer.parseInt (args[1]) : 500000);
+    	}
+    	else if (args.length > 0 && args[0].equals ("pool")){
+    		pool (args.length > 1 ? Integer.parseInt (args[1]) : 200000);
+    	}
+    	else if (args.length > 0 && args[0].equals ("wal")){
+    		wal (args.length > 1 ? Integer.parseInt (args[1]) : 20000);
+    	}
+    	else if (args.length > 0 && args[0].equals ("load")){
+    		load (args.length > 1 ? Integer.parseInt (args[1]) : 500000);
+    	}
+    	else gen();
     }
 	
 	
@@ -0,0 +1,271 @@
+/****************************************************************************************
+ * @file  WriteAheadLog.java
+ *
+ * @author   John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/****************************************************************************************
+ * This class implements an append-only write-ahead log of inserted tuples.  Each
+ * record holds the length of its body, a CRC32 checksum and the body: the row number
+ * the tuple was given in its table, then the tuple in the binary form used by
+ * PageFile.  The row numbers tell recovery which records the saved table file
+ * already holds (those below its tuple count).  Appending only hands the record to the operating
+ * system; a writer then calls commit to wait until its record is on disk.  Commits
+ * are grouped: one committing writer (the leader) forces the log for every record
+ * appended so far while the others wait, so concurrent writers share each fsync.
+ * A checkpoint (see Table.checkpoint) saves the table and then truncates the log;
+ * after a crash the records past the saved table's tuples are replayed on top of
+ * it.  A record torn by a crash (incomplete or failing its checksum) ends the log:
+ * opening the log cuts it off, so later records are never appended behind it.
+ */
+class WriteAheadLog
+      implements Closeable
+{
+    /** Size of a record's header (length and checksum).
+     */
+    private static final int HEADER = 8;
+
+    /** Size of the row number at the start of a record's body.
+     */
+    private static final int ROW = 4;
+
+    /** The domains (data types) of the logged tuples.
+     */
+    private final Class [] domain;
+
+    /** The channel to the log file.
+     */
+    private final FileChannel channel;
+
+    /** Log sequence number of the start of the log file (grows with each truncation,
+     *  so sequence numbers keep increasing).
+     */
+    private long base;
+
+    /** Log sequence number just past the last appended record.
+     */
+    private long end;
+
+    /** Log sequence number up to which the log is known to be on disk.
+     */
+    private long durable;
+
+    /** Whether a leader is currently forcing the log to disk.
+     */
+    private boolean flushing = false;
+
+    /** The number of times the log was forced (for measuring group commit).
+     */
+    private long syncs = 0;
+
+    /************************************************************************************
+     * Open (or create) a log file for appending.  A torn or corrupt tail left by a
+     * crash is cut off, so new records follow the last valid one.
+     *
+     * @param path     the path of the log file
+     * @param _domain  the domains of the logged tuples
+     * @throws IOException  if the file cannot be opened
+     */
+    WriteAheadLog (Path path, Class [] _domain)
+        throws IOException
+    {
+        domain  = _domain;
+        if (path.getParent () != null) Files.createDirectories (path.getParent ());
+        channel = FileChannel.open (path, CREATE, WRITE);
+        long valid = scan (path, domain, null);
+        if (valid < channel.size ()) {
+            channel.truncate (valid);
+            channel.force (true);
+        } // if
+        end     = durable = valid;
+    } // constructor
+
+    /************************************************************************************
+     * Append a record for the given tuple (without waiting for it to reach disk).
+     *
+     * @param row  the row number the tuple is given in its table
+     * @param tup  the tuple to log
+     * @return  the log sequence number to pass to commit
+     * @throws IOException  if writing fails
+     */
+    synchronized long append (int row, Comparable [] tup)
+                 throws IOException
+    {
+        int size = ROW + PageFile.size (tup, domain);
+        ByteBuffer b = ByteBuffer.allocate (HEADER + size);
+        b.position (HEADER);
+        b.putInt (row);
+        for (int j = 0; j < tup.length; j++) PageFile.put (b, tup [j], domain [j]);
+        CRC32 crc = new CRC32 ();
+        crc.update (b.array (), HEADER, size);
+        b.putInt (0, size).putInt (4, (int) crc.getValue ());
+        b.clear ();
+        long pos = end - base;
+        while (b.hasRemaining ()) pos += channel.write (b, pos);
+        end = base + pos;
+        return end;
+    } // append
+
+    /************************************************************************************
+     * Wait until the log is on disk up to the given sequence number.  If no other
+     * writer is forcing the log, this one becomes the leader and forces everything
+     * appended so far (on behalf of all waiting writers); otherwise it waits for the
+     * leader and, if that flush did not cover its record, tries again.
+     *
+     * @param lsn  the log sequence number returned by append
+     * @throws IOException  if forcing the log fails
+     */
+    void commit (long lsn)
+         throws IOException
+    {
+        long target;
+        synchronized (this) {
+            while (durable < lsn && flushing) {
+                try {
+                    wait ();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread ().interrupt ();
+                    throw new InterruptedIOException ("commit interrupted");
+                } // try
+            } // while
+            if (durable >= lsn) return;
+            flushing = true;
+            target   = end;
+        } // synchronized
+        try {
+            channel.force (false);
+        } finally {
+            synchronized (this) {
+                flushing = false;
+                durable  = Math.max (durable, target);
+                syncs++;
+                notifyAll ();
+            } // synchronized
+        } // try
+    } // commit
+
+    /************************************************************************************
+     * Discard the log's records (after a checkpoint has saved them in the table file).
+     *
+     * @throws IOException  if truncating fails
+     */
+    synchronized void truncate ()
+                 throws IOException
+    {
+        channel.truncate (0);
+        channel.force (true);
+        base    = end;
+        durable = Math.max (durable, end);
+        notifyAll ();
+    } // truncate
+
+    /************************************************************************************
+     * Return the number of times the log was forced to disk.
+     *
+     * @return  the number of syncs
+     */
+    synchronized long syncs ()
+    {
+        return syncs;
+    } // syncs
+
+    /************************************************************************************
+     * Close the log file.
+     *
+     * @throws IOException  if closing fails
+     */
+    public void close ()
+           throws IOException
+    {
+        channel.close ();
+    } // close
+
+    /************************************************************************************
+     * Replay the records of a log file, passing each logged tuple and its row number
+     * to the action.  Replay stops at the first incomplete or corrupt record (one
+     * being written when the system crashed, which was therefore never committed).
+     *
+     * @param path    the path of the log file
+     * @param domain  the domains of the logged tuples
+     * @param action  the action to perform on each logged tuple and row number
+     * @throws IOException  if reading fails
+     */
+    static void replay (Path path, Class [] domain, ObjIntConsumer <Comparable []> action)
+                throws IOException
+    {
+        scan (path, domain, action);
+    } // replay
+
+    /************************************************************************************
+     * Empty the log file at the given path (after recovery has saved its records in
+     * the table file).
+     *
+     * @param path  the path of the log file
+     * @throws IOException  if truncating fails
+     */
+    static void clear (Path path)
+                throws IOException
+    {
+        try (FileChannel ch = FileChannel.open (path, WRITE)) {
+            ch.truncate (0);
+            ch.force (true);
+        } // try
+    } // clear
+
+    /************************************************************************************
+     * Read the valid records of a log file (up to the first incomplete or corrupt
+     * one), passing each to the action if there is one.
+     *
+     * @param path    the path of the log file
+     * @param domain  the domains of the logged tuples
+     * @param action  the action to perform on each logged tuple and row number (or null)
+     * @return  the length in bytes of the valid part of the log
+     * @throws IOException  if reading fails
+     */
+    private static long scan (Path path, Class [] domain, ObjIntConsumer <Comparable []> action)
+                        throws IOException
+    {
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream (new BufferedInputStream (Files.newInputStream (path)))) {
+            while (true) {
+                int size, sum;
+                try {
+                    size = in.readInt ();
+                    sum  = in.readInt ();
+                } catch (EOFException ex) {
+                    break;
+                } // try
+                if (size < ROW) break;
+                byte [] rec = new byte [size];
+                try {
+                    in.readFully (rec);
+                } catch (EOFException ex) {
+                    break;
+                } // try
+                CRC32 crc = new CRC32 ();
+                crc.update (rec);
+                if ((int) crc.getValue () != sum) break;
+
+                if (action != null) {
+                    ByteBuffer b = ByteBuffer.wrap (rec);
+                    int row = b.getInt ();
+                    Comparable [] tup = new Comparable [domain.length];
+                    for (int j = 0; j < tup.length; j++) tup [j] = PageFile.get (b, domain [j]);
+                    action.accept (tup, row);
+                } // if
+                valid += HEADER + size;
+            } // while
+        } // try
+        return valid;
+    } // scan
+
+} // WriteAheadLog class
@@ -0,0 +1,95 @@
+/****************************************************************************************
+ * @file  ZoneMap.java
+ *
+ * @author   John Miller
+ */
+
+import java.util.Arrays;
+
+/****************************************************************************************
+ * This class keeps a zone map for a table: for every block of BLOCK consecutive rows
+ * and every column, the minimum and maximum value in the block.  A selection on a
+ * column range only needs to scan the blocks whose [min, max] overlaps the range, so
+ * when values are correlated with insertion order (e.g., increasing ids) almost every
+ * block is skipped.  The summaries are updated as rows are appended.
+ */
+class ZoneMap
+{
+    /** The number of rows per block.
+     */
+    static final int BLOCK = 4096;
+
+    /** The minimum value of each column in each block (min [column][block]).
+     */
+    private Comparable [][] min;
+
+    /** The maximum value of each column in each block (max [column][block]).
+     */
+    private Comparable [][] max;
+
+    /** The number of rows summarized.
+     */
+    private int nRows = 0;
+
+    /************************************************************************************
+     * Construct an empty zone map for a table with the given number of columns.
+     *
+     * @param columns  the number of columns
+     */
+    ZoneMap (int columns)
+    {
+        min = new Comparable [columns][16];
+        max = new Comparable [columns][16];
+    } // constructor
+
+    /************************************************************************************
+     * Return the number of blocks summarized.
+     *
+     * @return  the number of blocks
+     */
+    int blocks ()
+    {
+        return (nRows + BLOCK - 1) / BLOCK;
+    } // blocks
+
+    /************************************************************************************
+     * Add the next row to the summary of its block.
+     *
+     * @param tup  the row (appended at row number nRows)
+     */
+    @SuppressWarnings("unchecked")
+    void add (Comparable [] tup)
+    {
+        int b = nRows / BLOCK;
+        if (b == min [0].length) {
+            for (int j = 0; j < min.length; j++) {
+                min [j] = Arrays.copyOf (min [j], 2 * b);
+                max [j] = Arrays.copyOf (max [j], 2 * b);
+            } // for
+        } // if
+        for (int j = 0; j < tup.length; j++) {
+            Comparable v = tup [j];
+            if (min [j][b] == null || v.compareTo (min [j][b]) < 0) min [j][b] = v;
+            if (max [j][b] == null || v.compareTo (max [j][b]) > 0) max [j][b] = v;
+        } // for
+        nRows++;
+    } // add
+
+    /************************************************************************************
+     * Determine whether block b may hold a row whose value in column j lies in the
+     * range [lo, hi] (a null bound is unbounded).
+     *
+     * @param b   the block number
+     * @param j   the column number
+     * @param lo  the lower bound (inclusive) or null
+     * @param hi  the upper bound (inclusive) or null
+     * @return  false if no row of the block can be in the range
+     */
+    @SuppressWarnings("unchecked")
+    boolean overlaps (int b, int j, Comparable lo, Comparable hi)
+    {
+        return (lo == null || max [j][b].compareTo (lo) >= 0) &&
+               (hi == null || min [j][b].compareTo (hi) <= 0);
+    } // overlaps
+
+} // ZoneMap class